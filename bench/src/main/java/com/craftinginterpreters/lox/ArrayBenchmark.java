@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Reading and writing array elements, double[] storage against Object[]
+ *
+ * Workloads.arrays: 1000 appends, then 10 passes of a[j] = a[j] + a[j - 1] / 1000.
+ * "numbers" keeps the double[] the whole time, "boxed" is the same numbers
+ * after the array was made to switch to an Object[]. with and without loop
+ * tiering, the compiled loops have their own element fast path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayBenchmark {
+  @Param({"numbers", "boxed"})
+  public String storage;
+
+  @Param({"false", "true"})
+  public boolean tiering;
+
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    statements = Workloads.prepare(Workloads.arrays(storage.equals("numbers")));
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(tiering);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* What the resource budget costs when it never runs out
+ *
+ * off = Budget.unlimited(), generous = every limit set (steps, bytes and a
+ * deadline) but far beyond what the script needs. the difference is the
+ * overhead of the checks themselves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BudgetBenchmark {
+  @Param({"off", "generous"})
+  public String budget;
+
+  @Param({"arithmetic", "concat"})
+  public String workload;
+
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    statements = Workloads.prepare(Workloads.named(workload));
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(false);
+    if (budget.equals("generous")) {
+      interpreter.setBudget(new Budget(1_000_000_000_000L, 1L << 40, 3_600_000));
+    }
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* One formula over a million rows: ColumnEvaluator against rebinding globals
+ * and walking the tree once per row
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnBenchmark {
+  static final int ROWS = 1_000_000;
+
+  private ColumnEvaluator evaluator;
+  private Expr formula;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    double[] price = new double[ROWS];
+    double[] quantity = new double[ROWS];
+    boolean[] member = new boolean[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      price[i] = random.nextDouble() * 100;
+      quantity[i] = random.nextInt(10);
+      member[i] = random.nextBoolean();
+    }
+    evaluator = new ColumnEvaluator(Map.of(
+        "price", ColumnEvaluator.Column.of(price),
+        "quantity", ColumnEvaluator.Column.of(quantity),
+        "member", ColumnEvaluator.Column.of(member)));
+
+    String source = "price * quantity * 0.9 - quantity / 2 > 100 and member or price < 1;";
+    formula = ((Stmt.Expression) Workloads.parse(source, false).get(0)).expression;
+  }
+
+  @Benchmark
+  public ColumnEvaluator.Result byColumn() {
+    return evaluator.evaluate(formula);
+  }
+
+  @Benchmark
+  public ColumnEvaluator.Result byRow() {
+    return evaluator.evaluateByRow(formula);
+  }
+}
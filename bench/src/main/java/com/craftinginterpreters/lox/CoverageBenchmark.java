@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* What --coverage costs while counting
+ *
+ * the InterpreterBenchmark workloads plus 64 KB of Workloads.corpus, all
+ * without tiering: coverage turns it off anyway, so off vs on here is just
+ * the counting. the counters are registered once and keep adding up across
+ * invocations, that's what a long script does to them too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoverageBenchmark {
+  @Param({"off", "on"})
+  public String coverage;
+
+  @Param({"arithmetic", "counted", "concat", "print", "nestedBlocks", "corpus"})
+  public String workload;
+
+  private List<Stmt> statements;
+  private Coverage.Hits hits = null;
+
+  @Setup
+  public void setUp() {
+    String source = workload.equals("corpus") ?
+        Workloads.corpus(64 * 1024) : Workloads.named(workload);
+    statements = Workloads.prepare(source);
+    if (coverage.equals("on")) {
+      Coverage counters = new Coverage();
+      counters.assign(statements);
+      hits = counters.register();
+    }
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(false);
+    interpreter.setCoverage(hits);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
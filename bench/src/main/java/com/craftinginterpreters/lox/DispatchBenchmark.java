@@ -0,0 +1,173 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Visitor (Expr.accept) against the int-kind switch (ExprNode.dispatch)
+ *
+ * the same random arithmetic tree, ~2000 nodes, evaluated by two otherwise
+ * identical evaluators that only know numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+  private Expr tree;
+  private ExprNode node;
+  private final Visiting visiting = new Visiting();
+  private final Switching switching = new Switching();
+
+  @Setup
+  public void setUp() {
+    StringBuilder source = new StringBuilder();
+    expression(source, new Random(42), 10);
+    source.append(";\n");
+
+    List<Stmt> statements = Workloads.parse(source.toString(), false);
+    tree = ((Stmt.Expression) statements.get(0)).expression;
+    node = ExprNode.of(tree);
+  }
+
+  private static void expression(StringBuilder out, Random random, int depth) {
+    if (depth == 0 || random.nextInt(8) == 0) {
+      out.append(1 + random.nextInt(9));
+      return;
+    }
+    if (random.nextInt(6) == 0) {
+      out.append("-(");
+      expression(out, random, depth - 1);
+      out.append(")");
+      return;
+    }
+    out.append("(");
+    expression(out, random, depth - 1);
+    out.append(" ").append("+-*/".charAt(random.nextInt(4))).append(" ");
+    expression(out, random, depth - 1);
+    out.append(")");
+  }
+
+  @Benchmark
+  public Object visitor() {
+    return tree.accept(visiting);
+  }
+
+  @Benchmark
+  public Object kindSwitch() {
+    return ExprNode.dispatch(node, switching);
+  }
+
+  private static double arithmetic(Token operator, double left, double right) {
+    switch (operator.type) {
+      case PLUS: return left + right;
+      case MINUS: return left - right;
+      case STAR: return left * right;
+      case SLASH: return left / right;
+      default: throw new UnsupportedOperationException(operator.lexeme);
+    }
+  }
+
+  // the trees here are numbers, unary minus, grouping and + - * / only
+  private static UnsupportedOperationException notInThisTree(Object node) {
+    return new UnsupportedOperationException(
+        node.getClass().getSimpleName() + " is not in this tree.");
+  }
+
+  /* both evaluators start from every node kind failing, and each overrides the
+   * four it needs. a new node kind is one more line in each of these
+   */
+  private abstract static class NumbersVisitor implements Expr.Visitor<Object> {
+    @Override public Object visitArrayExpr(Expr.Array expr) { throw notInThisTree(expr); }
+    @Override public Object visitAssignExpr(Expr.Assign expr) { throw notInThisTree(expr); }
+    @Override public Object visitBinaryExpr(Expr.Binary expr) { throw notInThisTree(expr); }
+    @Override public Object visitCallExpr(Expr.Call expr) { throw notInThisTree(expr); }
+    @Override public Object visitChannelExpr(Expr.Channel expr) { throw notInThisTree(expr); }
+    @Override public Object visitGroupingExpr(Expr.Grouping expr) { throw notInThisTree(expr); }
+    @Override public Object visitIndexExpr(Expr.Index expr) { throw notInThisTree(expr); }
+    @Override public Object visitLiteralExpr(Expr.Literal expr) { throw notInThisTree(expr); }
+    @Override public Object visitLogicalExpr(Expr.Logical expr) { throw notInThisTree(expr); }
+    @Override public Object visitReceiveExpr(Expr.Receive expr) { throw notInThisTree(expr); }
+    @Override public Object visitSetIndexExpr(Expr.SetIndex expr) { throw notInThisTree(expr); }
+    @Override public Object visitTracedExpr(Expr.Traced expr) { throw notInThisTree(expr); }
+    @Override public Object visitUnaryExpr(Expr.Unary expr) { throw notInThisTree(expr); }
+    @Override public Object visitVariableExpr(Expr.Variable expr) { throw notInThisTree(expr); }
+  }
+
+  private abstract static class NumbersCases implements ExprNode.Cases<Object> {
+    @Override public Object onArray(ExprNode.Array node) { throw notInThisTree(node); }
+    @Override public Object onAssign(ExprNode.Assign node) { throw notInThisTree(node); }
+    @Override public Object onBinary(ExprNode.Binary node) { throw notInThisTree(node); }
+    @Override public Object onCall(ExprNode.Call node) { throw notInThisTree(node); }
+    @Override public Object onChannel(ExprNode.Channel node) { throw notInThisTree(node); }
+    @Override public Object onGrouping(ExprNode.Grouping node) { throw notInThisTree(node); }
+    @Override public Object onIndex(ExprNode.Index node) { throw notInThisTree(node); }
+    @Override public Object onLiteral(ExprNode.Literal node) { throw notInThisTree(node); }
+    @Override public Object onLogical(ExprNode.Logical node) { throw notInThisTree(node); }
+    @Override public Object onReceive(ExprNode.Receive node) { throw notInThisTree(node); }
+    @Override public Object onSetIndex(ExprNode.SetIndex node) { throw notInThisTree(node); }
+    @Override public Object onTraced(ExprNode.Traced node) { throw notInThisTree(node); }
+    @Override public Object onUnary(ExprNode.Unary node) { throw notInThisTree(node); }
+    @Override public Object onVariable(ExprNode.Variable node) { throw notInThisTree(node); }
+  }
+
+  private static final class Visiting extends NumbersVisitor {
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+      double left = (double) expr.left.accept(this);
+      double right = (double) expr.right.accept(this);
+      return arithmetic(expr.operator, left, right);
+    }
+
+    @Override
+    public Object visitGroupingExpr(Expr.Grouping expr) {
+      return expr.expression.accept(this);
+    }
+
+    @Override
+    public Object visitLiteralExpr(Expr.Literal expr) {
+      return expr.value;
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+      return -(double) expr.right.accept(this);
+    }
+  }
+
+  private static final class Switching extends NumbersCases {
+    @Override
+    public Object onBinary(ExprNode.Binary node) {
+      double left = (double) ExprNode.dispatch(node.left(), this);
+      double right = (double) ExprNode.dispatch(node.right(), this);
+      return arithmetic(node.operator(), left, right);
+    }
+
+    @Override
+    public Object onGrouping(ExprNode.Grouping node) {
+      return ExprNode.dispatch(node.expression(), this);
+    }
+
+    @Override
+    public Object onLiteral(ExprNode.Literal node) {
+      return node.value();
+    }
+
+    @Override
+    public Object onUnary(ExprNode.Unary node) {
+      return -(double) ExprNode.dispatch(node.right(), this);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Variable lookup cost against how many scopes out the variable is
+ *
+ * depth scopes, each with a few locals of its own; global is defined in the
+ * outermost one (next to enough other globals to be a HashMap scope), local in
+ * the innermost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+  @Param({"1", "4", "16", "64"})
+  public int depth;
+
+  private Environment innermost;
+  private final Token global = new Token(TokenType.IDENTIFIER, "global", null, 1);
+  private final Token local = new Token(TokenType.IDENTIFIER, "local", null, 1);
+
+  @Setup
+  public void setUp() {
+    Environment globals = new Environment();
+    for (int i = 0; i < 32; i++) globals.define("g" + i, (double) i);
+    globals.define("global", 1.0);
+
+    Environment scope = globals;
+    for (int i = 0; i < depth; i++) {
+      scope = new Environment(scope, 4);
+      scope.define("a", 1.0);
+      scope.define("b", 2.0);
+      scope.define("c", 3.0);
+    }
+    scope.define("local", 2.0);
+    innermost = scope;
+  }
+
+  @Benchmark
+  public Object lookupGlobal() {
+    return innermost.get(global);
+  }
+
+  @Benchmark
+  public Object lookupLocal() {
+    return innermost.get(local);
+  }
+}
@@ -0,0 +1,68 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* What Instrumenter probes cost on the arithmetic workload
+ *
+ *  - none: no probes, instrument() hands back the parser's tree
+ *  - cold: a listener on line 1, which runs once, outside the loop
+ *  - every: a listener (that does nothing) on every statement
+ *
+ * none and cold should match InterpreterBenchmark's arithmetic run; every is
+ * the price of a tracer that looks at everything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentationBenchmark {
+  @Param({"none", "cold", "every"})
+  public String probes;
+
+  @Param({"true", "false"})
+  public boolean tiering;
+
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    Instrumenter instrumenter = new Instrumenter();
+    Instrumenter.Listener listener = new Instrumenter.Listener() {
+      @Override
+      public void enter(Stmt stmt, Environment environment) {}
+    };
+    switch (probes) {
+      case "cold":
+        instrumenter.statements(Instrumenter.atLine(1), listener);
+        break;
+      case "every":
+        instrumenter.statements((stmt, line) -> true, listener);
+        break;
+    }
+
+    statements = Workloads.parse(Workloads.ARITHMETIC, false);
+    statements = instrumenter.instrument(statements);
+    new ScopeAnalyzer().analyze(statements);
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(tiering);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
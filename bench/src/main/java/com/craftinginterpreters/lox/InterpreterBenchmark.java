@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Whole scripts through Interpreter.interpret, one fresh interpreter per run
+ * (so LoopCompiler has to find the hot loops again every time, like a real run)
+ *
+ * see Workloads for what each one does; tiering=false is --no-tiering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"arithmetic", "counted", "concat", "print", "nestedBlocks"})
+  public String workload;
+
+  @Param({"true", "false"})
+  public boolean tiering;
+
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    statements = Workloads.prepare(Workloads.named(workload));
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(tiering);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* A native call against the same thing written in Lox
+ *
+ * Workloads.squareRoots: the square roots of 1 to 10000 added up, "native"
+ * calls sqrt() (Math.sqrt through its MethodHandle, see LoxNative), "lox" runs
+ * 20 Newton steps per number in the script. with and without loop tiering,
+ * compiled loops pass the double straight to the handle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeBenchmark {
+  @Param({"native", "lox"})
+  public String math;
+
+  @Param({"false", "true"})
+  public boolean tiering;
+
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    statements = Workloads.prepare(Workloads.squareRoots(math.equals("native")));
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    Interpreter interpreter = Workloads.interpreter(tiering);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
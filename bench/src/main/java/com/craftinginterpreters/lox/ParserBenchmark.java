@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Parser throughput in top-level statements per second (the "statements"
+ * counter). parse starts from already scanned tokens, the scanAnd* pair does
+ * both: the whole token list first (the old way) vs the parser pulling tokens
+ * straight from the scanner, which is what Lox.run does.
+ * flat = the explicit-stack parser (--deep)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({"false", "true"})
+  public boolean flat;
+
+  private String source;
+  private List<Token> tokens;
+  private int statements;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Parsed {
+    public long statements;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      statements = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    source = Workloads.corpus(256 << 10);
+    tokens = new Scanner(source).scanTokens();
+    statements = Workloads.parse(source, flat).size();
+  }
+
+  @Benchmark
+  public List<Stmt> parse(Parsed parsed) {
+    List<Stmt> result = new Parser(tokens, flat).parse();
+    parsed.statements += statements;
+    return result;
+  }
+
+  @Benchmark
+  public List<Stmt> scanAndParseList(Parsed parsed) {
+    List<Stmt> result = new Parser(new Scanner(source).scanTokens(), flat).parse();
+    parsed.statements += statements;
+    return result;
+  }
+
+  @Benchmark
+  public List<Stmt> scanAndParsePulled(Parsed parsed) {
+    Scanner scanner = new Scanner(source);
+    List<Stmt> result = new Parser(new TokenSource(scanner::nextToken), flat).parse();
+    parsed.statements += statements;
+    return result;
+  }
+}
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Scanner throughput, reported as megabytes of source per second (the
+ * "megabytes" counter) next to the usual ops/s of whole 1 MB files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+  private String source;
+  private double megabytes;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Scanned {
+    public double megabytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      megabytes = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    source = Workloads.corpus(1 << 20);
+    megabytes = source.getBytes(StandardCharsets.UTF_8).length / 1e6;
+  }
+
+  @Benchmark
+  public List<Token> scan(Scanned scanned) {
+    List<Token> tokens = new Scanner(source).scanTokens();
+    scanned.megabytes += megabytes;
+    return tokens;
+  }
+}
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* Source to finished run on branch-heavy code (Workloads.branches): scan,
+ * parse, analyze and interpret with a fresh interpreter, eager vs --lazy.
+ * only one branch in `branches` ever runs, the rest is what lazy skips.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+  @Param({"false", "true"})
+  public boolean lazy;
+
+  @Param({"1000"})
+  public int branches;
+
+  private String source;
+
+  @Setup
+  public void setUp() {
+    source = Workloads.branches(branches);
+  }
+
+  @Benchmark
+  public Interpreter run() {
+    List<Stmt> statements = lazy
+        ? Workloads.parseLazy(source)
+        : Workloads.parse(source, false);
+    new ScopeAnalyzer().analyze(statements);
+    Interpreter interpreter = Workloads.interpreter(true);
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
@@ -0,0 +1,180 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/* Lox sources the benchmarks run, and the scan/parse/analyze steps Lox.run does
+ *
+ * each script is one "operation" for JMH, the loop counts keep one run in the
+ * milliseconds so setup (a fresh interpreter) doesn't matter.
+ */
+final class Workloads {
+  private Workloads() {}
+
+  // tight numeric loop, the case LoopCompiler is for
+  static final String ARITHMETIC =
+      "var i = 0;\n" +
+      "var sum = 0;\n" +
+      "while (i < 10000) {\n" +
+      "  sum = sum + i * 2 - i / 4;\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  // ARITHMETIC as a for loop, the counted form (see CountedLoop)
+  static final String COUNTED =
+      "var sum = 0;\n" +
+      "for (var i = 0; i < 10000; i = i + 1) {\n" +
+      "  sum = sum + i * 2 - i / 4;\n" +
+      "}\n";
+
+  // builds a string a piece at a time, allocation heavy
+  static final String CONCAT =
+      "var i = 0;\n" +
+      "var text = \"\";\n" +
+      "while (i < 1000) {\n" +
+      "  text = text + \"x\" + i;\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  // number formatting and PrintStream, output is thrown away
+  static final String PRINT =
+      "var i = 0;\n" +
+      "while (i < 2000) {\n" +
+      "  print i;\n" +
+      "  print i / 8;\n" +
+      "  print \"line\";\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  // block scopes entered over and over, what frame reuse is about
+  static final String NESTED_BLOCKS =
+      "var i = 0;\n" +
+      "var total = 0;\n" +
+      "while (i < 100) {\n" +
+      "  var j = 0;\n" +
+      "  while (j < 100) {\n" +
+      "    { var k = j * 2; total = total + k; }\n" +
+      "    j = j + 1;\n" +
+      "  }\n" +
+      "  i = i + 1;\n" +
+      "}\n";
+
+  static String named(String name) {
+    switch (name) {
+      case "arithmetic": return ARITHMETIC;
+      case "counted": return COUNTED;
+      case "concat": return CONCAT;
+      case "print": return PRINT;
+      case "nestedBlocks": return NESTED_BLOCKS;
+    }
+    throw new IllegalArgumentException("Unknown workload " + name);
+  }
+
+  // a mix of every kind of statement, repeated until it's at least size chars
+  static String corpus(int size) {
+    String chunk =
+        "// some comments to skip\n" +
+        "var count = 0;\n" +
+        "var name = \"a string literal\";\n" +
+        "{\n" +
+        "  var inner = count * 3.25 + (1 - 2) / 4;\n" +
+        "  if (inner >= 10 and !false or nil == nil) print inner;\n" +
+        "  else print name + \"!\";\n" +
+        "}\n" +
+        "while (count < 3) count = count + 1;\n";
+    StringBuilder source = new StringBuilder(size + chunk.length());
+    while (source.length() < size) source.append(chunk);
+    return source.toString();
+  }
+
+  // one branch per mode with a sizeable body each, only mode 0 runs. the
+  // shape --lazy is for: a big script most of which a given run never touches
+  static String branches(int count) {
+    StringBuilder source = new StringBuilder("var mode = 0;\nvar total = 0;\n");
+    for (int i = 0; i < count; i++) {
+      source.append("if (mode == ").append(i).append(") {\n");
+      for (int j = 0; j < 10; j++) {
+        source.append("  var v").append(j).append(" = total * ").append(j)
+            .append(" + (").append(i).append(" - 1) / 4;\n");
+        source.append("  if (v").append(j).append(" >= 10 and !false or nil == nil)")
+            .append(" total = total + v").append(j).append(";\n");
+      }
+      source.append("  { var name = \"branch ").append(i).append("\"; print name; }\n");
+      source.append("}\n");
+    }
+    return source.toString();
+  }
+
+  // fills an array of 1000 numbers, then reads and writes every element ten
+  // times over. numeric = false puts a string in and takes it out again first,
+  // so the same numbers sit in an Object[] instead of a double[] (see LoxArray)
+  static String arrays(boolean numeric) {
+    return
+        "var a = [];\n" +
+        "var i = 0;\n" +
+        "while (i < 1000) {\n" +
+        "  a[i] = i;\n" +
+        "  i = i + 1;\n" +
+        "}\n" +
+        (numeric ? "" : "a[0] = \"boxed\";\na[0] = 0;\n") +
+        "var pass = 0;\n" +
+        "while (pass < 10) {\n" +
+        "  var j = 1;\n" +
+        "  while (j < 1000) {\n" +
+        "    a[j] = a[j] + a[j - 1] / 1000;\n" +
+        "    j = j + 1;\n" +
+        "  }\n" +
+        "  pass = pass + 1;\n" +
+        "}\n";
+  }
+
+  // the square roots of 1 to 10000 added up. useNative calls sqrt(), the
+  // other way is what a script had to do before natives: 20 Newton steps in Lox
+  static String squareRoots(boolean useNative) {
+    return
+        "var sum = 0;\n" +
+        "var i = 1;\n" +
+        "while (i <= 10000) {\n" +
+        (useNative
+            ? "  sum = sum + sqrt(i);\n"
+            : "  var root = i / 2 + 1;\n" +
+              "  var step = 0;\n" +
+              "  while (step < 20) {\n" +
+              "    root = (root + i / root) / 2;\n" +
+              "    step = step + 1;\n" +
+              "  }\n" +
+              "  sum = sum + root;\n") +
+        "  i = i + 1;\n" +
+        "}\n";
+  }
+
+  static List<Stmt> parse(String source, boolean flat) {
+    List<Token> tokens = new Scanner(source).scanTokens();
+    List<Stmt> statements = new Parser(tokens, flat).parse();
+    if (Lox.report().hadError) throw new IllegalStateException("Workload doesn't parse.");
+    return statements;
+  }
+
+  // what Lox.run does with --lazy
+  static List<Stmt> parseLazy(String source) {
+    Scanner scanner = new Scanner(source);
+    List<Stmt> statements = new Parser(new TokenSource(scanner::nextToken), scanner).parse();
+    if (Lox.report().hadError) throw new IllegalStateException("Workload doesn't parse.");
+    return statements;
+  }
+
+  // parsed and analyzed, ready for Interpreter.interpret
+  static List<Stmt> prepare(String source) {
+    List<Stmt> statements = parse(source, false);
+    new ScopeAnalyzer().analyze(statements);
+    return statements;
+  }
+
+  static Interpreter interpreter(boolean tiering) {
+    Interpreter interpreter = new Interpreter(
+        new PrintStream(OutputStream.nullOutputStream()), Natives.globals(), null, null);
+    interpreter.setTiering(tiering);
+    return interpreter;
+  }
+}
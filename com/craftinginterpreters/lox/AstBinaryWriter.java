@@ -0,0 +1,383 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Compact binary export of a parsed program, the binary sibling of AstWriter
+ *
+ * layout (all counts/ints are unsigned LEB128 varints):
+ *   header     "LOXA" version
+ *   program    count stmt*
+ *   node       tag byte, then the node's fields in GenerateAst order,
+ *              child nodes inline (preorder)
+ *   token      type ordinal, line, lexeme
+ *   string     index into a string table built on the fly: the first time a
+ *              string shows up it's written as  0 length utf8-bytes  and gets
+ *              the next index, afterwards it's just  index+1
+ *   literal    LIT_NIL | LIT_TRUE | LIT_FALSE | LIT_NUMBER double | LIT_STRING string
+ *
+ * identifiers repeat a lot, so the string table does most of the compression.
+ * like AstWriter this walks with a worklist, so it streams with memory bounded
+ * by tree depth plus the number of distinct strings.
+ *
+ * tokens go out as TokenType ordinals, so anything that moves those (a new
+ * token anywhere but the end) or changes the node tags has to bump VERSION,
+ * or old dumps would read back as different tokens.
+ */
+class AstBinaryWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  static final int VERSION = 6;
+
+  // node tags, 0 is a missing statement (parse error)
+  static final int NONE = 0;
+  static final int ASSIGN = 1, BINARY = 2, GROUPING = 3, LITERAL = 4,
+                   LOGICAL = 5, UNARY = 6, VARIABLE = 7, CHANNEL = 8,
+                   RECEIVE = 9, ARRAY = 10, INDEX = 11, SET_INDEX = 12,
+                   CALL = 13;
+  static final int BLOCK = 32, EXPRESSION = 33, IF = 34, PRINT = 35,
+                   VAR = 36, WHILE = 37, SEND = 38, SPAWN = 39, FOR = 40,
+                   BREAK = 41, CONTINUE = 42;
+
+  static final int LIT_NIL = 0, LIT_TRUE = 1, LIT_FALSE = 2,
+                   LIT_NUMBER = 3, LIT_STRING = 4;
+
+  // stands in for a null node (missing else, statement lost to a parse error)
+  private static final Object MISSING = new Object();
+
+  private final DataOutputStream out;
+  private final Map<String, Integer> strings = new HashMap<>();
+  private final Deque<Object> worklist = new ArrayDeque<>();
+
+  AstBinaryWriter(OutputStream out) {
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+  }
+
+  void write(List<Stmt> statements) throws IOException {
+    out.writeBytes("LOXA");
+    writeVarint(VERSION);
+    writeVarint(statements.size());
+
+    try {
+      for (Stmt statement : statements) {
+        push(statement);
+        drain();
+      }
+    } catch (UncheckedIOException error) {
+      throw error.getCause();
+    }
+    out.flush();
+  }
+
+  private void drain() {
+    while (!worklist.isEmpty()) {
+      Object node = worklist.pop();
+      if (node instanceof Stmt) {
+        ((Stmt) node).accept(this);
+      } else if (node instanceof Expr) {
+        ((Expr) node).accept(this);
+      } else { // MISSING
+        tag(NONE);
+      }
+    }
+  }
+
+  // children have to come out in field order, so push them backwards
+  private void children(Object... nodes) {
+    for (int i = nodes.length - 1; i >= 0; i--) {
+      push(nodes[i]);
+    }
+  }
+
+  private void push(Object node) {
+    worklist.push(node == null ? MISSING : node);
+  }
+
+  /* low level writers, wrapped because visitors can't throw IOException */
+
+  private void tag(int tag) {
+    try {
+      out.writeByte(tag);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private void varint(long value) {
+    try {
+      writeVarint(value);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private void writeVarint(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private void string(String text) {
+    Integer index = strings.get(text);
+    if (index != null) {
+      varint(index + 1);
+      return;
+    }
+
+    strings.put(text, strings.size());
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    varint(0);
+    varint(bytes.length);
+    try {
+      out.write(bytes);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  private void token(Token token) {
+    varint(token.type.ordinal());
+    varint(token.line);
+    string(token.lexeme);
+  }
+
+  private void literal(Object value) {
+    try {
+      if (value == null) {
+        out.writeByte(LIT_NIL);
+      } else if (value instanceof Boolean) {
+        out.writeByte((Boolean) value ? LIT_TRUE : LIT_FALSE);
+      } else if (value instanceof Double) {
+        out.writeByte(LIT_NUMBER);
+        out.writeDouble((Double) value);
+      } else {
+        out.writeByte(LIT_STRING);
+        string(value.toString());
+      }
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    tag(ASSIGN);
+    token(expr.name);
+    children(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    tag(BINARY);
+    token(expr.operator);
+    children(expr.left, expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    tag(GROUPING);
+    children(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    tag(LITERAL);
+    literal(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    tag(LOGICAL);
+    token(expr.operator);
+    children(expr.left, expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    tag(UNARY);
+    token(expr.operator);
+    children(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    tag(VARIABLE);
+    token(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    tag(BLOCK);
+    varint(stmt.line);
+    varint(stmt.statements.size());
+    children(stmt.statements.toArray());
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    tag(EXPRESSION);
+    varint(stmt.line);
+    children(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    // missing clauses are NONE nodes
+    tag(FOR);
+    varint(stmt.line);
+    children(stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    // a missing else is just a NONE node
+    tag(IF);
+    varint(stmt.line);
+    children(stmt.condition, stmt.thenBranch, stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    tag(PRINT);
+    varint(stmt.line);
+    children(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    tag(VAR);
+    varint(stmt.line);
+    token(stmt.name);
+    children(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    tag(WHILE);
+    varint(stmt.line);
+    children(stmt.condition, stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitChannelExpr(Expr.Channel expr) {
+    tag(CHANNEL);
+    token(expr.keyword);
+    children(expr.capacity);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    tag(ARRAY);
+    token(expr.bracket);
+    varint(expr.elements.size());
+    children(expr.elements.toArray());
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    tag(CALL);
+    token(expr.paren);
+    varint(expr.arguments.size());
+    Object[] children = new Object[expr.arguments.size() + 1];
+    children[0] = expr.callee;
+    for (int i = 0; i < expr.arguments.size(); i++) children[i + 1] = expr.arguments.get(i);
+    children(children);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    tag(INDEX);
+    token(expr.bracket);
+    children(expr.object, expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    tag(SET_INDEX);
+    token(expr.bracket);
+    children(expr.object, expr.index, expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitReceiveExpr(Expr.Receive expr) {
+    tag(RECEIVE);
+    token(expr.keyword);
+    children(expr.channel);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    tag(SEND);
+    varint(stmt.line);
+    token(stmt.keyword);
+    children(stmt.channel, stmt.value);
+    return null;
+  }
+
+  // instrumentation wrappers aren't syntax, write what they're around
+  @Override
+  public Void visitTracedExpr(Expr.Traced expr) {
+    push(expr.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    push(stmt.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    tag(SPAWN);
+    varint(stmt.line);
+    token(stmt.keyword);
+    children(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    tag(BREAK);
+    varint(stmt.line);
+    token(stmt.keyword);
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    tag(CONTINUE);
+    varint(stmt.line);
+    token(stmt.keyword);
+    return null;
+  }
+}
@@ -1,8 +1,8 @@
 package com.craftinginterpreters.lox;
 
-import com.craftinginterpreters.lox.Expr.Assign;
-import com.craftinginterpreters.lox.Expr.Logical;
-import com.craftinginterpreters.lox.Expr.Variable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /* NOTE: After chapter 6, this class is deprecated since printing ASTs is no longer a priority */
 
 /* Section 5.4
@@ -13,9 +13,10 @@ import com.craftinginterpreters.lox.Expr.Variable;
  * Purpose: take an AST and print it into a readable lisp-like format
  *          (primarily for debugging)
  * 
+ * the walking itself now lives in AstWriter, which also handles statements
  */
 
-class AstPrinter implements Expr.Visitor<String> {
+class AstPrinter {
 
   // dummy main class to check whether the class functions accordingly 
   // (testing the debuggging class)
@@ -31,69 +32,15 @@ class AstPrinter implements Expr.Visitor<String> {
     System.out.println(new AstPrinter().print(expression));
   }
 
+  // used to build the string up with parenthesize(), which copied every subtree
+  // once per level above it; AstWriter streams the same format instead
   String print(Expr expr) {
-    return expr.accept(this);
-  }
-
-  @Override
-  public String visitBinaryExpr(Expr.Binary expr) {
-    return parenthesize(expr.operator.lexeme,
-                        expr.left, expr.right);
-  }
-
-  @Override
-  public String visitGroupingExpr(Expr.Grouping expr) {
-    return parenthesize("group", expr.expression);
-  }
-
-  @Override
-  public String visitLiteralExpr(Expr.Literal expr) {
-    if (expr.value == null) return "nil";
-    return expr.value.toString();
-  }
-
-  @Override
-  public String visitUnaryExpr(Expr.Unary expr) {
-    return parenthesize(expr.operator.lexeme, expr.right);
-  }
-
-  /* Handle literal expressions via parenthesize()  
-   * takes name & expr and wraps them via some string like (+ 1 2)
-   * recursively calls itself depending on what the Expr is to formulate this structure
-   * if there are NO EXPR, simply appends name and concludes
-  */
-  private String parenthesize(String name, Expr... exprs) {
-
-    // StringBuilder offers alternative to String in Java.
-    /* Exists to help for mutable string manipulation, i.e. append() etc. */
     StringBuilder builder = new StringBuilder();
-
-    builder.append("(").append(name);
-    for (Expr expr : exprs) {
-      builder.append(" ");
-      builder.append(expr.accept(this));
+    try {
+      new AstWriter(builder).write(expr);
+    } catch (IOException error) {
+      throw new UncheckedIOException(error); // can't happen, StringBuilder doesn't throw
     }
-    builder.append(")");
-
     return builder.toString();
   }
-
-  @Override
-  public String visitAssignExpr(Assign expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitAssignExpr'");
-  }
-
-  @Override
-  public String visitVariableExpr(Variable expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitVariableExpr'");
-  }
-
-  @Override
-  public String visitLogicalExpr(Logical expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitLogicalExpr'");
-  }
-
 }
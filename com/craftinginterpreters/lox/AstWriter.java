@@ -0,0 +1,281 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/* Streaming S-expression dump of a whole program (statements + expressions)
+ *
+ * AstPrinter builds one String per subtree and glues them together, so every
+ * level copies everything below it again (quadratic) and the whole dump has to
+ * fit in memory. this writes straight into an Appendable (a BufferedWriter for
+ * files) instead, in the same lisp-like format:
+ *
+ *   var x = 1 + 2;     ->  (var x (+ 1 2))
+ *   while (x < 3) {}   ->  (while (< x 3) (block))
+ *
+ * one top-level statement per line so two dumps diff nicely.
+ *
+ * nothing is done recursively: nodes and the text around them go on a worklist
+ * (pushed in reverse order), so memory is bounded by the depth of the tree and
+ * not its size, and deep trees can't overflow the Java stack.
+ */
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Appendable out;
+
+  // Strings are written as they are, Expr/Stmt get visited
+  private final Deque<Object> worklist = new ArrayDeque<>();
+
+  AstWriter(Appendable out) {
+    this.out = out;
+  }
+
+  void write(List<Stmt> statements) throws IOException {
+    for (Stmt statement : statements) {
+      write(statement);
+      out.append('\n');
+    }
+  }
+
+  void write(Stmt stmt) throws IOException {
+    push(stmt);
+    drain();
+  }
+
+  void write(Expr expr) throws IOException {
+    push(expr);
+    drain();
+  }
+
+  private void drain() throws IOException {
+    try {
+      while (!worklist.isEmpty()) {
+        Object item = worklist.pop();
+        if (item instanceof String) {
+          out.append((String) item);
+        } else if (item instanceof Stmt) {
+          ((Stmt) item).accept(this);
+        } else {
+          ((Expr) item).accept(this);
+        }
+      }
+    } catch (UncheckedIOException error) {
+      worklist.clear();
+      throw error.getCause();
+    }
+  }
+
+  // parse errors leave null statements behind
+  private void push(Object node) {
+    worklist.push(node == null ? "nil" : node);
+  }
+
+  // "(name part part ...)", parts are pushed backwards so they pop in order
+  private void parenthesize(String name, Object... parts) {
+    worklist.push(")");
+    for (int i = parts.length - 1; i >= 0; i--) {
+      push(parts[i]);
+      worklist.push(" ");
+    }
+    emit("(" + name);
+  }
+
+  private void emit(String text) {
+    try {
+      out.append(text);
+    } catch (IOException error) {
+      // visitor methods can't throw checked exceptions, drain() unwraps this
+      throw new UncheckedIOException(error);
+    }
+  }
+
+  // strings get quotes (and escapes) so "a b" can't be mistaken for two atoms
+  private static String literal(Object value) {
+    if (value == null) return "nil";
+    if (!(value instanceof String)) return value.toString();
+
+    String text = (String) value;
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') quoted.append('\\');
+      if (c == '\n') {
+        quoted.append("\\n");
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    parenthesize("= " + expr.name.lexeme, expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    parenthesize("group", expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    emit(literal(expr.value));
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    parenthesize(expr.operator.lexeme, expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    emit(expr.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    parenthesize("block", stmt.statements.toArray());
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    parenthesize("expr", stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    // missing clauses come out as nil
+    parenthesize("for", stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    if (stmt.elseBranch == null) {
+      parenthesize("if", stmt.condition, stmt.thenBranch);
+    } else {
+      parenthesize("if", stmt.condition, stmt.thenBranch, stmt.elseBranch);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    parenthesize("print", stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      parenthesize("var " + stmt.name.lexeme);
+    } else {
+      parenthesize("var " + stmt.name.lexeme, stmt.initializer);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    parenthesize("while", stmt.condition, stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitChannelExpr(Expr.Channel expr) {
+    parenthesize("channel", expr.capacity);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    parenthesize("array", expr.elements.toArray());
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    Object[] parts = new Object[expr.arguments.size() + 1];
+    parts[0] = expr.callee;
+    for (int i = 0; i < expr.arguments.size(); i++) parts[i + 1] = expr.arguments.get(i);
+    parenthesize("call", parts);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    parenthesize("[]", expr.object, expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    parenthesize("[]=", expr.object, expr.index, expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitReceiveExpr(Expr.Receive expr) {
+    parenthesize("receive", expr.channel);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    parenthesize("send", stmt.channel, stmt.value);
+    return null;
+  }
+
+  // instrumentation wrappers aren't syntax, write what they're around
+  @Override
+  public Void visitTracedExpr(Expr.Traced expr) {
+    push(expr.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    push(stmt.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    parenthesize("spawn", stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    parenthesize("break");
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    parenthesize("continue");
+    return null;
+  }
+}
@@ -0,0 +1,245 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/* `jlox --batch=DIR|GLOB [--jobs=N]`: runs a whole directory of scripts in one JVM
+ *
+ *   jlox --batch=com/craftinginterpreters/lox/tests
+ *   jlox --batch='tests/**.lox' --jobs=4 --timeout=5000
+ *
+ * a directory means every .lox file under it, anything else is a glob
+ * (java.nio syntax, * stays inside a directory, ** doesn't).
+ *
+ * scripts run N at a time (default: one per core), each through
+ * Lox.runIsolated with its own interpreter, error state and captured
+ * stdout/stderr, so they can't see each other. the budget options apply to
+ * every script on its own, --timeout is the way to keep a stuck one from
+ * holding a thread forever.
+ *
+ * if foo.lox has a foo.expected next to it, stdout has to match it exactly
+ * (give or take \r). a script passes if it exits 0 and matches (or has nothing
+ * to match). a foo.expected-error turns that around: the script has to fail,
+ * and what it wrote to stderr has to match that file the same way. results
+ * come out in path order with per-script times, then a total; the exit code
+ * is 1 if anything failed.
+ */
+class Batch {
+  static final String EXPECTED = ".expected";
+  static final String EXPECTED_ERROR = ".expected-error";
+  static final int FAILED = 1;
+  static final int NO_INPUT = 66;
+
+  private final int jobs;
+
+  Batch(int jobs) {
+    this.jobs = jobs;
+  }
+
+  // one finished script
+  private static final class Result {
+    final Path script;
+    int status;
+    long nanos;
+    String stdout = "";
+    String stderr = "";
+    String expected = null; // null = no .expected file
+    String expectedError = null; // null = no .expected-error file, has to exit 0
+
+    Result(Path script) {
+      this.script = script;
+    }
+
+    boolean passed() {
+      if (expected != null && !expected.equals(stdout)) return false;
+      if (expectedError == null) return status == 0;
+      return status != 0 && expectedError.equals(stderr);
+    }
+  }
+
+  int run(String pattern) throws IOException {
+    List<Path> scripts = discover(pattern);
+    if (scripts.isEmpty()) {
+      System.err.println("No scripts match " + pattern + ".");
+      return NO_INPUT;
+    }
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(jobs, task -> {
+      Thread thread = new Thread(task, "lox-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    List<Future<Result>> pending = new ArrayList<>();
+    for (Path script : scripts) {
+      pending.add(pool.submit(() -> runOne(script)));
+    }
+
+    // report in path order as they finish, so the listing doesn't depend on scheduling
+    int passed = 0;
+    int failed = 0;
+    long scriptNanos = 0;
+    for (Future<Result> future : pending) {
+      Result result;
+      try {
+        result = future.get();
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException error) {
+        // runIsolated catches Lox errors itself, this is a real bug
+        throw new IllegalStateException(error.getCause());
+      }
+
+      scriptNanos += result.nanos;
+      if (result.passed()) {
+        passed++;
+      } else {
+        failed++;
+      }
+      print(result);
+    }
+    pool.shutdownNow();
+
+    System.out.printf("%d scripts, %d passed, %d failed in %.1f ms" +
+            " (%.1f ms in scripts, %d jobs)%n",
+        scripts.size(), passed, failed, (System.nanoTime() - start) / 1e6,
+        scriptNanos / 1e6, jobs);
+    return failed == 0 ? 0 : FAILED;
+  }
+
+  private Result runOne(Path script) {
+    Result result = new Result(script);
+    long start = System.nanoTime();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    try {
+      // same decoding as runFile
+      String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+      PrintStream stdout = new PrintStream(out, true);
+      PrintStream stderr = new PrintStream(err, true);
+      try {
+        result.status = Lox.runIsolated(source, stdout, stderr);
+      } catch (RuntimeException | StackOverflowError error) {
+        // a bug in the interpreter only fails this script
+        error.printStackTrace(stderr);
+        result.status = 70;
+      }
+
+      result.expected = readIfThere(expectedFor(script, EXPECTED));
+      result.expectedError = readIfThere(expectedFor(script, EXPECTED_ERROR));
+    } catch (IOException error) {
+      err.writeBytes(("Could not read " + script + ": " + error.getMessage() + "\n")
+          .getBytes(Charset.defaultCharset()));
+      result.status = NO_INPUT;
+    }
+
+    result.nanos = System.nanoTime() - start;
+    result.stdout = normalize(out.toString(Charset.defaultCharset()));
+    result.stderr = normalize(err.toString(Charset.defaultCharset()));
+    return result;
+  }
+
+  private static String readIfThere(Path path) throws IOException {
+    if (!Files.isRegularFile(path)) return null;
+    return normalize(new String(Files.readAllBytes(path), Charset.defaultCharset()));
+  }
+
+  private static void print(Result result) {
+    String verdict = result.passed() ? "pass" : "FAIL";
+    System.out.printf("%s %9.2f ms  %s%n", verdict, result.nanos / 1e6, result.script);
+    if (result.passed()) return;
+
+    if (result.expected != null && !result.expected.equals(result.stdout)) {
+      System.out.println("    " + firstDifference(result.expected, result.stdout));
+    } else if (result.expectedError == null) {
+      System.out.println("    exit " + result.status);
+    } else if (result.status == 0) {
+      System.out.println("    exit 0, expected an error");
+    } else {
+      System.out.println("    stderr " + firstDifference(result.expectedError, result.stderr));
+    }
+    for (String line : result.stderr.split("\n")) {
+      if (!line.isEmpty()) System.out.println("    " + line);
+    }
+  }
+
+  private static String firstDifference(String expected, String actual) {
+    String[] want = expected.split("\n", -1);
+    String[] got = actual.split("\n", -1);
+    for (int i = 0; i < Math.max(want.length, got.length); i++) {
+      String a = i < want.length ? want[i] : "<end of output>";
+      String b = i < got.length ? got[i] : "<end of output>";
+      if (!a.equals(b)) {
+        return "line " + (i + 1) + ": expected " + a + ", got " + b;
+      }
+    }
+    return "output differs";
+  }
+
+  private static String normalize(String text) {
+    return text.replace("\r\n", "\n");
+  }
+
+  // foo.lox -> foo.expected (a glob can match other names, those get it tacked on)
+  static Path expectedFor(Path script, String suffix) {
+    String name = script.getFileName().toString();
+    if (name.endsWith(".lox")) name = name.substring(0, name.length() - ".lox".length());
+    return script.resolveSibling(name + suffix);
+  }
+
+  /* a directory is walked for .lox files, otherwise the pattern is a glob and
+   * the walk starts at the longest leading part without glob characters in it
+   */
+  static List<Path> discover(String pattern) throws IOException {
+    Path directory = Paths.get(pattern);
+    if (Files.isDirectory(directory)) {
+      return walk(directory, path -> path.getFileName().toString().endsWith(".lox"));
+    }
+
+    Path base = null;
+    for (String part : pattern.split("/", -1)) {
+      if (part.matches(".*[*?\\[{].*")) break;
+      if (part.isEmpty()) {
+        base = base == null ? Paths.get("/") : base; // leading / or //
+      } else {
+        base = base == null ? Paths.get(part) : base.resolve(part);
+      }
+    }
+    if (base == null) base = Paths.get("");
+    if (base.equals(Paths.get(pattern))) {
+      // no glob characters at all, a single script
+      return Files.isRegularFile(base) ? List.of(base) : List.of();
+    }
+
+    // an empty base walks the working directory and keeps the paths relative
+    if (!base.toString().isEmpty() && !Files.isDirectory(base)) return List.of();
+    return walk(base, base.getFileSystem().getPathMatcher("glob:" + pattern));
+  }
+
+  private static List<Path> walk(Path root, PathMatcher filter) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(filter::matches)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+}
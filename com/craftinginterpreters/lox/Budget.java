@@ -0,0 +1,146 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Resource governor for a single run of the interpreter
+ *
+ * a tenant script like `while (true) {}` would otherwise pin a core forever,
+ * and `s = s + s;` in a loop can eat the whole heap. a Budget gives each run:
+ *  - steps    -> "fuel", one unit burned per loop back-edge and per block entry
+ *  - deadline -> wall clock limit
+ *  - bytes    -> rough count of bytes allocated for strings, arrays & environments
+ * running out of any of them throws a RuntimeError, so the usual error path
+ * (Lox.runtimeError, exit code 70) applies.
+ *
+ * the checks sit on the hottest paths of the interpreter, so they're kept to a
+ * decrement and a compare. System.nanoTime() is comparatively expensive, so the
+ * deadline is only looked at once every CLOCK_INTERVAL steps.
+ *
+ * a run's spawned workers (see Workers.java) spend from the same limits as the
+ * script itself: steps and bytes sit in one shared pool per run. going to an
+ * AtomicLong on every step would cost far more than the decrement, so each
+ * interpreter takes fuel out of the pool CHUNK at a time and counts that down
+ * locally, and a worker hands back what it didn't use when it's done. a
+ * single-threaded run still stops at exactly the same step. with workers one
+ * of them can run dry while another still holds part of a chunk, so the
+ * total used can come in a little under the limit, never over it.
+ */
+class Budget {
+  static final long UNLIMITED = Long.MAX_VALUE;
+
+  // rough object sizes (bytes) used for the allocation quota, not exact
+  static final long ENVIRONMENT_BYTES = 64;
+  static final long VARIABLE_BYTES = 32;
+  static final long STRING_BYTES = 40; // header + backing array header
+  static final long CHANNEL_BYTES = 128; // queue, its locks and conditions
+  static final long CHANNEL_ITEM_BYTES = 24; // the queue node a send adds
+  static final long ARRAY_BYTES = 32; // LoxArray + backing array header
+
+  private static final int CLOCK_INTERVAL = 1024;
+
+  // how much fuel an interpreter takes from the shared pool at a time
+  private static final long STEP_CHUNK = 1024;
+  private static final long BYTE_CHUNK = 64 * 1024;
+
+  // what the whole run has left, shared with every worker it spawns
+  private final AtomicLong stepPool;
+  private final AtomicLong bytePool;
+
+  // taken from the pools but not spent yet, this interpreter's own
+  private long stepsLeft = 0;
+  private long bytesLeft = 0;
+
+  private final long deadline; // System.nanoTime() to stop at, only valid if timed
+  private final boolean timed;
+  private int untilClockCheck = CLOCK_INTERVAL;
+
+  // longer than this (146 years) counts as no timeout, so the conversion to
+  // nanos can't overflow. the deadline itself may still wrap past
+  // Long.MAX_VALUE, that's fine since checkClock compares differences
+  static final long MAX_TIMEOUT_MILLIS = Long.MAX_VALUE / 2_000_000L;
+
+  Budget(long maxSteps, long maxBytes, long timeoutMillis) {
+    this(new AtomicLong(maxSteps), new AtomicLong(maxBytes), timeoutMillis < MAX_TIMEOUT_MILLIS,
+         timeoutMillis < MAX_TIMEOUT_MILLIS ? System.nanoTime() + timeoutMillis * 1_000_000L : 0);
+  }
+
+  private Budget(AtomicLong stepPool, AtomicLong bytePool, boolean timed, long deadline) {
+    this.stepPool = stepPool;
+    this.bytePool = bytePool;
+    this.timed = timed;
+    this.deadline = deadline;
+  }
+
+  // a spawned worker draws from the same pools and has the same deadline
+  Budget forWorker() {
+    return new Budget(stepPool, bytePool, timed, deadline);
+  }
+
+  // a worker that's done gives back the fuel it took and didn't burn
+  void release() {
+    if (stepsLeft > 0) stepPool.addAndGet(stepsLeft);
+    if (bytesLeft > 0) bytePool.addAndGet(bytesLeft);
+    stepsLeft = 0;
+    bytesLeft = 0;
+  }
+
+  // no limits at all, the default for the REPL and plain script runs
+  static Budget unlimited() {
+    return new Budget(UNLIMITED, UNLIMITED, UNLIMITED);
+  }
+
+  // burn one unit of fuel, line is where to point the error at
+  void step(int line) {
+    if (--stepsLeft < 0) {
+      stepsLeft += take(stepPool, STEP_CHUNK - stepsLeft);
+      if (stepsLeft < 0) throw exhausted(line, "Step budget exhausted.");
+    }
+
+    if (--untilClockCheck == 0) {
+      untilClockCheck = CLOCK_INTERVAL;
+      checkClock(line);
+    }
+  }
+
+  // for code that waits instead of stepping (channels)
+  void checkClock(int line) {
+    if (timed && System.nanoTime() - deadline > 0) {
+      throw exhausted(line, "Time budget exhausted.");
+    }
+  }
+
+  // account for an allocation *before* it happens so a huge concat never gets built
+  void allocate(long bytes, int line) {
+    bytesLeft -= bytes;
+    if (bytesLeft < 0) {
+      bytesLeft += take(bytePool, BYTE_CHUNK - bytesLeft);
+      if (bytesLeft < 0) throw exhausted(line, "Memory budget exhausted.");
+    }
+  }
+
+  // up to amount out of pool, less if that's all there is
+  private static long take(AtomicLong pool, long amount) {
+    for (;;) {
+      long available = pool.get();
+      long taken = Math.min(amount, available);
+      if (taken <= 0) return 0;
+      if (pool.compareAndSet(available, available - taken)) return taken;
+    }
+  }
+
+  // a LoxArray with room for `capacity` elements, 8 bytes a double (or a
+  // reference, once it holds something else)
+  static long arrayBytes(long capacity) {
+    return ARRAY_BYTES + 8 * capacity;
+  }
+
+  // rough footprint of a string with the given length (Latin-1 compact strings)
+  static long stringBytes(long length) {
+    return STRING_BYTES + length;
+  }
+
+  // budgets don't belong to any single token, so make one up for the line
+  private RuntimeError exhausted(int line, String message) {
+    return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+  }
+}
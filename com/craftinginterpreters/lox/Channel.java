@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/* Bounded queue between workers, the only thing they share
+ *
+ *   var results = channel(16);
+ *   spawn { send results, 6 * 7; }
+ *   print receive results;
+ *
+ * only numbers, strings, booleans and nil go through. those are all immutable,
+ * so a worker can never see another worker's state change under it.
+ * send blocks while the channel is full, receive while it's empty. neither
+ * waits forever in one go: every POLL_MILLIS they look at the run's time
+ * budget, so `--timeout` still gets a deadlocked script unstuck.
+ *
+ * the queue is linked, not an array: `channel(2000000000)` is a fine thing to
+ * write and shouldn't allocate a 2G-slot array up front. each send allocates a
+ * node instead, and that's what gets charged to the memory budget.
+ */
+class Channel {
+  private static final long POLL_MILLIS = 50;
+
+  // the queue can't hold null, so nil travels as this
+  private static final Object NIL = new Object();
+
+  private final BlockingQueue<Object> queue;
+
+  Channel(int capacity) {
+    this.queue = new LinkedBlockingQueue<>(capacity);
+  }
+
+  static boolean canSend(Object value) {
+    return value == null || value instanceof Double ||
+        value instanceof String || value instanceof Boolean;
+  }
+
+  void send(Object value, Token keyword, Budget budget) {
+    Object item = value == null ? NIL : value;
+    budget.allocate(Budget.CHANNEL_ITEM_BYTES, keyword.line);
+    try {
+      while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        budget.checkClock(keyword.line);
+      }
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(keyword, "Interrupted while sending.");
+    }
+  }
+
+  Object receive(Token keyword, Budget budget) {
+    try {
+      Object item;
+      while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+        budget.checkClock(keyword.line);
+      }
+      return item == NIL ? null : item;
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError(keyword, "Interrupted while receiving.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
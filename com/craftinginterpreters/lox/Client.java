@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/* `jlox --client=SOCKET [script]`: hands a script to a running --server
+ *
+ * sends the script's absolute path (or, without one, whatever comes in on
+ * stdin as source), copies the output frames to stdout/stderr as they arrive
+ * and returns the script's exit code (69 if there's no server). see
+ * Server.java for the protocol.
+ */
+class Client {
+  static final int UNAVAILABLE = 69; // no server listening
+
+  static int run(Path socket, String script) throws IOException {
+    byte kind;
+    byte[] payload;
+    if (script != null) {
+      kind = Server.PATH;
+      payload = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+    } else {
+      kind = Server.SOURCE;
+      payload = System.in.readAllBytes();
+    }
+
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    } catch (IOException error) {
+      System.err.println("Could not connect to " + socket + ": " + error.getMessage());
+      return UNAVAILABLE;
+    }
+
+    try (channel) {
+      DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+      out.writeByte(kind);
+      out.writeInt(payload.length);
+      out.write(payload);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      for (;;) {
+        byte frame = in.readByte();
+        if (frame == Server.EXIT) {
+          System.out.flush();
+          return in.readInt();
+        }
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        PrintStream target = frame == Server.STDERR ? System.err : System.out;
+        target.write(bytes, 0, bytes.length);
+        target.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,640 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/* Evaluates one expression over whole columns of rows, a chunk at a time
+ *
+ *   Map<String, Column> table = Map.of(
+ *       "price", Column.of(prices), "qty", Column.of(quantities));
+ *   Result total = new ColumnEvaluator(table).evaluate(formula); // price * qty
+ *
+ * the row-by-row way is to define the columns as globals and call the
+ * interpreter once per row: a visitor walk and a boxed Double per node per
+ * row. here the expression is compiled once into Kernels, and every kernel
+ * does its operator for CHUNK rows in one loop over primitive arrays, so
+ * numbers stay unboxed and the JIT can unroll (and on x86/aarch64 vectorize)
+ * the number loops. the jdk.incubator.vector API would do that explicitly,
+ * but it's still an incubator module on 17, so it's plain loops.
+ *
+ * every node gets a static type from its operands (columns are typed):
+ * NUMBER (double[]), BOOL (boolean[]) or ANY (Object[] of Lox values, which is
+ * what strings are). the fast loops are for the NUMBER/BOOL combinations;
+ * everything else goes row by row through Interpreter.binary/unary, so the
+ * results (and error messages) are exactly what the interpreter would give.
+ *
+ * a runtime error only fails its own row. each chunk carries a per-row
+ * RuntimeError[] next to its values, an error in an operand passes through to
+ * the result, and `and`/`or` drop the right operand's error on rows where the
+ * left one decided. the Result lists the failed rows in order.
+ *
+ * only expressions without side effects can run this way, so assignments,
+ * channel() and receive are rejected before anything runs. calls are fine as
+ * long as they're to natives, see visitCallExpr.
+ */
+class ColumnEvaluator {
+  static final int CHUNK = 4096;
+
+  static final int NUMBER = 0;
+  static final int BOOL = 1;
+  static final int ANY = 2;
+
+  // one typed column, exactly one of the arrays is set
+  static final class Column {
+    final int type;
+    final double[] numbers;
+    final boolean[] bools;
+    final Object[] values;
+
+    private Column(int type, double[] numbers, boolean[] bools, Object[] values) {
+      this.type = type;
+      this.numbers = numbers;
+      this.bools = bools;
+      this.values = values;
+    }
+
+    static Column of(double[] numbers) {
+      return new Column(NUMBER, numbers, null, null);
+    }
+
+    static Column of(boolean[] bools) {
+      return new Column(BOOL, null, bools, null);
+    }
+
+    // strings, or nil for a null entry
+    static Column of(String[] strings) {
+      return new Column(ANY, null, null, strings);
+    }
+
+    int size() {
+      switch (type) {
+        case NUMBER: return numbers.length;
+        case BOOL: return bools.length;
+        default: return values.length;
+      }
+    }
+
+    // the row as the interpreter would see it
+    Object get(int row) {
+      switch (type) {
+        case NUMBER: return numbers[row];
+        case BOOL: return bools[row];
+        default: return values[row];
+      }
+    }
+  }
+
+  static final class RowError {
+    final int row;
+    final RuntimeError error;
+
+    RowError(int row, RuntimeError error) {
+      this.row = row;
+      this.error = error;
+    }
+  }
+
+  // values of failed rows are NaN / false / nil, see errors for why
+  static final class Result {
+    final Column column;
+    final List<RowError> errors;
+
+    Result(Column column, List<RowError> errors) {
+      this.column = column;
+      this.errors = errors;
+    }
+  }
+
+  // one chunk of a node's results; errors is null until some row fails
+  private static final class Vector {
+    double[] numbers;
+    boolean[] bools;
+    Object[] values;
+    RuntimeError[] errors;
+
+    RuntimeError errorAt(int i) {
+      return errors == null ? null : errors[i];
+    }
+
+    void fail(int i, RuntimeError error) {
+      if (errors == null) errors = new RuntimeError[CHUNK];
+      errors[i] = error;
+    }
+  }
+
+  // rows [from, from + count) of one node
+  private interface Run {
+    Vector run(int from, int count);
+  }
+
+  private static final class Kernel {
+    final int type;
+    final Run run;
+
+    Kernel(int type, Run run) {
+      this.type = type;
+      this.run = run;
+    }
+  }
+
+  private final Map<String, Column> columns;
+  private final int rows;
+
+  // generic rows go through the interpreter's own operators
+  private final Interpreter interpreter = new Interpreter();
+
+  ColumnEvaluator(Map<String, Column> columns) {
+    this.columns = columns;
+    int size = -1;
+    for (Map.Entry<String, Column> column : columns.entrySet()) {
+      if (size >= 0 && column.getValue().size() != size) {
+        throw new IllegalArgumentException("Column '" + column.getKey() + "' has " +
+            column.getValue().size() + " rows, expected " + size + ".");
+      }
+      size = column.getValue().size();
+    }
+    this.rows = Math.max(size, 0);
+  }
+
+  Result evaluate(Expr expr) {
+    Kernel kernel = expr.accept(new Compilation());
+
+    double[] numbers = kernel.type == NUMBER ? new double[rows] : null;
+    boolean[] bools = kernel.type == BOOL ? new boolean[rows] : null;
+    Object[] values = kernel.type == ANY ? new Object[rows] : null;
+    List<RowError> errors = new ArrayList<>();
+
+    for (int from = 0; from < rows; from += CHUNK) {
+      int count = Math.min(CHUNK, rows - from);
+      Vector chunk = kernel.run.run(from, count);
+      switch (kernel.type) {
+        case NUMBER: System.arraycopy(chunk.numbers, 0, numbers, from, count); break;
+        case BOOL: System.arraycopy(chunk.bools, 0, bools, from, count); break;
+        default: System.arraycopy(chunk.values, 0, values, from, count); break;
+      }
+
+      if (chunk.errors == null) continue;
+      for (int i = 0; i < count; i++) {
+        if (chunk.errors[i] == null) continue;
+        errors.add(new RowError(from + i, chunk.errors[i]));
+        if (numbers != null) numbers[from + i] = Double.NaN;
+        if (bools != null) bools[from + i] = false;
+        if (values != null) values[from + i] = null;
+      }
+    }
+
+    Column column = new Column(kernel.type, numbers, bools, values);
+    return new Result(column, errors);
+  }
+
+  /* the row-by-row way, for comparison: the columns rebound as globals and
+   * one interpreter walk per row, every result boxed
+   */
+  Result evaluateByRow(Expr expr) {
+    Environment globals = Natives.globals();
+    Interpreter walker = new Interpreter(System.out, globals, null, null);
+    Object[] values = new Object[rows];
+    List<RowError> errors = new ArrayList<>();
+
+    for (int row = 0; row < rows; row++) {
+      for (Map.Entry<String, Column> column : columns.entrySet()) {
+        globals.define(column.getKey(), column.getValue().get(row));
+      }
+      try {
+        values[row] = walker.evaluateExpression(expr);
+      } catch (RuntimeError error) {
+        errors.add(new RowError(row, error));
+      }
+    }
+    return new Result(new Column(ANY, null, null, values), errors);
+  }
+
+  /* Expr -> Kernel, the type checking happens here so it's done once */
+  private final class Compilation implements Expr.Visitor<Kernel> {
+    @Override
+    public Kernel visitLiteralExpr(Expr.Literal expr) {
+      // filled once, every chunk reads the same arrays (nothing writes to inputs)
+      Vector constant = new Vector();
+      Object value = expr.value;
+      int type;
+      if (value instanceof Double) {
+        type = NUMBER;
+        constant.numbers = new double[CHUNK];
+        Arrays.fill(constant.numbers, (double) value);
+      } else if (value instanceof Boolean) {
+        type = BOOL;
+        constant.bools = new boolean[CHUNK];
+        Arrays.fill(constant.bools, (boolean) value);
+      } else {
+        type = ANY;
+        constant.values = new Object[CHUNK];
+        Arrays.fill(constant.values, value);
+      }
+      return new Kernel(type, (from, count) -> constant);
+    }
+
+    @Override
+    public Kernel visitVariableExpr(Expr.Variable expr) {
+      Column column = columns.get(expr.name.lexeme);
+      if (column == null) {
+        throw new RuntimeError(expr.name,
+            "Undefined variable '" + expr.name.lexeme + "'.");
+      }
+
+      return new Kernel(column.type, (from, count) -> {
+        Vector slice = new Vector();
+        switch (column.type) {
+          case NUMBER:
+            slice.numbers = Arrays.copyOfRange(column.numbers, from, from + count);
+            break;
+          case BOOL:
+            slice.bools = Arrays.copyOfRange(column.bools, from, from + count);
+            break;
+          default:
+            slice.values = Arrays.copyOfRange(column.values, from, from + count);
+            break;
+        }
+        return slice;
+      });
+    }
+
+    @Override
+    public Kernel visitGroupingExpr(Expr.Grouping expr) {
+      return expr.expression.accept(this);
+    }
+
+    @Override
+    public Kernel visitUnaryExpr(Expr.Unary expr) {
+      Kernel right = expr.right.accept(this);
+      Token operator = expr.operator;
+
+      if (operator.type == TokenType.MINUS && right.type == NUMBER) {
+        return new Kernel(NUMBER, (from, count) -> {
+          Vector operand = right.run.run(from, count);
+          Vector result = new Vector();
+          result.numbers = new double[count];
+          for (int i = 0; i < count; i++) result.numbers[i] = -operand.numbers[i];
+          result.errors = operand.errors;
+          return result;
+        });
+      }
+      if (operator.type == TokenType.BANG && right.type == BOOL) {
+        return new Kernel(BOOL, (from, count) -> {
+          Vector operand = right.run.run(from, count);
+          Vector result = new Vector();
+          result.bools = new boolean[count];
+          for (int i = 0; i < count; i++) result.bools[i] = !operand.bools[i];
+          result.errors = operand.errors;
+          return result;
+        });
+      }
+
+      // -x on something that might not be a number, !x on anything else
+      int type = operator.type == TokenType.MINUS ? NUMBER : BOOL;
+      return new Kernel(type, (from, count) -> {
+        Vector operand = right.run.run(from, count);
+        Vector result = allocate(type, count);
+        for (int i = 0; i < count; i++) {
+          RuntimeError error = operand.errorAt(i);
+          if (error != null) {
+            result.fail(i, error);
+            continue;
+          }
+          try {
+            store(result, type, i, interpreter.unary(operator, get(operand, right.type, i)));
+          } catch (RuntimeError failed) {
+            result.fail(i, failed);
+          }
+        }
+        return result;
+      });
+    }
+
+    @Override
+    public Kernel visitBinaryExpr(Expr.Binary expr) {
+      Kernel left = expr.left.accept(this);
+      Kernel right = expr.right.accept(this);
+      Token operator = expr.operator;
+      TokenType op = operator.type;
+
+      if (left.type == NUMBER && right.type == NUMBER) {
+        switch (op) {
+          case PLUS: case MINUS: case STAR: case SLASH:
+            return new Kernel(NUMBER, (from, count) -> {
+              Vector a = left.run.run(from, count);
+              Vector b = right.run.run(from, count);
+              Vector result = new Vector();
+              result.numbers = arithmetic(op, a.numbers, b.numbers, count);
+              result.errors = mergeErrors(a, b, count);
+              return result;
+            });
+          default:
+            return new Kernel(BOOL, (from, count) -> {
+              Vector a = left.run.run(from, count);
+              Vector b = right.run.run(from, count);
+              Vector result = new Vector();
+              result.bools = compare(op, a.numbers, b.numbers, count);
+              result.errors = mergeErrors(a, b, count);
+              return result;
+            });
+        }
+      }
+      if (left.type == BOOL && right.type == BOOL &&
+          (op == TokenType.EQUAL_EQUAL || op == TokenType.BANG_EQUAL)) {
+        boolean equal = op == TokenType.EQUAL_EQUAL;
+        return new Kernel(BOOL, (from, count) -> {
+          Vector a = left.run.run(from, count);
+          Vector b = right.run.run(from, count);
+          Vector result = new Vector();
+          result.bools = new boolean[count];
+          for (int i = 0; i < count; i++) {
+            result.bools[i] = (a.bools[i] == b.bools[i]) == equal;
+          }
+          result.errors = mergeErrors(a, b, count);
+          return result;
+        });
+      }
+
+      // mixed or unknown types: the interpreter's operator, a row at a time.
+      // + can give a number or a string, comparisons always give a bool and
+      // the other arithmetic always a number (or an error)
+      int type;
+      switch (op) {
+        case PLUS: type = ANY; break;
+        case MINUS: case STAR: case SLASH: type = NUMBER; break;
+        default: type = BOOL; break;
+      }
+      return new Kernel(type, (from, count) -> {
+        Vector a = left.run.run(from, count);
+        Vector b = right.run.run(from, count);
+        Vector result = allocate(type, count);
+        for (int i = 0; i < count; i++) {
+          RuntimeError error = a.errorAt(i);
+          if (error == null) error = b.errorAt(i);
+          if (error != null) {
+            result.fail(i, error);
+            continue;
+          }
+          try {
+            Object value = interpreter.binary(operator,
+                get(a, left.type, i), get(b, right.type, i));
+            store(result, type, i, value);
+          } catch (RuntimeError failed) {
+            result.fail(i, failed);
+          }
+        }
+        return result;
+      });
+    }
+
+    @Override
+    public Kernel visitLogicalExpr(Expr.Logical expr) {
+      Kernel left = expr.left.accept(this);
+      Kernel right = expr.right.accept(this);
+      boolean or = expr.operator.type == TokenType.OR;
+
+      if (left.type == BOOL && right.type == BOOL) {
+        return new Kernel(BOOL, (from, count) -> {
+          Vector a = left.run.run(from, count);
+          Vector b = right.run.run(from, count);
+          Vector result = new Vector();
+          result.bools = new boolean[count];
+          for (int i = 0; i < count; i++) {
+            result.bools[i] = or ? a.bools[i] | b.bools[i] : a.bools[i] & b.bools[i];
+          }
+          if (a.errors != null || b.errors != null) {
+            for (int i = 0; i < count; i++) {
+              RuntimeError error = a.errorAt(i);
+              // the right side only ran where the left didn't decide
+              if (error == null && a.bools[i] != or) error = b.errorAt(i);
+              if (error != null) result.fail(i, error);
+            }
+          }
+          return result;
+        });
+      }
+
+      // and/or hand back one of their operands, so the type is only known
+      // if both sides have the same one
+      int type = left.type == right.type ? left.type : ANY;
+      return new Kernel(type, (from, count) -> {
+        Vector a = left.run.run(from, count);
+        Vector b = right.run.run(from, count);
+        Vector result = allocate(type, count);
+        for (int i = 0; i < count; i++) {
+          RuntimeError error = a.errorAt(i);
+          if (error != null) {
+            result.fail(i, error);
+            continue;
+          }
+          Object value = get(a, left.type, i);
+          if (interpreter.isTruthy(value) != or) {
+            // the left side didn't decide, the right one is the answer
+            error = b.errorAt(i);
+            if (error != null) {
+              result.fail(i, error);
+              continue;
+            }
+            value = get(b, right.type, i);
+          }
+          store(result, type, i, value);
+        }
+        return result;
+      });
+    }
+
+    /* natives have no side effects, so they can run here. one with an exact
+     * double handle on number columns is a loop of invoke() calls over the
+     * double[]s, anything else goes a row at a time through Interpreter.call
+     */
+    @Override
+    public Kernel visitCallExpr(Expr.Call expr) {
+      Token paren = expr.paren;
+      LoxNative function = null;
+      if (expr.callee instanceof Expr.Variable) {
+        String name = ((Expr.Variable) expr.callee).name.lexeme;
+        if (!columns.containsKey(name)) function = Natives.lookup(name);
+      }
+      if (function == null) {
+        throw new RuntimeError(paren, "Can only call natives in a column expression.");
+      }
+
+      Kernel[] arguments = new Kernel[expr.arguments.size()];
+      boolean numbers = true;
+      for (int i = 0; i < arguments.length; i++) {
+        arguments[i] = expr.arguments.get(i).accept(this);
+        numbers &= arguments[i].type == NUMBER;
+      }
+
+      LoxNative callee = function;
+      if (numbers && callee.shape == LoxNative.NUMBER && arguments.length == 1) {
+        Kernel argument = arguments[0];
+        return new Kernel(NUMBER, (from, count) -> {
+          Vector a = argument.run.run(from, count);
+          Vector result = new Vector();
+          result.numbers = new double[count];
+          for (int i = 0; i < count; i++) result.numbers[i] = callee.invoke(a.numbers[i]);
+          result.errors = a.errors;
+          return result;
+        });
+      }
+      if (numbers && callee.shape == LoxNative.NUMBERS && arguments.length == 2) {
+        Kernel left = arguments[0];
+        Kernel right = arguments[1];
+        return new Kernel(NUMBER, (from, count) -> {
+          Vector a = left.run.run(from, count);
+          Vector b = right.run.run(from, count);
+          Vector result = new Vector();
+          result.numbers = new double[count];
+          for (int i = 0; i < count; i++) {
+            result.numbers[i] = callee.invoke(a.numbers[i], b.numbers[i]);
+          }
+          result.errors = mergeErrors(a, b, count);
+          return result;
+        });
+      }
+
+      return new Kernel(ANY, (from, count) -> {
+        Vector[] values = new Vector[arguments.length];
+        for (int j = 0; j < arguments.length; j++) {
+          values[j] = arguments[j].run.run(from, count);
+        }
+        Vector result = allocate(ANY, count);
+        for (int i = 0; i < count; i++) {
+          // the leftmost argument's error, like mergeErrors
+          RuntimeError error = null;
+          Object[] row = new Object[arguments.length];
+          for (int j = 0; j < arguments.length && error == null; j++) {
+            error = values[j].errorAt(i);
+            row[j] = get(values[j], arguments[j].type, i);
+          }
+          if (error != null) {
+            result.fail(i, error);
+            continue;
+          }
+          try {
+            result.values[i] = interpreter.call(paren, callee, row);
+          } catch (RuntimeError failed) {
+            result.fail(i, failed);
+          }
+        }
+        return result;
+      });
+    }
+
+    @Override
+    public Kernel visitAssignExpr(Expr.Assign expr) {
+      throw new RuntimeError(expr.name, "Can't assign in a column expression.");
+    }
+
+    @Override
+    public Kernel visitChannelExpr(Expr.Channel expr) {
+      throw new RuntimeError(expr.keyword, "Can't make channels in a column expression.");
+    }
+
+    // columns never hold arrays, and making or changing one is a side effect
+    @Override
+    public Kernel visitArrayExpr(Expr.Array expr) {
+      throw new RuntimeError(expr.bracket, "Can't make arrays in a column expression.");
+    }
+
+    @Override
+    public Kernel visitIndexExpr(Expr.Index expr) {
+      throw new RuntimeError(expr.bracket, "Can't index in a column expression.");
+    }
+
+    @Override
+    public Kernel visitSetIndexExpr(Expr.SetIndex expr) {
+      throw new RuntimeError(expr.bracket, "Can't assign in a column expression.");
+    }
+
+    // listeners expect one value at a time from the interpreter
+    @Override
+    public Kernel visitTracedExpr(Expr.Traced expr) {
+      throw new RuntimeError(new Token(TokenType.EOF, "", null, expr.line),
+          "Can't instrument a column expression.");
+    }
+
+    @Override
+    public Kernel visitReceiveExpr(Expr.Receive expr) {
+      throw new RuntimeError(expr.keyword, "Can't receive in a column expression.");
+    }
+  }
+
+  /* the loops that do the work */
+
+  private static double[] arithmetic(TokenType op, double[] a, double[] b, int count) {
+    double[] out = new double[count];
+    // one loop per operator, so each is a simple counted loop the JIT can unroll
+    switch (op) {
+      case PLUS: for (int i = 0; i < count; i++) out[i] = a[i] + b[i]; break;
+      case MINUS: for (int i = 0; i < count; i++) out[i] = a[i] - b[i]; break;
+      case STAR: for (int i = 0; i < count; i++) out[i] = a[i] * b[i]; break;
+      case SLASH: for (int i = 0; i < count; i++) out[i] = a[i] / b[i]; break;
+      default: throw new IllegalStateException(op.name());
+    }
+    return out;
+  }
+
+  private static boolean[] compare(TokenType op, double[] a, double[] b, int count) {
+    boolean[] out = new boolean[count];
+    switch (op) {
+      case LESS: for (int i = 0; i < count; i++) out[i] = a[i] < b[i]; break;
+      case LESS_EQUAL: for (int i = 0; i < count; i++) out[i] = a[i] <= b[i]; break;
+      case GREATER: for (int i = 0; i < count; i++) out[i] = a[i] > b[i]; break;
+      case GREATER_EQUAL: for (int i = 0; i < count; i++) out[i] = a[i] >= b[i]; break;
+      // Double.equals(), same as the interpreter's isEqual (NaN == NaN, 0 != -0)
+      case EQUAL_EQUAL:
+        for (int i = 0; i < count; i++) {
+          out[i] = Double.doubleToLongBits(a[i]) == Double.doubleToLongBits(b[i]);
+        }
+        break;
+      case BANG_EQUAL:
+        for (int i = 0; i < count; i++) {
+          out[i] = Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i]);
+        }
+        break;
+      default: throw new IllegalStateException(op.name());
+    }
+    return out;
+  }
+
+  // the left operand's error wins, it's the one the interpreter would hit first
+  private static RuntimeError[] mergeErrors(Vector a, Vector b, int count) {
+    if (a.errors == null) return b.errors;
+    if (b.errors == null) return a.errors;
+    RuntimeError[] merged = new RuntimeError[CHUNK];
+    for (int i = 0; i < count; i++) {
+      merged[i] = a.errors[i] != null ? a.errors[i] : b.errors[i];
+    }
+    return merged;
+  }
+
+  private static Vector allocate(int type, int count) {
+    Vector vector = new Vector();
+    switch (type) {
+      case NUMBER: vector.numbers = new double[count]; break;
+      case BOOL: vector.bools = new boolean[count]; break;
+      default: vector.values = new Object[count]; break;
+    }
+    return vector;
+  }
+
+  private static Object get(Vector vector, int type, int i) {
+    switch (type) {
+      case NUMBER: return vector.numbers[i];
+      case BOOL: return vector.bools[i];
+      default: return vector.values[i];
+    }
+  }
+
+  private static void store(Vector vector, int type, int i, Object value) {
+    switch (type) {
+      case NUMBER: vector.numbers[i] = (double) value; break;
+      case BOOL: vector.bools[i] = (boolean) value; break;
+      default: vector.values[i] = value; break;
+    }
+  }
+}
@@ -0,0 +1,288 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/* The shape of a counted for loop, `for (var i = a; i < n; i = i + k) body`
+ *
+ * the general for loop looks i up by name three times per iteration (condition,
+ * increment, and the increment's right side), evaluates two Binary nodes and
+ * boxes a new Double for i every time round. when the loop has this shape the
+ * interpreter keeps i in a local double instead (see Interpreter.countedLoop)
+ * and only writes it into the environment when the body actually reads it.
+ *
+ * what counts:
+ *  - initializer: `var i = <anything>`, the value has to turn out a number
+ *  - condition: `i < n`, `i <= n`, `i > n` or `i >= n`, n a number literal or
+ *    some other variable (read again every time round, the body may change it)
+ *  - increment: `i = i + k` or `i = i - k`, k a number literal
+ *  - body: never assigns i. checked by looking for any assignment to the name
+ *    (or a var declaring it, which would shadow it) anywhere in the body
+ *
+ * match() is a one-time look at the node, Stmt.For.counted caches the answer.
+ */
+final class CountedLoop {
+  // checked, not a counted loop
+  static final CountedLoop NONE = new CountedLoop(null, null, null, 0, false);
+
+  final Token counter;     // i
+  final Token comparison;  // the < in i < n, errors point at it
+  final Expr limit;        // n
+  final double step;       // k, negative for i = i - k
+  final boolean bodyReads; // does the body look at i at all
+
+  private CountedLoop(Token counter, Token comparison, Expr limit,
+                      double step, boolean bodyReads) {
+    this.counter = counter;
+    this.comparison = comparison;
+    this.limit = limit;
+    this.step = step;
+    this.bodyReads = bodyReads;
+  }
+
+  static CountedLoop match(Stmt.For stmt) {
+    Stmt initializer = Instrumenter.unwrap(stmt.initializer);
+    if (!(initializer instanceof Stmt.Var)) return NONE;
+    Token counter = ((Stmt.Var) initializer).name;
+
+    // condition: i <op> n
+    if (!(stmt.condition instanceof Expr.Binary)) return NONE;
+    Expr.Binary condition = (Expr.Binary) stmt.condition;
+    switch (condition.operator.type) {
+      case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: break;
+      default: return NONE;
+    }
+    if (!isVariable(condition.left, counter)) return NONE;
+    Expr limit = condition.right;
+    boolean constant = limit instanceof Expr.Literal &&
+        ((Expr.Literal) limit).value instanceof Double;
+    boolean variable = limit instanceof Expr.Variable && !isVariable(limit, counter);
+    if (!constant && !variable) return NONE;
+
+    // increment: i = i +/- k
+    if (!(stmt.increment instanceof Expr.Assign)) return NONE;
+    Expr.Assign increment = (Expr.Assign) stmt.increment;
+    if (!increment.name.lexeme.equals(counter.lexeme)) return NONE;
+    if (!(increment.value instanceof Expr.Binary)) return NONE;
+    Expr.Binary next = (Expr.Binary) increment.value;
+    if (!isVariable(next.left, counter)) return NONE;
+    if (!(next.right instanceof Expr.Literal)) return NONE;
+    Object amount = ((Expr.Literal) next.right).value;
+    if (!(amount instanceof Double)) return NONE;
+    double step;
+    switch (next.operator.type) {
+      case PLUS: step = (Double) amount; break;
+      case MINUS: step = -(Double) amount; break;
+      default: return NONE;
+    }
+
+    Uses uses = new Uses(counter.lexeme);
+    uses.scan(stmt.body);
+    if (uses.writes) return NONE;
+
+    return new CountedLoop(counter, condition.operator, limit, step, uses.reads);
+  }
+
+  private static boolean isVariable(Expr expr, Token name) {
+    return expr instanceof Expr.Variable &&
+        ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+  }
+
+  // where the body mentions one name, with a worklist like NodeCounter
+  private static final class Uses implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final String name;
+    private final Deque<Object> worklist = new ArrayDeque<>();
+    boolean reads = false;
+    boolean writes = false;
+
+    Uses(String name) {
+      this.name = name;
+    }
+
+    void scan(Stmt body) {
+      push(body);
+      while (!worklist.isEmpty() && !writes) {
+        Object node = worklist.pop();
+        if (node instanceof Expr) {
+          ((Expr) node).accept(this);
+        } else {
+          ((Stmt) node).accept(this);
+        }
+      }
+    }
+
+    private void push(Object node) {
+      if (node != null) worklist.push(node);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      if (expr.name.lexeme.equals(name)) writes = true;
+      push(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      push(expr.left);
+      push(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitChannelExpr(Expr.Channel expr) {
+      push(expr.capacity);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      push(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      push(expr.left);
+      push(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+      for (Expr element : expr.elements) push(element);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      push(expr.callee);
+      for (Expr argument : expr.arguments) push(argument);
+      return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+      push(expr.object);
+      push(expr.index);
+      return null;
+    }
+
+    // writes an element, not the variable: i[0] = 1 leaves i alone
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+      push(expr.object);
+      push(expr.index);
+      push(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitReceiveExpr(Expr.Receive expr) {
+      push(expr.channel);
+      return null;
+    }
+
+    @Override
+    public Void visitTracedExpr(Expr.Traced expr) {
+      push(expr.inner);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      push(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      if (expr.name.lexeme.equals(name)) reads = true;
+      return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+      return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      for (Stmt statement : stmt.statements) push(statement);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      push(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+      push(stmt.initializer);
+      push(stmt.condition);
+      push(stmt.increment);
+      push(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      push(stmt.condition);
+      push(stmt.thenBranch);
+      push(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      push(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitSendStmt(Stmt.Send stmt) {
+      push(stmt.channel);
+      push(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSpawnStmt(Stmt.Spawn stmt) {
+      push(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitTracedStmt(Stmt.Traced stmt) {
+      push(stmt.inner);
+      return null;
+    }
+
+    // a var of the same name shadows i, too fiddly to tell apart, so don't try
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      if (stmt.name.lexeme.equals(name)) writes = true;
+      push(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      push(stmt.condition);
+      push(stmt.body);
+      return null;
+    }
+  }
+}
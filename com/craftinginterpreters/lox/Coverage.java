@@ -0,0 +1,400 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/* Statement and branch coverage (`jlox --coverage=FILE script`)
+ *
+ *   jlox --coverage=script.info script.lox
+ *   genhtml script.info -o coverage/
+ *
+ * assign() gives every statement of the program a dense index (Stmt.coverage)
+ * and every branch point a pair next to it:
+ *  - a statement has one counter, bumped each time execute() starts it
+ *  - If, While and For have two more right after their own: the condition came
+ *    out taken (then branch / one more iteration) or not (else / loop done)
+ *  - a Logical has the same three, its own one is never bumped; taken means
+ *    the left side didn't decide it so the right side ran
+ * counting is then `counts[id]++` on a long[]: no maps, no listeners, no
+ * wrapper nodes. every interpreter (workers too) gets an array of its own from
+ * register(), so threads never share a counter, and the report adds them up
+ * once the run is over.
+ *
+ * an interpreter without an array doesn't count. compiled loops never count,
+ * so tiering is off while coverage is on, same as for the profiler. the
+ * numbering goes into every block, so --lazy ones get parsed up front: the
+ * report needs the statements that never ran just as much.
+ *
+ * the report is an LCOV tracefile: BRDA/BRF/BRH for branches, DA/LF/LH for
+ * lines. a line's count is the most any statement starting on it ran, and a
+ * branch point that was never reached shows "-" for both sides.
+ */
+final class Coverage implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // what each counter is, the pair after a branch point is OTHER
+  private static final byte STATEMENT = 0;
+  private static final byte BRANCH = 1;  // a statement with a condition
+  private static final byte LOGICAL = 2; // and/or, a branch point but no statement
+  private static final byte OTHER = 3;
+
+  /* one interpreter's counters */
+  static final class Hits {
+    private final Coverage coverage;
+    private final long[] counts;
+
+    private Hits(Coverage coverage, int size) {
+      this.coverage = coverage;
+      this.counts = new long[size];
+    }
+
+    void hit(int id) {
+      counts[id]++;
+    }
+
+    // id is the branch point's own counter, the pair is the next two
+    void branch(int id, boolean taken) {
+      counts[taken ? id + 1 : id + 2]++;
+    }
+
+    // counters for a worker this interpreter spawns
+    Hits fork() {
+      return coverage.register();
+    }
+  }
+
+  private int size = 0;
+  private int[] lines = new int[64];
+  private byte[] kinds = new byte[64];
+  private final Deque<Object> worklist = new ArrayDeque<>();
+  private final List<Hits> registered = new CopyOnWriteArrayList<>();
+
+  // number the program, once, before anything registers
+  void assign(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      push(statement);
+    }
+
+    while (!worklist.isEmpty()) {
+      Object node = worklist.pop();
+      if (node instanceof Stmt) {
+        ((Stmt) node).accept(this);
+      } else {
+        ((Expr) node).accept(this);
+      }
+    }
+  }
+
+  Hits register() {
+    Hits hits = new Hits(this, size);
+    registered.add(hits);
+    return hits;
+  }
+
+  private void push(Object node) {
+    if (node != null) worklist.push(node);
+  }
+
+  private int next(int line, byte kind) {
+    if (size == lines.length) {
+      lines = Arrays.copyOf(lines, size * 2);
+      kinds = Arrays.copyOf(kinds, size * 2);
+    }
+    lines[size] = line;
+    kinds[size] = kind;
+    return size++;
+  }
+
+  private void statement(Stmt stmt) {
+    stmt.coverage = next(stmt.line, STATEMENT);
+  }
+
+  // a statement with a condition: its own counter, then the pair
+  private void branchPoint(Stmt stmt) {
+    statement(stmt);
+    kinds[stmt.coverage] = BRANCH;
+    next(stmt.line, OTHER);
+    next(stmt.line, OTHER);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    push(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    push(expr.left);
+    push(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitChannelExpr(Expr.Channel expr) {
+    push(expr.capacity);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    push(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  // expressions have no line of their own, the operator's will do
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    int line = expr.operator.line;
+    expr.coverage = next(line, LOGICAL);
+    next(line, OTHER);
+    next(line, OTHER);
+    push(expr.left);
+    push(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) push(element);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    push(expr.callee);
+    for (Expr argument : expr.arguments) push(argument);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    push(expr.object);
+    push(expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    push(expr.object);
+    push(expr.index);
+    push(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitReceiveExpr(Expr.Receive expr) {
+    push(expr.channel);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedExpr(Expr.Traced expr) {
+    push(expr.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    push(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    statement(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    statement(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    statement(stmt);
+    for (Stmt statement : stmt.statements) push(statement);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    statement(stmt);
+    push(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    branchPoint(stmt);
+    push(stmt.initializer);
+    push(stmt.condition);
+    push(stmt.increment);
+    push(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    branchPoint(stmt);
+    push(stmt.condition);
+    push(stmt.thenBranch);
+    push(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    statement(stmt);
+    push(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    statement(stmt);
+    push(stmt.channel);
+    push(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    statement(stmt);
+    push(stmt.body);
+    return null;
+  }
+
+  // execute() counts the wrapper too, but the statement inside is what's reported
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    stmt.coverage = next(stmt.line, OTHER);
+    push(stmt.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    statement(stmt);
+    push(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    branchPoint(stmt);
+    push(stmt.condition);
+    push(stmt.body);
+    return null;
+  }
+
+  /* reporting, after every interpreter is done */
+
+  private long[] totals() {
+    long[] totals = new long[size];
+    for (Hits hits : registered) {
+      for (int i = 0; i < size; i++) totals[i] += hits.counts[i];
+    }
+    return totals;
+  }
+
+  // line -> the most any statement starting on it ran
+  private Map<Integer, Long> lineCounts(long[] totals) {
+    Map<Integer, Long> counts = new TreeMap<>();
+    for (int i = 0; i < size; i++) {
+      if (kinds[i] == STATEMENT || kinds[i] == BRANCH) {
+        counts.merge(lines[i], totals[i], Math::max);
+      }
+    }
+    return counts;
+  }
+
+  private boolean isBranchPoint(int id) {
+    return kinds[id] == BRANCH || kinds[id] == LOGICAL;
+  }
+
+  void printSummary(PrintStream out) {
+    long[] totals = totals();
+    Map<Integer, Long> lineCounts = lineCounts(totals);
+    int linesHit = 0;
+    for (long count : lineCounts.values()) {
+      if (count > 0) linesHit++;
+    }
+
+    int branches = 0;
+    int branchesHit = 0;
+    for (int i = 0; i < size; i++) {
+      if (!isBranchPoint(i)) continue;
+      branches += 2;
+      if (totals[i + 1] > 0) branchesHit++;
+      if (totals[i + 2] > 0) branchesHit++;
+    }
+
+    out.println("-- coverage: " + linesHit + "/" + lineCounts.size() + " lines, " +
+        branchesHit + "/" + branches + " branches --");
+  }
+
+  void writeLcov(Path path, Path source) throws IOException {
+    long[] totals = totals();
+
+    // branch points in source order, the block number is the position
+    List<Integer> branchPoints = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      if (isBranchPoint(i)) branchPoints.add(i);
+    }
+    branchPoints.sort((a, b) -> lines[a] != lines[b] ?
+        Integer.compare(lines[a], lines[b]) : Integer.compare(a, b));
+
+    try (PrintWriter writer = new PrintWriter(
+        Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+      writer.println("TN:");
+      writer.println("SF:" + source.toAbsolutePath());
+
+      int branchesHit = 0;
+      for (int block = 0; block < branchPoints.size(); block++) {
+        int id = branchPoints.get(block);
+        boolean reached = totals[id + 1] + totals[id + 2] > 0;
+        for (int branch = 0; branch < 2; branch++) {
+          long taken = totals[id + 1 + branch];
+          if (taken > 0) branchesHit++;
+          writer.println("BRDA:" + lines[id] + "," + block + "," + branch + "," +
+              (reached ? Long.toString(taken) : "-"));
+        }
+      }
+      writer.println("BRF:" + branchPoints.size() * 2);
+      writer.println("BRH:" + branchesHit);
+
+      int linesHit = 0;
+      Map<Integer, Long> lineCounts = lineCounts(totals);
+      for (Map.Entry<Integer, Long> line : lineCounts.entrySet()) {
+        if (line.getValue() > 0) linesHit++;
+        writer.println("DA:" + line.getKey() + "," + line.getValue());
+      }
+      writer.println("LF:" + lineCounts.size());
+      writer.println("LH:" + linesHit);
+      writer.println("end_of_record");
+    }
+  }
+}
@@ -1,10 +1,32 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.function.BiConsumer;
+
+/* Variable storage for one scope
+ *
+ * most block scopes only hold a handful of variables, and a HashMap per block
+ * entry (plus its table and a Node per entry) is a lot of garbage for that.
+ * so small scopes keep their variables in two parallel arrays and just scan
+ * them; only once a scope outgrows INLINE_LIMIT (i.e. the globals) does it
+ * switch to a HashMap.
+ *
+ * arrays are only allocated on the first define(), so an environment that
+ * never gets a variable costs one small object.
+ */
 class Environment {
-  private final Map<String, Object> values = new HashMap<>();
+  private static final int INLINE_LIMIT = 8;
+
+  private String[] names;
+  private Object[] values;
+  private int size = 0;
+  private Map<String, Object> map = null; // used instead of the arrays once big
+
   final Environment enclosing;
 
   Environment() {
@@ -15,41 +37,57 @@ class Environment {
     this.enclosing = enclosing;
   }
 
-  Object get(Token name) {
-
-    Object returnValue = null;
-    
-    if (values.containsKey(name.lexeme)) {
-      returnValue = values.get(name.lexeme);
-    }
-
-    // what if it's not in the current scope? -> recurse.
-    if (enclosing != null) {
-        returnValue = enclosing.get(name);
+  // capacity comes from analysis: how many variables the block declares
+  // (or from a Snapshot, how many globals it restores)
+  Environment(Environment enclosing, int capacity) {
+    this.enclosing = enclosing;
+    if (capacity > INLINE_LIMIT) {
+      map = new HashMap<>(capacity * 4 / 3 + 1);
+    } else if (capacity > 0) {
+      names = new String[capacity];
+      values = new Object[capacity];
     }
+  }
 
-    if (returnValue != null) {
-      return returnValue;
+  Object get(Token name) {
+    // walk outwards until some scope has it, no recursion needed
+    for (Environment scope = this; scope != null; scope = scope.enclosing) {
+      int index = scope.indexOf(name.lexeme);
+      if (index >= 0) return scope.values[index];
+      if (scope.map != null && scope.map.containsKey(name.lexeme)) {
+        return scope.map.get(name.lexeme);
+      }
     }
 
     throw new RuntimeError(name,
         "Undefined variable '" + name.lexeme + "'.");
   }
 
+  // does any scope from here outwards have the name (used when entering compiled loops)
+  boolean isDefined(String name) {
+    for (Environment scope = this; scope != null; scope = scope.enclosing) {
+      if (scope.indexOf(name) >= 0) return true;
+      if (scope.map != null && scope.map.containsKey(name)) return true;
+    }
+    return false;
+  }
+
   // take advantage of Visitor paradigm again
-  // cannot create a new variable! 
+  // cannot create a new variable!
   void assign(Token name, Object value) {
 
     // if the item exists, then overwrite existing key
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
     // if we can't assign it in the local scope, go up a level
-    if (enclosing != null) {
-        enclosing.assign(name, value);
+    for (Environment scope = this; scope != null; scope = scope.enclosing) {
+      int index = scope.indexOf(name.lexeme);
+      if (index >= 0) {
+        scope.values[index] = value;
+        return;
+      }
+      if (scope.map != null && scope.map.containsKey(name.lexeme)) {
+        scope.map.put(name.lexeme, value);
         return;
+      }
     }
 
     /// otherwise, push error
@@ -58,8 +96,105 @@ class Environment {
   }
 
   void define(String name, Object value) {
-    values.put(name, value);
+    if (map != null) {
+      map.put(name, value);
+      return;
+    }
+
+    // redeclaring just overwrites, same as the HashMap version did
+    int index = indexOf(name);
+    if (index >= 0) {
+      values[index] = value;
+      return;
+    }
+
+    if (size == INLINE_LIMIT) {
+      spill();
+      map.put(name, value);
+      return;
+    }
+
+    if (names == null) {
+      names = new String[4];
+      values = new Object[4];
+    } else if (size == names.length) {
+      int capacity = Math.min(size * 2, INLINE_LIMIT);
+      names = Arrays.copyOf(names, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+
+    names[size] = name;
+    values[size] = value;
+    size++;
+  }
+
+  // every variable visible from here, copied into one fresh environment
+  // (inner scopes win over outer ones), used to start a worker. arrays are
+  // the one mutable value, so the worker gets copies of its own, charged to
+  // the spawner's budget (see LoxArray.copy)
+  Environment snapshot(Budget budget, int line) {
+    List<Environment> scopes = new ArrayList<>();
+    for (Environment scope = this; scope != null; scope = scope.enclosing) {
+      scopes.add(scope);
+    }
+
+    Environment copy = new Environment();
+    Map<LoxArray, LoxArray> arrays = new IdentityHashMap<>();
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Environment scope = scopes.get(i);
+      if (scope.map != null) {
+        for (Map.Entry<String, Object> entry : scope.map.entrySet()) {
+          copy.define(entry.getKey(), LoxArray.copy(entry.getValue(), arrays, budget, line));
+        }
+      } else {
+        for (int j = 0; j < scope.size; j++) {
+          copy.define(scope.names[j], LoxArray.copy(scope.values[j], arrays, budget, line));
+        }
+      }
+    }
+    return copy;
   }
 
+  // variables in this scope only, not the enclosing ones
+  int size() {
+    return map != null ? map.size() : size;
+  }
 
+  void forEachVariable(BiConsumer<String, Object> action) {
+    if (map != null) {
+      map.forEach(action);
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      action.accept(names[i], values[i]);
+    }
+  }
+
+  // forget every variable so the same frame can be reused for the next loop iteration
+  void clear() {
+    if (map != null) {
+      map = null;
+    } else {
+      Arrays.fill(values, 0, size, null);
+    }
+    size = 0;
+  }
+
+  private int indexOf(String name) {
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  // too many variables for a linear scan, move them all into a HashMap
+  private void spill() {
+    map = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put(names[i], values[i]);
+    }
+    names = null;
+    values = null;
+    size = 0;
+  }
 }
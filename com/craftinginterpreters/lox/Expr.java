@@ -4,14 +4,35 @@ import java.util.List;
 
 abstract class Expr {
   interface Visitor<R> {
+    R visitArrayExpr(Array expr);
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
+    R visitCallExpr(Call expr);
+    R visitChannelExpr(Channel expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIndexExpr(Index expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    R visitReceiveExpr(Receive expr);
+    R visitSetIndexExpr(SetIndex expr);
+    R visitTracedExpr(Traced expr);
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
   }
+  static class Array extends Expr {
+    Array(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    final Token bracket;
+    final List<Expr> elements;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArrayExpr(this);
+    }
+  }
   static class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
@@ -42,6 +63,36 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
   }
+  static class Call extends Expr {
+    Call(Expr callee, Token paren, List<Expr> arguments) {
+      this.callee = callee;
+      this.paren = paren;
+      this.arguments = arguments;
+    }
+
+    final Expr callee;
+    final Token paren;
+    final List<Expr> arguments;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCallExpr(this);
+    }
+  }
+  static class Channel extends Expr {
+    Channel(Token keyword, Expr capacity) {
+      this.keyword = keyword;
+      this.capacity = capacity;
+    }
+
+    final Token keyword;
+    final Expr capacity;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitChannelExpr(this);
+    }
+  }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
@@ -54,6 +105,22 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
   }
+  static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+  }
   static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
@@ -76,12 +143,61 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    int coverage = -1; // set by analysis
 
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
   }
+  static class Receive extends Expr {
+    Receive(Token keyword, Expr channel) {
+      this.keyword = keyword;
+      this.channel = channel;
+    }
+
+    final Token keyword;
+    final Expr channel;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitReceiveExpr(this);
+    }
+  }
+  static class SetIndex extends Expr {
+    SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetIndexExpr(this);
+    }
+  }
+  static class Traced extends Expr {
+    Traced(Expr inner, Instrumenter.Listener listener, int line) {
+      this.inner = inner;
+      this.listener = listener;
+      this.line = line;
+    }
+
+    final Expr inner;
+    final Instrumenter.Listener listener;
+    final int line;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitTracedExpr(this);
+    }
+  }
   static class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
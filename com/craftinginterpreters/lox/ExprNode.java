@@ -0,0 +1,227 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+sealed interface ExprNode permits ExprNode.Array, ExprNode.Assign, ExprNode.Binary, ExprNode.Call, ExprNode.Channel, ExprNode.Grouping, ExprNode.Index, ExprNode.Literal, ExprNode.Logical, ExprNode.Receive, ExprNode.SetIndex, ExprNode.Traced, ExprNode.Unary, ExprNode.Variable {
+  int ARRAY = 0;
+  int ASSIGN = 1;
+  int BINARY = 2;
+  int CALL = 3;
+  int CHANNEL = 4;
+  int GROUPING = 5;
+  int INDEX = 6;
+  int LITERAL = 7;
+  int LOGICAL = 8;
+  int RECEIVE = 9;
+  int SET_INDEX = 10;
+  int TRACED = 11;
+  int UNARY = 12;
+  int VARIABLE = 13;
+
+  int kind();
+
+  record Array(Token bracket, List<ExprNode> elements) implements ExprNode {
+    @Override
+    public int kind() {
+      return ARRAY;
+    }
+  }
+
+  record Assign(Token name, ExprNode value) implements ExprNode {
+    @Override
+    public int kind() {
+      return ASSIGN;
+    }
+  }
+
+  record Binary(ExprNode left, Token operator, ExprNode right) implements ExprNode {
+    @Override
+    public int kind() {
+      return BINARY;
+    }
+  }
+
+  record Call(ExprNode callee, Token paren, List<ExprNode> arguments) implements ExprNode {
+    @Override
+    public int kind() {
+      return CALL;
+    }
+  }
+
+  record Channel(Token keyword, ExprNode capacity) implements ExprNode {
+    @Override
+    public int kind() {
+      return CHANNEL;
+    }
+  }
+
+  record Grouping(ExprNode expression) implements ExprNode {
+    @Override
+    public int kind() {
+      return GROUPING;
+    }
+  }
+
+  record Index(ExprNode object, Token bracket, ExprNode index) implements ExprNode {
+    @Override
+    public int kind() {
+      return INDEX;
+    }
+  }
+
+  record Literal(Object value) implements ExprNode {
+    @Override
+    public int kind() {
+      return LITERAL;
+    }
+  }
+
+  record Logical(ExprNode left, Token operator, ExprNode right) implements ExprNode {
+    @Override
+    public int kind() {
+      return LOGICAL;
+    }
+  }
+
+  record Receive(Token keyword, ExprNode channel) implements ExprNode {
+    @Override
+    public int kind() {
+      return RECEIVE;
+    }
+  }
+
+  record SetIndex(ExprNode object, Token bracket, ExprNode index, ExprNode value) implements ExprNode {
+    @Override
+    public int kind() {
+      return SET_INDEX;
+    }
+  }
+
+  record Traced(ExprNode inner, Instrumenter.Listener listener, int line) implements ExprNode {
+    @Override
+    public int kind() {
+      return TRACED;
+    }
+  }
+
+  record Unary(Token operator, ExprNode right) implements ExprNode {
+    @Override
+    public int kind() {
+      return UNARY;
+    }
+  }
+
+  record Variable(Token name) implements ExprNode {
+    @Override
+    public int kind() {
+      return VARIABLE;
+    }
+  }
+
+  interface Cases<R> {
+    R onArray(Array node);
+    R onAssign(Assign node);
+    R onBinary(Binary node);
+    R onCall(Call node);
+    R onChannel(Channel node);
+    R onGrouping(Grouping node);
+    R onIndex(Index node);
+    R onLiteral(Literal node);
+    R onLogical(Logical node);
+    R onReceive(Receive node);
+    R onSetIndex(SetIndex node);
+    R onTraced(Traced node);
+    R onUnary(Unary node);
+    R onVariable(Variable node);
+  }
+
+  static <R> R dispatch(ExprNode node, Cases<R> cases) {
+    switch (node.kind()) {
+      case ARRAY: return cases.onArray((Array) node);
+      case ASSIGN: return cases.onAssign((Assign) node);
+      case BINARY: return cases.onBinary((Binary) node);
+      case CALL: return cases.onCall((Call) node);
+      case CHANNEL: return cases.onChannel((Channel) node);
+      case GROUPING: return cases.onGrouping((Grouping) node);
+      case INDEX: return cases.onIndex((Index) node);
+      case LITERAL: return cases.onLiteral((Literal) node);
+      case LOGICAL: return cases.onLogical((Logical) node);
+      case RECEIVE: return cases.onReceive((Receive) node);
+      case SET_INDEX: return cases.onSetIndex((SetIndex) node);
+      case TRACED: return cases.onTraced((Traced) node);
+      case UNARY: return cases.onUnary((Unary) node);
+      case VARIABLE: return cases.onVariable((Variable) node);
+      default: throw new IllegalStateException("Unknown kind " + node.kind());
+    }
+  }
+
+  static ExprNode of(Expr node) {
+    return node == null ? null : node.accept(new From());
+  }
+
+  static List<ExprNode> of(List<Expr> nodes) {
+    List<ExprNode> converted = new ArrayList<>(nodes.size());
+    for (Expr node : nodes) converted.add(of(node));
+    return converted;
+  }
+
+  final class From implements Expr.Visitor<ExprNode> {
+    @Override
+    public ExprNode visitArrayExpr(Expr.Array node) {
+      return new Array(node.bracket, ExprNode.of(node.elements));
+    }
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign node) {
+      return new Assign(node.name, ExprNode.of(node.value));
+    }
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary node) {
+      return new Binary(ExprNode.of(node.left), node.operator, ExprNode.of(node.right));
+    }
+    @Override
+    public ExprNode visitCallExpr(Expr.Call node) {
+      return new Call(ExprNode.of(node.callee), node.paren, ExprNode.of(node.arguments));
+    }
+    @Override
+    public ExprNode visitChannelExpr(Expr.Channel node) {
+      return new Channel(node.keyword, ExprNode.of(node.capacity));
+    }
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping node) {
+      return new Grouping(ExprNode.of(node.expression));
+    }
+    @Override
+    public ExprNode visitIndexExpr(Expr.Index node) {
+      return new Index(ExprNode.of(node.object), node.bracket, ExprNode.of(node.index));
+    }
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal node) {
+      return new Literal(node.value);
+    }
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical node) {
+      return new Logical(ExprNode.of(node.left), node.operator, ExprNode.of(node.right));
+    }
+    @Override
+    public ExprNode visitReceiveExpr(Expr.Receive node) {
+      return new Receive(node.keyword, ExprNode.of(node.channel));
+    }
+    @Override
+    public ExprNode visitSetIndexExpr(Expr.SetIndex node) {
+      return new SetIndex(ExprNode.of(node.object), node.bracket, ExprNode.of(node.index), ExprNode.of(node.value));
+    }
+    @Override
+    public ExprNode visitTracedExpr(Expr.Traced node) {
+      return new Traced(ExprNode.of(node.inner), node.listener, node.line);
+    }
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary node) {
+      return new Unary(node.operator, ExprNode.of(node.right));
+    }
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable node) {
+      return new Variable(node.name);
+    }
+  }
+}
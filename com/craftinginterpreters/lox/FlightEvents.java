@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/* Java Flight Recorder events for the jlox pipeline
+ *
+ * lets a JFR recording line up scanning / parsing / analysis / execution of
+ * top-level statements with GC pauses and JIT activity in the same timeline.
+ *
+ * when no recording is running, begin()/end()/shouldCommit() are no-ops the JIT
+ * removes, and the event objects never escape so they aren't even allocated.
+ * anything that costs real work to fill in (i.e. counting AST nodes) is only
+ * done after shouldCommit() says someone is listening.
+ *
+ * view with: jfr print --categories Lox recording.jfr
+ */
+final class FlightEvents {
+  private FlightEvents() {}
+
+  @Name("lox.Scan")
+  @Label("Lox Scan")
+  @Category("Lox")
+  @Description("Scanning one source string, pulled by the parser so it spans the parse;" +
+      " Scanner Time is the part spent in the scanner itself")
+  static class Scan extends Event {
+    @Label("Source Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Scanner Time")
+    @Timespan
+    long scannerNanos;
+  }
+
+  @Name("lox.Parse")
+  @Label("Lox Parse")
+  @Category("Lox")
+  @Description("Parser.parse() of one source string, the scanning it pulls included")
+  static class Parse extends Event {
+    @Label("Statements")
+    int statements;
+
+    @Label("AST Nodes")
+    long nodes;
+
+    @Label("Errors")
+    int errors;
+  }
+
+  @Name("lox.Analysis")
+  @Label("Lox Analysis Pass")
+  @Category("Lox")
+  @Description("One static analysis pass over the parsed program")
+  static class Analysis extends Event {
+    @Label("Pass")
+    String pass;
+
+    @Label("Statements")
+    int statements;
+  }
+
+  @Name("lox.Statement")
+  @Label("Lox Top-Level Statement")
+  @Category("Lox")
+  @Description("Execution of one top-level statement")
+  static class Statement extends Event {
+    @Label("Line")
+    int line;
+
+    @Label("Kind")
+    String kind;
+  }
+}
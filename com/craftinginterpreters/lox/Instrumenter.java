@@ -0,0 +1,367 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Hooks for debuggers, tracers and watchers that cost nothing where nobody listens
+ *
+ *   Instrumenter instrumenter = new Instrumenter();
+ *   instrumenter.statements(Instrumenter.atLine(12), listener);
+ *   instrumenter.expressions(Instrumenter.ofKind(Expr.Assign.class), listener);
+ *   statements = instrumenter.instrument(statements);
+ *
+ * a probe is a Selector (which nodes: by line, by node kind, or anything else
+ * that can look at a node) plus the Listener to tell. instrument() hands back
+ * the program with a Traced wrapper around exactly the nodes some probe picked,
+ * and the interpreter runs a wrapper by telling the listener and running the
+ * node inside it. nothing else changes: execute()/evaluate() have no probe
+ * flag to check, every node no probe picked is the one the parser made, and
+ * without probes instrument() returns the very same list.
+ *
+ * --coverage is the one thing that doesn't go through here. it needs every
+ * statement and every branch outcome (a loop left by break, the right side of
+ * an and that never ran), which would mean a wrapper on every node and still
+ * miss the outcomes. so it's a null check on a counter array in execute() and
+ * at each branch point instead, see Coverage.java.
+ *
+ * statements report enter() before they run and exit() once they're done (not
+ * when a runtime error goes through them), expressions report their value,
+ * with the line of the statement they're in (expressions don't have one).
+ *
+ * wrapped nodes stay in the tree-walker: the LoopCompiler won't compile a loop
+ * with one in it, and CountedLoop doesn't match a wrapped condition or
+ * increment, so every event fires in order. ScopeAnalyzer looks through the
+ * wrappers. instrument() runs before analysis and parses --lazy blocks on its
+ * way through them.
+ *
+ * the rewrite copies the path from the root down to each wrapped node (the
+ * tree is final fields) and recurses on the Java stack, so it's meant for the
+ * kind of code people debug, not for --deep inputs.
+ */
+class Instrumenter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  interface Listener {
+    default void enter(Stmt stmt, Environment environment) {}
+    default void exit(Stmt stmt, Environment environment) {}
+    default void value(Expr expr, Object value, int line) {}
+  }
+
+  // line is the node's own for statements, the enclosing statement's for expressions
+  interface Selector<T> {
+    boolean matches(T node, int line);
+
+    default Selector<T> and(Selector<T> other) {
+      return (node, line) -> matches(node, line) && other.matches(node, line);
+    }
+  }
+
+  static <T> Selector<T> atLine(int line) {
+    return (node, at) -> at == line;
+  }
+
+  static <T> Selector<T> ofKind(Class<? extends T> kind) {
+    return (node, line) -> kind.isInstance(node);
+  }
+
+  private static final class Probe<T> {
+    final Selector<T> selector;
+    final Listener listener;
+
+    Probe(Selector<T> selector, Listener listener) {
+      this.selector = selector;
+      this.listener = listener;
+    }
+  }
+
+  private final List<Probe<Stmt>> statementProbes = new ArrayList<>();
+  private final List<Probe<Expr>> expressionProbes = new ArrayList<>();
+
+  // line of the statement being rewritten, for expression selectors
+  private int line = 0;
+
+  void statements(Selector<Stmt> selector, Listener listener) {
+    statementProbes.add(new Probe<>(selector, listener));
+  }
+
+  void expressions(Selector<Expr> selector, Listener listener) {
+    expressionProbes.add(new Probe<>(selector, listener));
+  }
+
+  boolean isEmpty() {
+    return statementProbes.isEmpty() && expressionProbes.isEmpty();
+  }
+
+  List<Stmt> instrument(List<Stmt> statements) {
+    if (isEmpty()) return statements;
+    return rewrite(statements);
+  }
+
+  // the node a chain of wrappers is around
+  static Stmt unwrap(Stmt stmt) {
+    while (stmt instanceof Stmt.Traced) stmt = ((Stmt.Traced) stmt).inner;
+    return stmt;
+  }
+
+  static Expr unwrap(Expr expr) {
+    while (expr instanceof Expr.Traced) expr = ((Expr.Traced) expr).inner;
+    return expr;
+  }
+
+  /* rewriting: every visit returns the node itself if nothing under it got
+   * wrapped, a copy with the new children otherwise
+   */
+  private List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> result = null;
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+      Stmt rewritten = rewrite(statement);
+      if (rewritten != statement && result == null) {
+        result = new ArrayList<>(statements.subList(0, i));
+      }
+      if (result != null) result.add(rewritten);
+    }
+    return result == null ? statements : result;
+  }
+
+  private Stmt rewrite(Stmt stmt) {
+    // parse errors leave nulls behind, optional clauses are null
+    if (stmt == null) return null;
+
+    int outer = line;
+    line = stmt.line;
+    Stmt result = stmt.accept(this);
+    if (result != stmt) result.line = stmt.line;
+
+    for (Probe<Stmt> probe : statementProbes) {
+      if (probe.selector.matches(stmt, stmt.line)) {
+        result = new Stmt.Traced(result, probe.listener);
+        result.line = stmt.line;
+      }
+    }
+    line = outer;
+    return result;
+  }
+
+  private Expr rewrite(Expr expr) {
+    if (expr == null) return null;
+
+    Expr result = expr.accept(this);
+    for (Probe<Expr> probe : expressionProbes) {
+      if (probe.selector.matches(expr, line)) {
+        result = new Expr.Traced(result, probe.listener, line);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = rewrite(expr.value);
+    if (value == expr.value) return expr;
+    return new Expr.Assign(expr.name, value);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = rewrite(expr.left);
+    Expr right = rewrite(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitChannelExpr(Expr.Channel expr) {
+    Expr capacity = rewrite(expr.capacity);
+    if (capacity == expr.capacity) return expr;
+    return new Expr.Channel(expr.keyword, capacity);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = rewrite(expr.expression);
+    if (expression == expr.expression) return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = rewrite(expr.left);
+    Expr right = rewrite(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitArrayExpr(Expr.Array expr) {
+    List<Expr> elements = null;
+    for (int i = 0; i < expr.elements.size(); i++) {
+      Expr element = expr.elements.get(i);
+      Expr rewritten = rewrite(element);
+      if (rewritten != element && elements == null) {
+        elements = new ArrayList<>(expr.elements.subList(0, i));
+      }
+      if (elements != null) elements.add(rewritten);
+    }
+    if (elements == null) return expr;
+    return new Expr.Array(expr.bracket, elements);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = rewrite(expr.callee);
+    List<Expr> arguments = null;
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      Expr argument = expr.arguments.get(i);
+      Expr rewritten = rewrite(argument);
+      if (rewritten != argument && arguments == null) {
+        arguments = new ArrayList<>(expr.arguments.subList(0, i));
+      }
+      if (arguments != null) arguments.add(rewritten);
+    }
+    if (callee == expr.callee && arguments == null) return expr;
+    return new Expr.Call(callee, expr.paren, arguments != null ? arguments : expr.arguments);
+  }
+
+  @Override
+  public Expr visitIndexExpr(Expr.Index expr) {
+    Expr object = rewrite(expr.object);
+    Expr index = rewrite(expr.index);
+    if (object == expr.object && index == expr.index) return expr;
+    return new Expr.Index(object, expr.bracket, index);
+  }
+
+  @Override
+  public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+    Expr object = rewrite(expr.object);
+    Expr index = rewrite(expr.index);
+    Expr value = rewrite(expr.value);
+    if (object == expr.object && index == expr.index && value == expr.value) {
+      return expr;
+    }
+    return new Expr.SetIndex(object, expr.bracket, index, value);
+  }
+
+  @Override
+  public Expr visitReceiveExpr(Expr.Receive expr) {
+    Expr channel = rewrite(expr.channel);
+    if (channel == expr.channel) return expr;
+    return new Expr.Receive(expr.keyword, channel);
+  }
+
+  // instrumenting twice wraps the wrappers, inside out
+  @Override
+  public Expr visitTracedExpr(Expr.Traced expr) {
+    Expr inner = rewrite(expr.inner);
+    if (inner == expr.inner) return expr;
+    return new Expr.Traced(inner, expr.listener, expr.line);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = rewrite(expr.right);
+    if (right == expr.right) return expr;
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  @Override
+  public Stmt visitBreakStmt(Stmt.Break stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitContinueStmt(Stmt.Continue stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = rewrite(stmt.statements);
+    if (statements == stmt.statements) return stmt;
+    return new Stmt.Block(statements);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = rewrite(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitForStmt(Stmt.For stmt) {
+    Stmt initializer = rewrite(stmt.initializer);
+    Expr condition = rewrite(stmt.condition);
+    Expr increment = rewrite(stmt.increment);
+    Stmt body = rewrite(stmt.body);
+    if (initializer == stmt.initializer && condition == stmt.condition &&
+        increment == stmt.increment && body == stmt.body) {
+      return stmt;
+    }
+    return new Stmt.For(initializer, condition, increment, body);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = rewrite(stmt.condition);
+    Stmt thenBranch = rewrite(stmt.thenBranch);
+    Stmt elseBranch = rewrite(stmt.elseBranch);
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+        elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = rewrite(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitSendStmt(Stmt.Send stmt) {
+    Expr channel = rewrite(stmt.channel);
+    Expr value = rewrite(stmt.value);
+    if (channel == stmt.channel && value == stmt.value) return stmt;
+    return new Stmt.Send(stmt.keyword, channel, value);
+  }
+
+  @Override
+  public Stmt visitSpawnStmt(Stmt.Spawn stmt) {
+    Stmt body = rewrite(stmt.body);
+    if (body == stmt.body) return stmt;
+    return new Stmt.Spawn(stmt.keyword, body);
+  }
+
+  @Override
+  public Stmt visitTracedStmt(Stmt.Traced stmt) {
+    Stmt inner = rewrite(stmt.inner);
+    if (inner == stmt.inner) return stmt;
+    return new Stmt.Traced(inner, stmt.listener);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = rewrite(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = rewrite(stmt.condition);
+    Stmt body = rewrite(stmt.body);
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return new Stmt.While(condition, body);
+  }
+}
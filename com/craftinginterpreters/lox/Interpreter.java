@@ -1,11 +1,143 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.List;
 
 public class Interpreter implements Expr.Visitor<Object> ,
                                     Stmt.Visitor<Void> {
 
-  private Environment environment = new Environment();
+  private Environment environment;
+  private final Environment globals;
+
+  // where print goes, a worker with ordered output gets a buffer of its own
+  private final PrintStream out;
+
+  // spawned workers (see Workers.java), made on the first spawn and shared
+  // with every worker after that; output = this worker's ordered buffer
+  private Workers workers;
+  private final Workers.Output output;
+  private boolean orderedPrint = false;
+
+  public Interpreter() {
+    this(System.out, Natives.globals(), null, null);
+  }
+
+  Interpreter(PrintStream out, Environment globals,
+              Workers workers, Workers.Output output) {
+    this.out = out;
+    this.environment = globals;
+    this.globals = globals;
+    this.workers = workers;
+    this.output = output;
+  }
+
+  // what a prelude leaves behind, see Snapshot.java
+  Environment globals() {
+    return globals;
+  }
+
+  // the innermost scope right now, for instrumentation listeners
+  Environment environment() {
+    return environment;
+  }
+
+  // buffer worker output and print it in spawn order once they're all done
+  void setOrderedPrint(boolean ordered) {
+    this.orderedPrint = ordered;
+  }
+
+  // per-run resource limits, see Budget.java
+  private Budget budget = Budget.unlimited();
+
+  void setBudget(Budget budget) {
+    this.budget = budget;
+  }
+
+  Budget budget() {
+    return budget;
+  }
+
+  // counters for --stats, cheap enough to always keep
+  private long environmentsCreated = 0;
+  private long variableLookups = 0;
+
+  long environmentsCreated() {
+    return environmentsCreated;
+  }
+
+  // a compiled loop's block (LoopCompiler) stands in for an Environment, so
+  // --stats counts the same whichever tier ran it
+  void countEnvironment() {
+    environmentsCreated++;
+  }
+
+  long variableLookups() {
+    return variableLookups;
+  }
+
+  // where to publish the executing statement for the sampling profiler, null = off
+  private Profiler.Slot profilerSlot = null;
+
+  void setProfilerSlot(Profiler.Slot slot) {
+    this.profilerSlot = slot;
+  }
+
+  Profiler.Slot profilerSlot() {
+    return profilerSlot;
+  }
+
+  // counters for --coverage (see Coverage.java), null = not counting
+  private Coverage.Hits coverage = null;
+
+  void setCoverage(Coverage.Hits hits) {
+    this.coverage = hits;
+  }
+
+  Coverage.Hits coverage() {
+    return coverage;
+  }
+
+  // how many evaluate()/execute() calls deep we are on the Java stack; past
+  // MAX_DEPTH the rest of the subtree runs on StackMachine's heap stack instead
+  static final int MAX_DEPTH = 400;
+  private int depth = 0;
+  private final StackMachine machine = new StackMachine(this);
+
+  // second tier for hot loops (see LoopCompiler.java), null = always tree-walk
+  private LoopCompiler loopCompiler = new LoopCompiler(this);
+
+  void setTiering(boolean enabled) {
+    loopCompiler = enabled ? new LoopCompiler(this) : null;
+  }
+
+  LoopCompiler loopCompiler() {
+    return loopCompiler;
+  }
+
+  /* break and continue: the statement sets completion and returns like any
+   * other. every statement list stops as soon as it's set, and the loop the
+   * jump belongs to picks it up and puts it back to NORMAL. no exceptions, so
+   * nothing to unwind but our own frames and no stack traces to fill in
+   */
+  static final int NORMAL = 0;
+  static final int BREAK = 1;
+  static final int CONTINUE = 2;
+  private int completion = NORMAL;
+
+  // StackMachine hands over a jump whose loop is further out, in the tree-walker
+  void complete(int completion) {
+    this.completion = completion;
+  }
+
+  // after a loop body: true if it broke out. either way the jump is used up
+  private boolean brokeOut() {
+    int status = completion;
+    completion = NORMAL;
+    return status == BREAK;
+  }
+
+  // number -> text for print and concatenation, keeps a reusable buffer
+  private final NumberFormatter numbers = new NumberFormatter();
 
   /* Create function to visit Literal and get the value directly */
   @Override
@@ -21,10 +153,14 @@ public class Interpreter implements Expr.Visitor<Object> ,
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
+    return unary(expr.operator, right);
+  }
 
-    switch (expr.operator.type) {
+  // the operator itself, shared with StackMachine
+  Object unary(Token operator, Object right) {
+    switch (operator.type) {
       case MINUS:
-        checkNumberOperand(expr.operator, right); // checker to see if we can actually do our operation
+        checkNumberOperand(operator, right); // checker to see if we can actually do our operation
         return -(double)right;
       case BANG:
         return !isTruthy(right);
@@ -37,7 +173,12 @@ public class Interpreter implements Expr.Visitor<Object> ,
   // evaluate a variable expressiopn
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return environment.get(expr.name);
+    return lookUp(expr.name);
+  }
+
+  Object lookUp(Token name) {
+    variableLookups++;
+    return environment.get(name);
   }
 
   // error checker for if operator is put in a mistaken manner
@@ -74,12 +215,42 @@ public class Interpreter implements Expr.Visitor<Object> ,
   }
 
   /* Reuse Visitor pattern for simplified evaluation of diff. kinds of expressions */
+  // the depth bookkeeping isn't undone when a RuntimeError unwinds through
+  // here, interpret() resets it instead so the normal path stays try-free
   private Object evaluate(Expr expr) {
-    return expr.accept(this);
+    if (depth >= MAX_DEPTH) return machine.evaluate(expr);
+
+    depth++;
+    Object value = expr.accept(this);
+    depth--;
+    return value;
   }
   
+  // a lone expression outside of interpret(), see ColumnEvaluator.evaluateByRow
+  Object evaluateExpression(Expr expr) {
+    depth = 0;
+    return evaluate(expr);
+  }
+
   private void execute(Stmt stmt) {
-    stmt.accept(this);
+    if (depth >= MAX_DEPTH) {
+      machine.execute(stmt);
+      return;
+    }
+
+    depth++;
+    if (coverage != null) coverage.hit(stmt.coverage);
+    if (profilerSlot == null) {
+      stmt.accept(this);
+    } else {
+      profilerSlot.push(stmt);
+      try {
+        stmt.accept(this);
+      } finally {
+        profilerSlot.pop();
+      }
+    }
+    depth--;
   }
 
   // actually execute a block 
@@ -91,6 +262,7 @@ public class Interpreter implements Expr.Visitor<Object> ,
 
       for (Stmt statement : statements) {
         execute(statement);
+        if (completion != NORMAL) break;
       }
     } finally {
       this.environment = previous;
@@ -100,10 +272,39 @@ public class Interpreter implements Expr.Visitor<Object> ,
   /* Visitor paradigm : set up for executing block statements */
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    Environment previous = enterBlock(stmt);
+    try {
+      for (Stmt statement : stmt.statements) {
+        execute(statement);
+        if (completion != NORMAL) break;
+      }
+    } finally {
+      leaveBlock(previous);
+    }
     return null;
   }
 
+  // switch to the block's scope, returns the environment to go back to
+  Environment enterBlock(Stmt.Block stmt) {
+    budget.step(stmt.line);
+    Environment previous = environment;
+
+    // not analyzed yet, a --lazy block or a tree that skipped ScopeAnalyzer
+    if (stmt.slots < 0) ScopeAnalyzer.analyzeLate(stmt);
+
+    // analysis says nothing gets declared in here, so there's nothing to scope
+    if (stmt.slots > 0) {
+      budget.allocate(Budget.ENVIRONMENT_BYTES, stmt.line);
+      environmentsCreated++;
+      environment = new Environment(environment, stmt.slots);
+    }
+    return previous;
+  }
+
+  void leaveBlock(Environment previous) {
+    environment = previous;
+  }
+
 
   /*  */
   @Override
@@ -112,17 +313,22 @@ public class Interpreter implements Expr.Visitor<Object> ,
     // evaluate left & right
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right); 
+    return binary(expr.operator, left, right);
+  }
+
+  // the operator itself, shared with StackMachine
+  Object binary(Token operator, Object left, Object right) {
 
     // handle what to do based on the type
-    switch (expr.operator.type) {
+    switch (operator.type) {
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left - (double)right;
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left / (double)right;
       case STAR:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left * (double)right;
 
       // special case for PLUS to enable functionality of both 
@@ -132,33 +338,38 @@ public class Interpreter implements Expr.Visitor<Object> ,
             return (double) left + (double) right;
         }
         else if (left instanceof String && right instanceof String) {
+            chargeConcat(operator, (String) left, (String) right);
             return (String) left + (String) right;
         }
 
         // implement challenge 2 in chapter 7
         else if (left instanceof String && right instanceof Double) {
-            return (String) left + right.toString();
+            String text = numbers.toJavaString((double) right);
+            chargeConcat(operator, (String) left, text);
+            return (String) left + text;
         }
         else if (left instanceof Double && right instanceof String) {
-            return left.toString() + (String) right;
+            String text = numbers.toJavaString((double) left);
+            chargeConcat(operator, text, (String) right);
+            return text + (String) right;
         }
 
         // if the addition items are wrong, just toss an error
-        throw new RuntimeError(expr.operator,
+        throw new RuntimeError(operator,
             "Operands must be two numbers or two strings.");
 
       // comparison cases
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left > (double)right;
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left >= (double)right;
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left < (double)right;
       case LESS_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double)left <= (double)right;
 
       // brute equality
@@ -170,6 +381,12 @@ public class Interpreter implements Expr.Visitor<Object> ,
     return null;
   }
 
+  // charge the budget for a concatenation before building the new string
+  private void chargeConcat(Token operator, String left, String right) {
+    budget.allocate(Budget.stringBytes((long) left.length() + right.length()),
+                    operator.line);
+  }
+
   /* Ruleset for what is a truthy value
    * Mimicks Ruby's implementation
    * false, nil -> falsey
@@ -178,7 +395,7 @@ public class Interpreter implements Expr.Visitor<Object> ,
    * if statements put in succession -> if one finishes, other two not checked
    * third clause ensures that 0 is falsey -> commented out to follow book
    */
-  private boolean isTruthy(Object object) {
+  boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean)object;
     // if (object instanceof Number) {
@@ -216,35 +433,59 @@ public class Interpreter implements Expr.Visitor<Object> ,
     // we need to be able to accept a list of Statements now
     try {
       for (Stmt statement : statements) {
+        FlightEvents.Statement event = new FlightEvents.Statement();
+        event.begin();
         try {
+          depth = 0;
           execute(statement);
         } catch (RuntimeError error) {
+          depth = 0;
 
           // nifty conversion of statement -> expression
           if (statement instanceof Stmt.Expression) {
             Object value = evaluate(((Stmt.Expression) statement).expression);
-            System.out.println(stringify(value));
+            out.println(stringify(value));
           } else {
             Lox.runtimeError(error);
           }
           
         }
+
+        // only fill the event in if a recording actually wants it
+        if (event.shouldCommit()) {
+          event.line = statement.line;
+          event.kind = statement.getClass().getSimpleName();
+          event.commit();
+        }
       }
     } catch (RuntimeError error) {
       Lox.runtimeError(error);
     }
+
+    // the script isn't done until its workers are
+    if (workers != null) workers.join();
+  }
+
+  // entry point of a spawned worker, an error only ends this worker
+  void runWorker(Stmt body) {
+    try {
+      execute(body);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+    out.flush();
   }
 
   // handy method to converting an Object to string representation
-  private String stringify(Object object) {
+  String stringify(Object object) {
     if (object == null) return "nil";
 
     if (object instanceof Double) {
-      String text = object.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
-      }
-      return text;
+      return numbers.display((double) object);
+    }
+
+    if (object instanceof LoxArray) {
+      return ((LoxArray) object).toString(this);
     }
 
     return object.toString();
@@ -267,10 +508,15 @@ public class Interpreter implements Expr.Visitor<Object> ,
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    print(value);
     return null;
   }
 
+  // shared with compiled loops
+  void print(Object value) {
+    out.println(stringify(value));
+  }
+
   // just like print(), var is also a statement
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
@@ -283,6 +529,7 @@ public class Interpreter implements Expr.Visitor<Object> ,
       value = evaluate(stmt.initializer);
     }
 
+    budget.allocate(Budget.VARIABLE_BYTES, stmt.line);
     environment.define(stmt.name.lexeme, value);
     return null;
   }
@@ -291,34 +538,426 @@ public class Interpreter implements Expr.Visitor<Object> ,
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    environment.assign(expr.name, value);
+    assignVariable(expr.name, value);
     return value;
   }
 
+  void assignVariable(Token name, Object value) {
+    variableLookups++;
+    environment.assign(name, value);
+  }
+
   @Override
   public Object visitLogicalExpr(Expr.Logical expr) {
     Object left = evaluate(expr.left);
 
-    if (expr.operator.type == TokenType.OR) {
-      if (isTruthy(left)) return left;
-    } else {
-      if (!isTruthy(left)) return left;
-    }
+    boolean decided = expr.operator.type == TokenType.OR ? isTruthy(left) : !isTruthy(left);
+    if (coverage != null) coverage.branch(expr.coverage, !decided);
+    if (decided) return left;
 
     return evaluate(expr.right);
   }
 
+  /* 9.2: if statements, the condition can be any value (see isTruthy) */
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    boolean truthy = isTruthy(evaluate(stmt.condition));
+    if (coverage != null) coverage.branch(stmt.coverage, truthy);
+    if (truthy) {
+      execute(stmt.thenBranch);
+    } else if (stmt.elseBranch != null) {
+      execute(stmt.elseBranch);
+    }
+    return null;
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    // a block body that declares variables gets one frame for the whole loop,
+    // cleared between iterations instead of a new Environment every time.
+    // fine as long as nothing can hold on to an old frame (no closures yet)
+    Stmt.Block body = sharedBody(stmt.body);
+    Environment frame = null;
+
+    // compiled loops don't report statements to the profiler or count them
+    // for coverage, so no tiering then
+    LoopCompiler compiler = profilerSlot == null && coverage == null ? loopCompiler : null;
+    int backEdges = 0;
+
+    // got hot on earlier runs: start in the compiled tier straight away
+    if (compiler != null) {
+      LoopCompiler.Loop loop = compiler.compiled(stmt);
+      if (loop != null && loop.run(environment, false)) return null;
+    }
+
     while (isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.body);
+      if (coverage != null) coverage.branch(stmt.coverage, true);
+      frame = runBody(stmt.body, body, frame);
+      if (body == null) body = sharedBody(stmt.body); // a --lazy body only has its slots after the first run
+
+      // break: out without the condition having said so (which coverage counts)
+      if (completion != NORMAL && brokeOut()) {
+        if (compiler != null && backEdges > 0) compiler.record(stmt, backEdges);
+        return null;
+      }
+
+      // back-edge: burn fuel so `while (true)` can't run forever
+      budget.step(stmt.line);
+
+      // hot: compile the loop and move the rest of this run over to it (OSR).
+      // if it deoptimizes we just carry on here from the condition
+      if (compiler != null && ++backEdges == LoopCompiler.THRESHOLD) {
+        LoopCompiler.Loop loop = compiler.compile(stmt);
+        if (loop != null && loop.run(environment, true)) return null;
+      }
+    }
+
+    if (coverage != null) coverage.branch(stmt.coverage, false);
+    if (compiler != null && backEdges > 0) compiler.record(stmt, backEdges);
+    return null;
+  }
+
+  private static Stmt.Block sharedBody(Stmt body) {
+    if (body instanceof Stmt.Block && ((Stmt.Block) body).slots > 0) {
+      return (Stmt.Block) body;
+    }
+    return null;
+  }
+
+  /* 9.5: for loops
+   *
+   * the book desugars `for` into a block around a while, we keep the node so
+   * the counted form (see CountedLoop) can run without the name lookups and
+   * the boxing. everything else is the general loop below, which is that
+   * desugaring: the initializer's variable lives in a scope of its own
+   * around the loop, then condition, body, increment, body, ...
+   */
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    Environment previous = enterFor(stmt);
+    try {
+      if (stmt.initializer != null) execute(stmt.initializer);
+
+      CountedLoop counted = stmt.counted;
+      if (counted == null) {
+        counted = CountedLoop.match(stmt);
+        stmt.counted = counted;
+      }
+      if (counted == CountedLoop.NONE || !countedLoop(stmt, counted)) {
+        forLoop(stmt);
+      }
+    } finally {
+      leaveBlock(previous);
     }
     return null;
   }
 
+  // the scope holding the loop variable, returns the environment to go back to
+  Environment enterFor(Stmt.For stmt) {
+    budget.step(stmt.line);
+    Environment previous = environment;
+    if (Instrumenter.unwrap(stmt.initializer) instanceof Stmt.Var) {
+      budget.allocate(Budget.ENVIRONMENT_BYTES, stmt.line);
+      environmentsCreated++;
+      environment = new Environment(environment, 1);
+    }
+    return previous;
+  }
 
+  private void forLoop(Stmt.For stmt) {
+    Stmt.Block body = sharedBody(stmt.body);
+    Environment frame = null;
 
+    while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+      if (coverage != null) coverage.branch(stmt.coverage, true);
+      frame = runBody(stmt.body, body, frame);
+      if (body == null) body = sharedBody(stmt.body);
+      if (completion != NORMAL && brokeOut()) return;
 
-}
+      budget.step(stmt.line);
+      if (stmt.increment != null) evaluate(stmt.increment);
+    }
+    if (coverage != null) coverage.branch(stmt.coverage, false);
+  }
+
+  /* the counted form: i lives in a double here and is only written to its
+   * variable when the body reads it. returns false without having run an
+   * iteration if i doesn't start out a number, and hands over to forLoop()
+   * (with i written back) if the limit stops being one, so the general loop
+   * throws exactly the error it would have anyway
+   */
+  private boolean countedLoop(Stmt.For stmt, CountedLoop loop) {
+    Object start = environment.get(loop.counter);
+    if (!(start instanceof Double)) return false;
+
+    double i = (Double) start;
+    TokenType test = loop.comparison.type;
+    Stmt.Block body = sharedBody(stmt.body);
+    Environment frame = null;
+
+    for (;;) {
+      Object limit = evaluate(loop.limit);
+      if (!(limit instanceof Double)) {
+        environment.assign(loop.counter, i);
+        forLoop(stmt);
+        return true;
+      }
+
+      double n = (Double) limit;
+      boolean more;
+      switch (test) {
+        case LESS: more = i < n; break;
+        case LESS_EQUAL: more = i <= n; break;
+        case GREATER: more = i > n; break;
+        default: more = i >= n; break;
+      }
+      if (coverage != null) coverage.branch(stmt.coverage, more);
+      if (!more) return true;
+
+      if (loop.bodyReads) environment.assign(loop.counter, i);
+      frame = runBody(stmt.body, body, frame);
+      if (body == null) body = sharedBody(stmt.body);
+      if (completion != NORMAL && brokeOut()) return true;
+
+      budget.step(stmt.line);
+      i += loop.step;
+    }
+  }
+
+  // one go round a loop body, through one frame reused for every iteration if
+  // it's a block that declares variables (same as visitWhileStmt)
+  private Environment runBody(Stmt stmt, Stmt.Block body, Environment frame) {
+    if (body == null) {
+      execute(stmt);
+      return frame;
+    }
+
+    if (frame == null) {
+      budget.allocate(Budget.ENVIRONMENT_BYTES, body.line);
+      environmentsCreated++;
+      frame = new Environment(environment, body.slots);
+    } else {
+      frame.clear();
+    }
+    budget.step(body.line);
+    if (coverage != null) coverage.hit(body.coverage); // execute() would have
+    executeBlock(body.statements, frame);
+    return frame;
+  }
+
+  // the loop around us finds these in completion, see brokeOut()
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    completion = BREAK;
+    return null;
+  }
 
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    completion = CONTINUE;
+    return null;
+  }
+
+  /* instrumentation, see Instrumenter.java. only instrumented nodes get here,
+   * so the rest of the interpreter doesn't know listeners exist
+   */
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    Stmt inner = Instrumenter.unwrap(stmt.inner);
+    stmt.listener.enter(inner, environment);
+    execute(stmt.inner);
+    stmt.listener.exit(inner, environment);
+    return null;
+  }
 
+  @Override
+  public Object visitTracedExpr(Expr.Traced expr) {
+    Object value = evaluate(expr.inner);
+    expr.listener.value(Instrumenter.unwrap(expr.inner), value, expr.line);
+    return value;
+  }
+
+  /* workers and channels, see Workers.java and Channel.java */
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    budget.step(stmt.line);
+    if (workers == null) workers = new Workers(out, orderedPrint, loopCompiler != null);
+    workers.spawn(stmt.body, environment.snapshot(budget, stmt.line), budget.forWorker(),
+                  coverage == null ? null : coverage.fork(), output);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    Object channel = evaluate(stmt.channel);
+    Object value = evaluate(stmt.value);
+    send(stmt.keyword, channel, value);
+    return null;
+  }
+
+  void send(Token keyword, Object channel, Object value) {
+    if (!(channel instanceof Channel)) {
+      throw new RuntimeError(keyword, "Can only send to a channel.");
+    }
+    if (!Channel.canSend(value)) {
+      throw new RuntimeError(keyword,
+          "Can only send numbers, strings, booleans and nil.");
+    }
+    ((Channel) channel).send(value, keyword, budget);
+  }
+
+  @Override
+  public Object visitReceiveExpr(Expr.Receive expr) {
+    return receive(expr.keyword, evaluate(expr.channel));
+  }
+
+  Object receive(Token keyword, Object channel) {
+    if (!(channel instanceof Channel)) {
+      throw new RuntimeError(keyword, "Can only receive from a channel.");
+    }
+    return ((Channel) channel).receive(keyword, budget);
+  }
+
+  @Override
+  public Object visitChannelExpr(Expr.Channel expr) {
+    return channel(expr.keyword, evaluate(expr.capacity));
+  }
+
+  Object channel(Token keyword, Object capacity) {
+    if (!(capacity instanceof Double) ||
+        (double) capacity < 1 || (double) capacity > Integer.MAX_VALUE ||
+        (double) capacity != Math.floor((double) capacity)) {
+      throw new RuntimeError(keyword,
+          "Channel capacity must be a positive whole number.");
+    }
+
+    int size = (int) (double) capacity;
+    budget.allocate(Budget.CHANNEL_BYTES, keyword.line);
+    return new Channel(size);
+  }
+
+  /* calls. the only things there are to call are natives (LoxNative.java).
+   * the callee and the arguments are evaluated first, left to right, then
+   * checked, same order as StackMachine and compiled loops
+   */
+  @Override
+  public Object visitCallExpr(Expr.Call expr) {
+    Object callee = evaluate(expr.callee);
+    Object[] arguments = new Object[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = evaluate(expr.arguments.get(i));
+    }
+    return call(expr.paren, callee, arguments);
+  }
+
+  Object call(Token paren, Object callee, Object[] arguments) {
+    if (!(callee instanceof LoxNative)) {
+      throw new RuntimeError(paren, "Can only call functions.");
+    }
+
+    Object result;
+    try {
+      result = ((LoxNative) callee).call(arguments);
+    } catch (LoxNative.Failure failure) {
+      throw new RuntimeError(paren, failure.getMessage());
+    }
+
+    // a native's string is charged by its own length once it exists. that can
+    // be more than went in (upper("ß") is "SS"), but case mapping at most
+    // triples a string, so nothing big gets built before the check
+    if (result instanceof String) {
+      budget.allocate(Budget.stringBytes(((String) result).length()), paren.line);
+    }
+    return result;
+  }
+
+  /* arrays, see LoxArray.java. the checks and the budget live here, shared
+   * with StackMachine and compiled loops
+   */
+
+  @Override
+  public Object visitArrayExpr(Expr.Array expr) {
+    LoxArray array = newArray(expr.bracket, expr.elements.size());
+    for (Expr element : expr.elements) {
+      append(expr.bracket, array, evaluate(element));
+    }
+    return array;
+  }
+
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    return index(expr.bracket, object, index);
+  }
+
+  @Override
+  public Object visitSetIndexExpr(Expr.SetIndex expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    Object value = evaluate(expr.value);
+    return setIndex(expr.bracket, object, index, value);
+  }
+
+  // an empty array with room for size elements
+  LoxArray newArray(Token bracket, int size) {
+    int capacity = LoxArray.capacityFor(size);
+    budget.allocate(Budget.arrayBytes(capacity), bracket.line);
+    return new LoxArray(capacity);
+  }
+
+  Object index(Token bracket, Object object, Object index) {
+    LoxArray array = checkArray(bracket, object);
+    return array.get(checkIndex(bracket, index, array.size()));
+  }
+
+  // one past the end appends, the assigned value is the result like for variables
+  Object setIndex(Token bracket, Object object, Object index, Object value) {
+    LoxArray array = checkArray(bracket, object);
+    int at = checkIndex(bracket, index, array.size() + 1);
+    if (at == array.size()) {
+      append(bracket, array, value);
+    } else {
+      generalizing(bracket, array, value);
+      array.set(at, value);
+    }
+    return value;
+  }
+
+  void append(Token bracket, LoxArray array, Object value) {
+    generalizing(bracket, array, value);
+    if (array.isFull()) {
+      budget.allocate(Budget.arrayBytes(array.grownCapacity()), bracket.line);
+      array.grow();
+    }
+    array.add(value);
+  }
+
+  // the first non-number turns the double[] into an Object[], charge for that
+  private void generalizing(Token bracket, LoxArray array, Object value) {
+    if (array.isNumeric() && !(value instanceof Double)) {
+      budget.allocate(Budget.arrayBytes(array.capacity()), bracket.line);
+    }
+  }
+
+  private LoxArray checkArray(Token bracket, Object object) {
+    if (object instanceof LoxArray) return (LoxArray) object;
+    throw new RuntimeError(bracket, "Can only index arrays.");
+  }
+
+  // the index as an int, it has to be below bound
+  private int checkIndex(Token bracket, Object index, int bound) {
+    if (!(index instanceof Double) ||
+        (double) index != Math.floor((double) index)) {
+      throw new RuntimeError(bracket, "Array index must be a whole number.");
+    }
+
+    double value = (double) index;
+    if (value < 0 || value >= bound) {
+      throw new RuntimeError(bracket, "Array index " + numbers.display(value) +
+          " is out of bounds.");
+    }
+    return (int) value;
+  }
+}
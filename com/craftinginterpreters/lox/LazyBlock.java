@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/* The statements of a block that hasn't been parsed yet (`jlox --lazy`)
+ *
+ * with --lazy the parser only skims a block's body: it checks the syntax the
+ * same way block() would, so errors still come out before anything runs, but
+ * builds no nodes. the Stmt.Block gets one of these as its statement list,
+ * holding where the body starts in the source. the first time anything looks
+ * at the statements (normally the interpreter entering the block) the body is
+ * scanned and parsed for real, and from then on this is just that list.
+ *
+ * a branch or loop body that never runs never costs more than the skim. the
+ * price is that a block that does run is read twice. blocks inside it aren't
+ * read again though: the skim made a LazyBlock for every one of them, with
+ * where its '}' ends, and parsing the body steps straight over them (see
+ * Parser.skimmedBlock). so however deep the nesting, every block is skimmed
+ * once and parsed at most once.
+ *
+ * anything that walks the whole tree (--dump-ast, AstWriter) parses every block
+ * on the way; the passes that run before the interpreter (ScopeAnalyzer,
+ * NodeCounter) check parsed() and leave the rest for later.
+ */
+final class LazyBlock extends AbstractList<Stmt> implements RandomAccess {
+  private final String source;
+  private final int offset; // just past the '{'
+  private final int line;
+  private final boolean inLoop; // break/continue are allowed in here
+  final int end;                // just past the '}'
+  final int endLine;
+  // every block the first skim went through, by '{' offset (this one included)
+  private final Map<Integer, LazyBlock> skimmed;
+
+  // null until the first look, spawned bodies can get here from two threads
+  private volatile List<Stmt> statements = null;
+
+  LazyBlock(String source, int offset, int line, boolean inLoop,
+            int end, int endLine, Map<Integer, LazyBlock> skimmed) {
+    this.source = source;
+    this.offset = offset;
+    this.line = line;
+    this.inLoop = inLoop;
+    this.end = end;
+    this.endLine = endLine;
+    this.skimmed = skimmed;
+  }
+
+  // true if this list is a block body nobody has looked at yet
+  static boolean pending(List<Stmt> statements) {
+    return statements instanceof LazyBlock &&
+        ((LazyBlock) statements).statements == null;
+  }
+
+  boolean parsed() {
+    return statements != null;
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+
+  private List<Stmt> statements() {
+    List<Stmt> result = statements;
+    if (result == null) {
+      synchronized (this) {
+        result = statements;
+        if (result == null) {
+          result = parse();
+          statements = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private List<Stmt> parse() {
+    Lox.Report report = Lox.report();
+    int errorsBefore = report.errorCount;
+
+    Scanner scanner = new Scanner(source, offset, line);
+    TokenSource tokens = new TokenSource(scanner::nextToken);
+    List<Stmt> result = new Parser(tokens, scanner, skimmed).blockBody(inLoop);
+
+    // the skim already accepted this, so the real parse can't fail
+    if (report.errorCount != errorsBefore) {
+      throw new IllegalStateException("Block at line " + line + " skimmed but didn't parse.");
+    }
+    return result;
+  }
+}
@@ -0,0 +1,981 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Second execution tier for hot while loops
+ *
+ * the tree-walker is fine for the cold glue most scripts are, but in it every
+ * variable access is a by-name search up the Environment chain and every node
+ * is a megamorphic accept(). so once a loop has gone around THRESHOLD times the
+ * Interpreter hands it over to this class:
+ *
+ *  - compile: the loop becomes a tree of small closures, once. variables are
+ *    resolved to slots of a flat Object[] frame, and every operator gets its
+ *    own closure with a number fast path (no switch on the token type)
+ *  - OSR: mid-loop, the live values of the outside variables the loop uses are
+ *    copied from the Environment into the frame and the compiled loop carries
+ *    on from the next condition check. the ones it assigns are written back
+ *    whichever way it leaves (done, runtime error, deopt)
+ *  - array stores: `a[i] = <arithmetic>` into a numeric array computes and
+ *    stores a double, no boxing, falling back to the general path otherwise
+ *  - native calls: sqrt(x), pow(x, y) and the like on numbers pass doubles
+ *    straight to the native's MethodHandle (see LoxNative)
+ *  - deopt: a condition like `i < n` or `n != 0` is compiled assuming both
+ *    sides are numbers. it can't have side effects, so when the assumption
+ *    stops holding the loop writes its state back and returns to the
+ *    tree-walker, which redoes the check the slow way and keeps going
+ *
+ * loops that ran hot but exited before the threshold (inner loops) still add
+ * up, and start compiled the next time they're entered.
+ * everything with semantics (budgets, errors, concatenation, print) goes
+ * through the same Interpreter code, so output is identical in both tiers.
+ */
+class LoopCompiler {
+  static final int THRESHOLD = 1000;
+
+  // compiled code recurses on the Java stack, very deep trees stay interpreted
+  private static final int MAX_DEPTH = 100;
+
+  // frame value of an outside variable that didn't exist when the loop started
+  private static final Object UNDEFINED = new Object();
+
+  interface Value {
+    Object get(Object[] frame);
+  }
+
+  interface Action {
+    void run(Object[] frame);
+  }
+
+  // an expression that only ever makes a number, see Compilation.number()
+  interface NumberValue {
+    double get(Object[] frame);
+  }
+
+  private final Interpreter interpreter;
+  private final Map<Stmt.While, Loop> loops = new IdentityHashMap<>();
+
+  // back-edges seen so far per loop, -1 once it can't (or shouldn't) be compiled
+  private final Map<Stmt.While, Integer> heat = new IdentityHashMap<>();
+
+  private long compiledCount = 0;
+  private long deoptCount = 0;
+
+  // break/continue in compiled code, same protocol as Interpreter.completion
+  private int completion = Interpreter.NORMAL;
+
+  LoopCompiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  long compiledCount() {
+    return compiledCount;
+  }
+
+  long deoptCount() {
+    return deoptCount;
+  }
+
+  // the compiled form, if the loop got hot on an earlier run
+  Loop compiled(Stmt.While stmt) {
+    return loops.get(stmt);
+  }
+
+  // an interpreted run of the loop finished after this many back-edges
+  void record(Stmt.While stmt, int backEdges) {
+    int total = heat.getOrDefault(stmt, 0);
+    if (total < 0 || loops.containsKey(stmt)) return;
+
+    total += backEdges;
+    heat.put(stmt, total);
+    if (total >= THRESHOLD) compile(stmt);
+  }
+
+  // null if the loop can't be compiled, it won't be tried again
+  Loop compile(Stmt.While stmt) {
+    Loop loop = loops.get(stmt);
+    if (loop != null || heat.getOrDefault(stmt, 0) < 0) return loop;
+
+    try {
+      loop = new Compilation().loop(stmt);
+    } catch (Bailout bailout) {
+      heat.put(stmt, -1);
+      return null;
+    }
+
+    loops.put(stmt, loop);
+    compiledCount++;
+    return loop;
+  }
+
+  private void deoptimize(Stmt.While stmt) {
+    loops.remove(stmt);
+    heat.put(stmt, -1);
+    deoptCount++;
+  }
+
+  /* a compiled top-level loop, bound to variable names rather than to any one
+   * Environment so later runs can reuse it
+   */
+  final class Loop {
+    private final Stmt.While stmt;
+
+    // outside variables: frame slot, name (for errors and write-back), assigned?
+    private final int[] capturedSlots;
+    private final Token[] capturedNames;
+    private final boolean[] capturedWritten;
+    private final int frameSize;
+
+    // speculated `left op right` on numbers, or null and the generic condition
+    private final Value left;
+    private final Value right;
+    private final TokenType test;
+    private final Value condition;
+
+    private final Action body;
+    private final Stmt.Block sharedBlock;
+
+    private Loop(Stmt.While stmt, Compilation compilation,
+                 Value left, Value right, TokenType test, Value condition,
+                 Action body, Stmt.Block sharedBlock) {
+      this.stmt = stmt;
+      int count = compilation.capturedNames.size();
+      this.capturedSlots = new int[count];
+      this.capturedNames = compilation.capturedNames.toArray(new Token[count]);
+      this.capturedWritten = new boolean[count];
+      for (int i = 0; i < count; i++) {
+        capturedSlots[i] = compilation.captured.get(capturedNames[i].lexeme);
+        capturedWritten[i] = compilation.written.contains(capturedNames[i].lexeme);
+      }
+      this.frameSize = compilation.frameSize;
+      this.left = left;
+      this.right = right;
+      this.test = test;
+      this.condition = condition;
+      this.body = body;
+      this.sharedBlock = sharedBlock;
+    }
+
+    /* run the loop against `environment` (the one the while statement runs in)
+     * until it's done, true, or until the speculation fails, false. then the
+     * caller picks the loop up again from its condition check.
+     * `entered` = the tree-walker already ran (and paid for) an iteration
+     */
+    boolean run(Environment environment, boolean entered) {
+      Object[] frame = new Object[frameSize];
+      for (int i = 0; i < capturedSlots.length; i++) {
+        String name = capturedNames[i].lexeme;
+        frame[capturedSlots[i]] = environment.isDefined(name)
+            ? environment.get(capturedNames[i]) : UNDEFINED;
+      }
+
+      boolean charged = entered;
+      try {
+        for (;;) {
+          if (left != null) {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (!(a instanceof Double) || !(b instanceof Double)) {
+              deoptimize(stmt);
+              return false;
+            }
+            if (!compare(test, (double) a, (double) b)) return true;
+          } else if (!interpreter.isTruthy(condition.get(frame))) {
+            return true;
+          }
+
+          charged = runBody(sharedBlock, body, frame, charged);
+          if (completion != Interpreter.NORMAL && brokeOut()) return true;
+          interpreter.budget().step(stmt.line);
+        }
+      } finally {
+        for (int i = 0; i < capturedSlots.length; i++) {
+          Object value = frame[capturedSlots[i]];
+          if (capturedWritten[i] && value != UNDEFINED) {
+            environment.assign(capturedNames[i], value);
+          }
+        }
+      }
+    }
+  }
+
+  /* a block body that declares variables gets its frame allocated once per
+   * loop in the tree-walker (see Interpreter.visitWhileStmt), so the budget and
+   * --stats are charged the same way here. returns whether it's been charged now
+   */
+  private boolean runBody(Stmt.Block sharedBlock, Action body,
+                          Object[] frame, boolean charged) {
+    if (sharedBlock != null) {
+      Budget budget = interpreter.budget();
+      if (!charged) {
+        budget.allocate(Budget.ENVIRONMENT_BYTES, sharedBlock.line);
+        interpreter.countEnvironment();
+        charged = true;
+      }
+      budget.step(sharedBlock.line);
+    }
+    body.run(frame);
+    return charged;
+  }
+
+  // after a loop body: true if it broke out. either way the jump is used up
+  private boolean brokeOut() {
+    int status = completion;
+    completion = Interpreter.NORMAL;
+    return status == Interpreter.BREAK;
+  }
+
+  private static boolean compare(TokenType test, double a, double b) {
+    switch (test) {
+      case LESS: return a < b;
+      case LESS_EQUAL: return a <= b;
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      // same as Double.equals(), which is what the interpreter's isEqual ends up in
+      case EQUAL_EQUAL:
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+      case BANG_EQUAL:
+        return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+    }
+
+    // Unreachable.
+    throw new IllegalStateException(test.name());
+  }
+
+  // thrown to give up on compiling a loop, never escapes compile()
+  private static final class Bailout extends RuntimeException {
+    Bailout() {
+      super(null, null, false, false);
+    }
+  }
+
+  // a NumberValue met something that isn't a number, never escapes a Store
+  private static final class NotANumber extends RuntimeException {
+    NotANumber() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final NotANumber NOT_A_NUMBER = new NotANumber();
+
+  /* a[i] = value where i and value compiled to NumberValues: into a numeric
+   * array that's a double computed and stored with no Double made on the way.
+   * anything else (another kind of array, an append, a value that turned out
+   * not to be a number) goes through the general closures, and after the first
+   * NotANumber this site stops trying, like a deopt but just for the one store
+   */
+  private final class Store implements Value {
+    private final Value object;
+    private final Value index;
+    private final Value value;
+    private final NumberValue numberIndex;
+    private final NumberValue numberValue;
+    private final Token bracket;
+    private boolean numeric = true;
+
+    Store(Value object, Value index, Value value,
+          NumberValue numberIndex, NumberValue numberValue, Token bracket) {
+      this.object = object;
+      this.index = index;
+      this.value = value;
+      this.numberIndex = numberIndex;
+      this.numberValue = numberValue;
+      this.bracket = bracket;
+    }
+
+    @Override
+    public Object get(Object[] frame) {
+      Object a = object.get(frame);
+      if (numeric && a instanceof LoxArray && ((LoxArray) a).isNumeric()) {
+        double i;
+        double v;
+        try {
+          i = numberIndex.get(frame);
+          v = numberValue.get(frame);
+        } catch (NotANumber notANumber) {
+          // nothing in either has side effects, so running them again is safe
+          numeric = false;
+          return interpreter.setIndex(bracket, a, index.get(frame), value.get(frame));
+        }
+        store(a, i, v);
+        return v;
+      }
+      return interpreter.setIndex(bracket, a, index.get(frame), value.get(frame));
+    }
+
+    // the statement form, the assigned value isn't needed so it isn't boxed
+    void run(Object[] frame) {
+      Object a = object.get(frame);
+      if (numeric && a instanceof LoxArray && ((LoxArray) a).isNumeric()) {
+        try {
+          store(a, numberIndex.get(frame), numberValue.get(frame));
+          return;
+        } catch (NotANumber notANumber) {
+          numeric = false;
+        }
+      }
+      interpreter.setIndex(bracket, a, index.get(frame), value.get(frame));
+    }
+
+    private void store(Object a, double i, double v) {
+      LoxArray array = (LoxArray) a;
+      int at = (int) i;
+      if (at == i && at >= 0 && at < array.size()) {
+        array.setNumber(at, v);
+      } else {
+        interpreter.setIndex(bracket, a, i, v);
+      }
+    }
+  }
+
+  /* one compilation: resolves names to frame slots as it goes, the same
+   * lexical way the Environments would find them at run time (no closures in
+   * Lox yet, so a name always means the same variable at a given spot)
+   */
+  private final class Compilation implements Expr.Visitor<Value>, Stmt.Visitor<Action> {
+    // block scopes inside the loop, innermost last
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+
+    // variables from outside the loop, by name, plus the token we first saw
+    private final Map<String, Integer> captured = new HashMap<>();
+    private final List<Token> capturedNames = new ArrayList<>();
+    private final List<String> written = new ArrayList<>();
+
+    private int frameSize = 0;
+    private int depth = 0;
+
+    // break/continue compiled so far for the innermost loop being compiled
+    private int jumps = 0;
+
+    Loop loop(Stmt.While stmt) {
+      Value left = null;
+      Value right = null;
+      TokenType test = null;
+      Value condition = null;
+
+      Expr.Binary binary = speculable(stmt.condition);
+      if (binary != null) {
+        left = compile(binary.left);
+        right = compile(binary.right);
+        test = binary.operator.type;
+      } else {
+        condition = compile(stmt.condition);
+      }
+
+      Stmt.Block sharedBlock = sharedBlock(stmt);
+      Action body = sharedBlock != null ? statements(sharedBlock) : compile(stmt.body);
+      return new Loop(stmt, this, left, right, test, condition, body, sharedBlock);
+    }
+
+    // `a < b`, `a != b`, ... with only variables and numbers on either side
+    private Expr.Binary speculable(Expr condition) {
+      condition = ungroup(condition);
+      if (!(condition instanceof Expr.Binary)) return null;
+
+      Expr.Binary binary = (Expr.Binary) condition;
+      switch (binary.operator.type) {
+        case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL:
+        case EQUAL_EQUAL: case BANG_EQUAL:
+          break;
+        default:
+          return null;
+      }
+      if (!isOperand(binary.left) || !isOperand(binary.right)) return null;
+      return binary;
+    }
+
+    private boolean isOperand(Expr expr) {
+      expr = ungroup(expr);
+      return expr instanceof Expr.Variable ||
+          (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double);
+    }
+
+    private Expr ungroup(Expr expr) {
+      while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping) expr).expression;
+      return expr;
+    }
+
+    // the block whose frame the tree-walker reuses across iterations, if any
+    private Stmt.Block sharedBlock(Stmt.While stmt) {
+      if (!(stmt.body instanceof Stmt.Block)) return null;
+      Stmt.Block block = (Stmt.Block) stmt.body;
+
+      // an inner loop whose --lazy body hasn't run yet, the tree-walker would
+      // analyze it on the first iteration and share it from then on
+      if (block.slots < 0) ScopeAnalyzer.analyzeLate(block);
+      return block.slots > 0 ? block : null;
+    }
+
+    private Value compile(Expr expr) {
+      if (++depth > MAX_DEPTH) throw new Bailout();
+      Value value = expr.accept(this);
+      depth--;
+      return value;
+    }
+
+    private Action compile(Stmt stmt) {
+      if (++depth > MAX_DEPTH) throw new Bailout();
+      Action action = stmt.accept(this);
+      depth--;
+      return action;
+    }
+
+    // a block's statements in a scope of their own, without the block entry cost
+    private Action statements(Stmt.Block block) {
+      int before = jumps;
+      scopes.add(new HashMap<>());
+      Action[] actions = new Action[block.statements.size()];
+      for (int i = 0; i < actions.length; i++) {
+        actions[i] = compile(block.statements.get(i));
+      }
+      scopes.remove(scopes.size() - 1);
+
+      if (jumps == before) {
+        return frame -> {
+          for (Action action : actions) action.run(frame);
+        };
+      }
+
+      // a break or continue somewhere in here, stop at it like executeBlock does
+      return frame -> {
+        for (Action action : actions) {
+          action.run(frame);
+          if (completion != Interpreter.NORMAL) return;
+        }
+      };
+    }
+
+    // frame slot a name refers to here, or -1 - slot for an outside variable
+    private int resolve(Token name) {
+      for (int i = scopes.size() - 1; i >= 0; i--) {
+        Integer slot = scopes.get(i).get(name.lexeme);
+        if (slot != null) return slot;
+      }
+
+      Integer slot = captured.get(name.lexeme);
+      if (slot == null) {
+        slot = frameSize++;
+        captured.put(name.lexeme, slot);
+        capturedNames.add(name);
+      }
+      return -1 - slot;
+    }
+
+    /* numbers, variables, array elements, + - * / and math natives on them,
+     * compiled to work on doubles: no Double in between. such an expression
+     * reads and computes but changes nothing, so when a value turns out not to
+     * be a number, or an element isn't there, it throws NOT_A_NUMBER and the
+     * caller redoes it with the general closures, which then give the same
+     * result or error. null if expr isn't made of those only
+     */
+    private NumberValue number(Expr expr) {
+      expr = ungroup(expr);
+
+      if (expr instanceof Expr.Literal) {
+        Object value = ((Expr.Literal) expr).value;
+        if (!(value instanceof Double)) return null;
+        double number = (double) value;
+        return frame -> number;
+      }
+
+      if (expr instanceof Expr.Variable) {
+        Value variable = compile(expr);
+        return frame -> {
+          Object value = variable.get(frame);
+          if (!(value instanceof Double)) throw NOT_A_NUMBER;
+          return (double) value;
+        };
+      }
+
+      if (expr instanceof Expr.Unary) {
+        Expr.Unary unary = (Expr.Unary) expr;
+        if (unary.operator.type != TokenType.MINUS) return null;
+        NumberValue right = number(unary.right);
+        if (right == null) return null;
+        return frame -> -right.get(frame);
+      }
+
+      if (expr instanceof Expr.Binary) {
+        Expr.Binary binary = (Expr.Binary) expr;
+        TokenType operator = binary.operator.type;
+        switch (operator) {
+          case PLUS: case MINUS: case STAR: case SLASH: break;
+          default: return null;
+        }
+        NumberValue left = number(binary.left);
+        NumberValue right = left == null ? null : number(binary.right);
+        if (right == null) return null;
+        switch (operator) {
+          case PLUS: return frame -> left.get(frame) + right.get(frame);
+          case MINUS: return frame -> left.get(frame) - right.get(frame);
+          case STAR: return frame -> left.get(frame) * right.get(frame);
+          default: return frame -> left.get(frame) / right.get(frame);
+        }
+      }
+
+      // only straight out of a variable, anything else might have side effects
+      if (expr instanceof Expr.Index) {
+        Expr.Index element = (Expr.Index) expr;
+        if (!(ungroup(element.object) instanceof Expr.Variable)) return null;
+        Value object = compile(element.object);
+        NumberValue index = number(element.index);
+        if (index == null) return null;
+        return frame -> {
+          Object a = object.get(frame);
+          if (!(a instanceof LoxArray)) throw NOT_A_NUMBER;
+          LoxArray array = (LoxArray) a;
+          double i = index.get(frame);
+          int at = (int) i;
+          if (at != i || at < 0 || at >= array.size()) throw NOT_A_NUMBER;
+          if (array.isNumeric()) return array.getNumber(at);
+          Object value = array.get(at);
+          if (!(value instanceof Double)) throw NOT_A_NUMBER;
+          return (double) value;
+        };
+      }
+
+      // natives have no side effects, so these can be redone like the rest
+      if (expr instanceof Expr.Call) {
+        Expr.Call call = (Expr.Call) expr;
+        if (!(ungroup(call.callee) instanceof Expr.Variable)) return null;
+        Value callee = compile(call.callee);
+        switch (call.arguments.size()) {
+          case 0:
+            return frame -> numeric(callee.get(frame), LoxNative.NOTHING).invoke();
+          case 1: {
+            NumberValue a = number(call.arguments.get(0));
+            if (a == null) return null;
+            return frame -> numeric(callee.get(frame), LoxNative.NUMBER).invoke(a.get(frame));
+          }
+          case 2: {
+            NumberValue a = number(call.arguments.get(0));
+            NumberValue b = a == null ? null : number(call.arguments.get(1));
+            if (b == null) return null;
+            return frame -> {
+              LoxNative function = numeric(callee.get(frame), LoxNative.NUMBERS);
+              return function.invoke(a.get(frame), b.get(frame));
+            };
+          }
+        }
+      }
+
+      return null;
+    }
+
+    private LoxNative numeric(Object callee, int shape) {
+      if (callee instanceof LoxNative && ((LoxNative) callee).shape == shape) {
+        return (LoxNative) callee;
+      }
+      throw NOT_A_NUMBER;
+    }
+
+    /* expressions */
+
+    @Override
+    public Value visitLiteralExpr(Expr.Literal expr) {
+      Object value = expr.value;
+      return frame -> value;
+    }
+
+    @Override
+    public Value visitGroupingExpr(Expr.Grouping expr) {
+      return compile(expr.expression);
+    }
+
+    @Override
+    public Value visitVariableExpr(Expr.Variable expr) {
+      int slot = resolve(expr.name);
+      if (slot >= 0) return frame -> frame[slot];
+
+      // an outside variable might not have existed when the loop started
+      int outer = -1 - slot;
+      Token name = expr.name;
+      return frame -> {
+        Object value = frame[outer];
+        if (value == UNDEFINED) throw undefined(name);
+        return value;
+      };
+    }
+
+    @Override
+    public Value visitAssignExpr(Expr.Assign expr) {
+      Value value = compile(expr.value);
+      int slot = resolve(expr.name);
+      if (slot >= 0) {
+        return frame -> frame[slot] = value.get(frame);
+      }
+
+      int outer = -1 - slot;
+      Token name = expr.name;
+      if (!written.contains(name.lexeme)) written.add(name.lexeme);
+      return frame -> {
+        Object result = value.get(frame);
+        if (frame[outer] == UNDEFINED) throw undefined(name);
+        frame[outer] = result;
+        return result;
+      };
+    }
+
+    @Override
+    public Value visitUnaryExpr(Expr.Unary expr) {
+      Value right = compile(expr.right);
+      Token operator = expr.operator;
+
+      if (operator.type == TokenType.BANG) {
+        return frame -> !interpreter.isTruthy(right.get(frame));
+      }
+      return frame -> {
+        Object value = right.get(frame);
+        if (value instanceof Double) return -(double) value;
+        return interpreter.unary(operator, value);
+      };
+    }
+
+    @Override
+    public Value visitLogicalExpr(Expr.Logical expr) {
+      Value left = compile(expr.left);
+      Value right = compile(expr.right);
+
+      if (expr.operator.type == TokenType.OR) {
+        return frame -> {
+          Object value = left.get(frame);
+          return interpreter.isTruthy(value) ? value : right.get(frame);
+        };
+      }
+      return frame -> {
+        Object value = left.get(frame);
+        return interpreter.isTruthy(value) ? right.get(frame) : value;
+      };
+    }
+
+    /* one closure per operator: numbers are handled inline, anything else
+     * (concatenation, type errors) goes to the interpreter's own binary()
+     */
+    @Override
+    public Value visitBinaryExpr(Expr.Binary expr) {
+      Value left = compile(expr.left);
+      Value right = compile(expr.right);
+      Token operator = expr.operator;
+
+      switch (operator.type) {
+        case PLUS:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a + (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case MINUS:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a - (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case STAR:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a * (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case SLASH:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a / (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case LESS:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a < (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case LESS_EQUAL:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a <= (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case GREATER:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a > (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        case GREATER_EQUAL:
+          return frame -> {
+            Object a = left.get(frame);
+            Object b = right.get(frame);
+            if (a instanceof Double && b instanceof Double) return (double) a >= (double) b;
+            return interpreter.binary(operator, a, b);
+          };
+        default: // == and !=
+          return frame -> interpreter.binary(operator, left.get(frame), right.get(frame));
+      }
+    }
+
+    @Override
+    public Value visitChannelExpr(Expr.Channel expr) {
+      Value capacity = compile(expr.capacity);
+      Token keyword = expr.keyword;
+      return frame -> interpreter.channel(keyword, capacity.get(frame));
+    }
+
+    @Override
+    public Value visitReceiveExpr(Expr.Receive expr) {
+      Value channel = compile(expr.channel);
+      Token keyword = expr.keyword;
+      return frame -> interpreter.receive(keyword, channel.get(frame));
+    }
+
+    @Override
+    public Value visitArrayExpr(Expr.Array expr) {
+      Value[] elements = new Value[expr.elements.size()];
+      for (int i = 0; i < elements.length; i++) {
+        elements[i] = compile(expr.elements.get(i));
+      }
+      Token bracket = expr.bracket;
+      return frame -> {
+        LoxArray array = interpreter.newArray(bracket, elements.length);
+        for (Value element : elements) {
+          interpreter.append(bracket, array, element.get(frame));
+        }
+        return array;
+      };
+    }
+
+    /* a native with an exact double handle (see LoxNative) whose arguments
+     * are all number() expressions gets them as doubles: sqrt(x * x + y * y)
+     * boxes only its result. the callee is checked each time, the variable
+     * can hold something else by then, and anything but a number argument
+     * for it is an error that the general path reports
+     */
+    @Override
+    public Value visitCallExpr(Expr.Call expr) {
+      Value callee = compile(expr.callee);
+      Value[] arguments = new Value[expr.arguments.size()];
+      for (int i = 0; i < arguments.length; i++) {
+        arguments[i] = compile(expr.arguments.get(i));
+      }
+      Token paren = expr.paren;
+      Value general = frame -> {
+        Object function = callee.get(frame);
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++) values[i] = arguments[i].get(frame);
+        return interpreter.call(paren, function, values);
+      };
+
+      NumberValue number = number(expr);
+      if (number == null) return general;
+      return frame -> {
+        try {
+          return number.get(frame);
+        } catch (NotANumber notANumber) {
+          return general.get(frame);
+        }
+      };
+    }
+
+    /* an index that's a whole number in range goes straight to the array (a
+     * numeric one stores a number without boxing anything new), everything
+     * else, errors and appends included, to the interpreter's checks
+     */
+    @Override
+    public Value visitIndexExpr(Expr.Index expr) {
+      Value object = compile(expr.object);
+      Value index = compile(expr.index);
+      Token bracket = expr.bracket;
+      return frame -> {
+        Object a = object.get(frame);
+        Object i = index.get(frame);
+        if (a instanceof LoxArray && i instanceof Double) {
+          LoxArray array = (LoxArray) a;
+          int at = (int) (double) i;
+          if (at == (double) i && at >= 0 && at < array.size()) return array.get(at);
+        }
+        return interpreter.index(bracket, a, i);
+      };
+    }
+
+    @Override
+    public Value visitSetIndexExpr(Expr.SetIndex expr) {
+      Value object = compile(expr.object);
+      Value index = compile(expr.index);
+      Value value = compile(expr.value);
+      Token bracket = expr.bracket;
+
+      NumberValue numberIndex = number(expr.index);
+      NumberValue numberValue = numberIndex == null ? null : number(expr.value);
+      if (numberValue != null) {
+        return new Store(object, index, value, numberIndex, numberValue, bracket);
+      }
+
+      return frame -> {
+        Object a = object.get(frame);
+        Object i = index.get(frame);
+        Object v = value.get(frame);
+        if (a instanceof LoxArray && i instanceof Double && v instanceof Double) {
+          LoxArray array = (LoxArray) a;
+          int at = (int) (double) i;
+          if (array.isNumeric() && at == (double) i && at >= 0 && at < array.size()) {
+            array.setNumber(at, (double) v);
+            return v;
+          }
+        }
+        return interpreter.setIndex(bracket, a, i, v);
+      };
+    }
+
+    /* statements */
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+      Value expression = compile(stmt.expression);
+      if (expression instanceof Store) return ((Store) expression)::run;
+      return frame -> expression.get(frame);
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+      Value expression = compile(stmt.expression);
+      return frame -> interpreter.print(expression.get(frame));
+    }
+
+    @Override
+    public Action visitVarStmt(Stmt.Var stmt) {
+      // the initializer still sees the outer variable in `var x = x;`
+      Value initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+
+      // the parser only allows declarations directly inside blocks
+      Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+      Integer existing = scope.get(stmt.name.lexeme);
+      int slot = existing != null ? existing : frameSize++;
+      scope.put(stmt.name.lexeme, slot);
+
+      int line = stmt.line;
+      return frame -> {
+        Object value = initializer == null ? null : initializer.get(frame);
+        interpreter.budget().allocate(Budget.VARIABLE_BYTES, line);
+        frame[slot] = value;
+      };
+    }
+
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+      Action statements = statements(stmt);
+      int line = stmt.line;
+
+      // a --lazy block nothing has entered yet
+      if (stmt.slots < 0) ScopeAnalyzer.analyzeLate(stmt);
+      boolean scoped = stmt.slots > 0;
+
+      // same charges and counts as Interpreter.enterBlock, minus the Environment itself
+      return frame -> {
+        Budget budget = interpreter.budget();
+        budget.step(line);
+        if (scoped) {
+          budget.allocate(Budget.ENVIRONMENT_BYTES, line);
+          interpreter.countEnvironment();
+        }
+        statements.run(frame);
+      };
+    }
+
+    @Override
+    public Action visitIfStmt(Stmt.If stmt) {
+      Value condition = compile(stmt.condition);
+      Action thenBranch = compile(stmt.thenBranch);
+      Action elseBranch = stmt.elseBranch == null ? null : compile(stmt.elseBranch);
+
+      return frame -> {
+        if (interpreter.isTruthy(condition.get(frame))) {
+          thenBranch.run(frame);
+        } else if (elseBranch != null) {
+          elseBranch.run(frame);
+        }
+      };
+    }
+
+    @Override
+    public Action visitSendStmt(Stmt.Send stmt) {
+      Value channel = compile(stmt.channel);
+      Value value = compile(stmt.value);
+      Token keyword = stmt.keyword;
+      return frame -> {
+        Object target = channel.get(frame);
+        interpreter.send(keyword, target, value.get(frame));
+      };
+    }
+
+    // a worker starts from a snapshot of the Environment, which compiled code
+    // doesn't keep up to date
+    @Override
+    public Action visitSpawnStmt(Stmt.Spawn stmt) {
+      throw new Bailout();
+    }
+
+    // instrumented code stays in the tree-walker, see Instrumenter
+    @Override
+    public Value visitTracedExpr(Expr.Traced expr) {
+      throw new Bailout();
+    }
+
+    @Override
+    public Action visitTracedStmt(Stmt.Traced stmt) {
+      throw new Bailout();
+    }
+
+    // a for loop has its own fast path in the tree-walker (CountedLoop), so a
+    // while around one stays there too
+    @Override
+    public Action visitForStmt(Stmt.For stmt) {
+      throw new Bailout();
+    }
+
+    // loops inside a compiled loop are just part of it, no tiering of their own
+    @Override
+    public Action visitWhileStmt(Stmt.While stmt) {
+      int outer = jumps;
+      jumps = 0;
+      Value condition = compile(stmt.condition);
+      Stmt.Block sharedBlock = sharedBlock(stmt);
+      Action body = sharedBlock != null ? statements(sharedBlock) : compile(stmt.body);
+      int line = stmt.line;
+      jumps = outer; // ours stop here
+
+      return frame -> {
+        boolean charged = false;
+        while (interpreter.isTruthy(condition.get(frame))) {
+          charged = runBody(sharedBlock, body, frame, charged);
+          if (completion != Interpreter.NORMAL && brokeOut()) return;
+          interpreter.budget().step(line);
+        }
+      };
+    }
+
+    @Override
+    public Action visitBreakStmt(Stmt.Break stmt) {
+      jumps++;
+      return frame -> completion = Interpreter.BREAK;
+    }
+
+    @Override
+    public Action visitContinueStmt(Stmt.Continue stmt) {
+      jumps++;
+      return frame -> completion = Interpreter.CONTINUE;
+    }
+  }
+
+  private static RuntimeError undefined(Token name) {
+    return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  }
+}
@@ -7,45 +7,468 @@
 package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Lox {
 
-  // add bool to store if error occured
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
-  private static final Interpreter interpreter = new Interpreter();
+  /* what used to be the hadError / hadRuntimeError flags, now one per run
+   *
+   * the command line only ever has the one (console), but --batch runs several
+   * scripts at once, so the reporting functions below look the current run up
+   * per thread. a worker thread reports to the run that spawned it
+   * (Workers.spawn carries it over).
+   */
+  static final class Report {
+    private final PrintStream err; // null = wherever System.err points right now
+
+    // add bool to store if error occured
+    boolean hadError = false;
+    volatile boolean hadRuntimeError = false; // workers set it from their threads
+    int errorCount = 0; // compile errors reported so far, for the JFR parse event
+
+    Report(PrintStream err) {
+      this.err = err;
+    }
+
+    PrintStream err() {
+      return err != null ? err : System.err;
+    }
+
+    // 65 if error'd while scanning/parsing, 70 at runtime
+    int exitCode() {
+      if (hadError) return 65;
+      if (hadRuntimeError) return 70;
+      return 0;
+    }
+  }
+
+  private static final Report console = new Report(null);
+  private static final ThreadLocal<Report> current = new ThreadLocal<>();
+
+  static Report report() {
+    Report report = current.get();
+    return report != null ? report : console;
+  }
+
+  // report to this run from the calling thread, null = back to the console
+  static void attach(Report report) {
+    if (report == null) {
+      current.remove();
+    } else {
+      current.set(report);
+    }
+  }
+
+  private static Interpreter interpreter;
+
+  // interpreter options, kept here so --server/--batch can make a fresh one per script
+  private static boolean tiering = true;
+  private static boolean orderedPrint = false;
+
+  // per-run resource limits, set from the command line (see Budget.java)
+  private static long maxSteps = Budget.UNLIMITED;
+  private static long maxBytes = Budget.UNLIMITED;
+  private static long timeoutMillis = Budget.UNLIMITED;
+
+  // sampling profiler output (collapsed stacks), null = not profiling
+  private static String profilePath = null;
+  private static long profileIntervalMicros = 1000;
+
+  // --stats: per-phase numbers printed to stderr once the script is done
+  private static boolean statsWanted = false;
+  private static boolean statsJson = false;
+  private static Stats stats = null;
+
+  // --deep: parse with explicit stacks so nesting depth is only bounded by memory
+  private static boolean flatParse = false;
+
+  // --lazy: skim block bodies and parse them the first time they run (see LazyBlock)
+  private static boolean lazyParse = false;
+
+  // --dump-ast / --dump-ast-binary: write the AST out instead of running it
+  private static String dumpPath = null;
+  private static boolean dumpBinary = false;
+
+  // --server=SOCKET / --client=SOCKET, see Server.java
+  private static String serverPath = null;
+  private static String clientPath = null;
+
+  // --snapshot=FILE starts every interpreter from saved globals,
+  // --save-snapshot=FILE writes them out after the script (see Snapshot.java)
+  private static Snapshot snapshot = null;
+  private static String snapshotPath = null;
+  private static String saveSnapshotPath = null;
+
+  // --trace=LINES prints every statement on those lines (all, or like 3,7-9)
+  // as it starts, --watch=NAME every value given to the variable NAME.
+  // both go through Instrumenter, so code nobody traces runs as usual
+  private static int[] traceLines = null; // from, to pairs, empty = every line
+  private static String watchName = null;
+
+  // --coverage=FILE: statement and branch counts for the script, written as
+  // an LCOV tracefile once it's done (see Coverage.java)
+  private static String coveragePath = null;
+  private static Coverage coverage = null;
+
+  // --batch=DIR|GLOB, see Batch.java
+  private static String batchPattern = null;
+  private static int batchJobs = Runtime.getRuntime().availableProcessors();
 
   // main function
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    String script = null;
+
+    // options come as --name=value, anything else is the script path
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        if (!parseOption(arg)) usage();
+      } else if (script == null) {
+        script = arg;
+      } else {
+        usage();
+      }
+    }
+
+    if (saveSnapshotPath != null && script == null) usage();
+    // coverage is of one script that actually runs
+    if (coveragePath != null && (script == null || dumpPath != null)) usage();
+    if (flatParse && lazyParse) usage(); // the flat parser has no lazy mode
+    if (snapshotPath != null) {
+      try {
+        snapshot = Snapshot.read(Paths.get(snapshotPath));
+      } catch (IOException error) {
+        System.err.println("Could not load snapshot " + snapshotPath + ": " + error.getMessage());
+        System.exit(66);
+      }
+    }
+
+    if (serverPath != null) {
+      if (script != null || clientPath != null) usage();
+      Server.serve(Paths.get(serverPath));
+      return;
+    }
+    if (clientPath != null) {
+      System.exit(Client.run(Paths.get(clientPath), script));
+    }
+    if (batchPattern != null) {
+      // per-script stats/profiles/dumps would all land in the same place
+      if (script != null || statsWanted || profilePath != null || dumpPath != null) usage();
+      System.exit(new Batch(batchJobs).run(batchPattern));
+    }
+
+    interpreter = newInterpreter();
+    if (statsWanted) stats = new Stats(interpreter);
+    if (coveragePath != null) coverage = new Coverage();
+
+    if (script != null) {
+      runFile(script);
     } else {
       runPrompt();
     }
   }
 
+  private static Interpreter newInterpreter() {
+    return newInterpreter(System.out);
+  }
+
+  private static Interpreter newInterpreter(PrintStream out) {
+    Environment globals = snapshot != null ? snapshot.restore() : Natives.globals();
+    Interpreter fresh = new Interpreter(out, globals, null, null);
+    fresh.setTiering(tiering);
+    fresh.setOrderedPrint(orderedPrint);
+    return fresh;
+  }
+
+  private static void usage() {
+    System.out.println("Usage: jlox [--max-steps=N] [--max-bytes=N] [--timeout=MS]" +
+        " [--profile=FILE] [--profile-interval=US] [--stats[=json]] [--deep | --lazy] [--no-tiering]" +
+        " [--ordered-print] [--dump-ast[-binary]=FILE] [--snapshot=FILE]" +
+        " [--trace=LINES] [--watch=NAME] [--coverage=FILE] [script]");
+    System.out.println("       jlox --save-snapshot=FILE [options] prelude");
+    System.out.println("       jlox --server=SOCKET [options]");
+    System.out.println("       jlox --client=SOCKET [script]");
+    System.out.println("       jlox --batch=DIR|GLOB [--jobs=N] [options]");
+    System.exit(64);
+  }
+
+  // "all" or a list like 3,7-9, null if it isn't either
+  private static int[] parseLines(String spec) {
+    if (spec.equals("all")) return new int[0];
+
+    String[] parts = spec.split(",");
+    int[] ranges = new int[parts.length * 2];
+    try {
+      for (int i = 0; i < parts.length; i++) {
+        int dash = parts[i].indexOf('-');
+        ranges[i * 2] = Integer.parseInt(dash < 0 ? parts[i] : parts[i].substring(0, dash));
+        ranges[i * 2 + 1] = dash < 0 ? ranges[i * 2] : Integer.parseInt(parts[i].substring(dash + 1));
+      }
+    } catch (NumberFormatException error) {
+      return null;
+    }
+    return ranges;
+  }
+
+  private static boolean traced(int line) {
+    if (traceLines.length == 0) return true;
+    for (int i = 0; i < traceLines.length; i += 2) {
+      if (line >= traceLines[i] && line <= traceLines[i + 1]) return true;
+    }
+    return false;
+  }
+
+  // probes for --trace / --watch, null if neither was given
+  private static Instrumenter instrumenter(Interpreter interpreter) {
+    if (traceLines == null && watchName == null) return null;
+    Instrumenter instrumenter = new Instrumenter();
+
+    if (traceLines != null) {
+      instrumenter.statements((stmt, line) -> traced(line), new Instrumenter.Listener() {
+        @Override
+        public void enter(Stmt stmt, Environment environment) {
+          report().err().println("[trace] line " + stmt.line + ": " +
+              stmt.getClass().getSimpleName());
+        }
+      });
+    }
+
+    if (watchName != null) {
+      Instrumenter.Listener watcher = new Instrumenter.Listener() {
+        @Override
+        public void exit(Stmt stmt, Environment environment) {
+          watched(stmt.line, environment.get(((Stmt.Var) stmt).name));
+        }
+
+        @Override
+        public void value(Expr expr, Object value, int line) {
+          watched(line, value);
+        }
+
+        private void watched(int line, Object value) {
+          report().err().println("[watch] line " + line + ": " + watchName + " = " +
+              interpreter.stringify(value));
+        }
+      };
+      instrumenter.statements((stmt, line) -> stmt instanceof Stmt.Var &&
+          ((Stmt.Var) stmt).name.lexeme.equals(watchName), watcher);
+      instrumenter.expressions((expr, line) -> expr instanceof Expr.Assign &&
+          ((Expr.Assign) expr).name.lexeme.equals(watchName), watcher);
+    }
+    return instrumenter;
+  }
+
+  // returns false if the option isn't one we know about
+  private static boolean parseOption(String arg) {
+    if (arg.equals("--stats") || arg.equals("--stats=text")) {
+      statsWanted = true;
+      return true;
+    }
+    if (arg.equals("--ordered-print")) {
+      orderedPrint = true;
+      return true;
+    }
+    if (arg.equals("--no-tiering")) {
+      tiering = false;
+      return true;
+    }
+    if (arg.equals("--deep")) {
+      flatParse = true;
+      return true;
+    }
+    if (arg.equals("--lazy")) {
+      lazyParse = true;
+      return true;
+    }
+    if (arg.equals("--stats=json")) {
+      statsWanted = true;
+      statsJson = true;
+      return true;
+    }
+
+    int equals = arg.indexOf('=');
+    if (equals < 0) return false;
+
+    String name = arg.substring(0, equals);
+    if (name.equals("--profile")) {
+      profilePath = arg.substring(equals + 1);
+      return !profilePath.isEmpty();
+    }
+    if (name.equals("--trace")) {
+      traceLines = parseLines(arg.substring(equals + 1));
+      return traceLines != null;
+    }
+    if (name.equals("--coverage")) {
+      coveragePath = arg.substring(equals + 1);
+      return !coveragePath.isEmpty();
+    }
+    if (name.equals("--watch")) {
+      watchName = arg.substring(equals + 1);
+      return !watchName.isEmpty();
+    }
+    if (name.equals("--server")) {
+      serverPath = arg.substring(equals + 1);
+      return !serverPath.isEmpty();
+    }
+    if (name.equals("--snapshot")) {
+      snapshotPath = arg.substring(equals + 1);
+      return !snapshotPath.isEmpty();
+    }
+    if (name.equals("--save-snapshot")) {
+      saveSnapshotPath = arg.substring(equals + 1);
+      return !saveSnapshotPath.isEmpty();
+    }
+    if (name.equals("--batch")) {
+      batchPattern = arg.substring(equals + 1);
+      return !batchPattern.isEmpty();
+    }
+    if (name.equals("--client")) {
+      clientPath = arg.substring(equals + 1);
+      return !clientPath.isEmpty();
+    }
+    if (name.equals("--dump-ast") || name.equals("--dump-ast-binary")) {
+      dumpPath = arg.substring(equals + 1);
+      dumpBinary = name.equals("--dump-ast-binary");
+      return !dumpPath.isEmpty();
+    }
+
+    long value;
+    try {
+      value = Long.parseLong(arg.substring(equals + 1));
+    } catch (NumberFormatException error) {
+      return false;
+    }
+    if (value < 0) return false;
+
+    switch (name) {
+      case "--max-steps": maxSteps = value; return true;
+      case "--max-bytes": maxBytes = value; return true;
+      case "--timeout": timeoutMillis = value; return true;
+      case "--jobs":
+        batchJobs = (int) Math.min(value, 1024);
+        return value > 0;
+      case "--profile-interval":
+        profileIntervalMicros = value;
+        return value > 0;
+    }
+    return false;
+  }
+
   // function to take in a path, read all the bytes, convert it to a string, and
   // run it
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
 
-    if (hadError) {
-      System.exit(65); // exit program with code 65 if error'd
+    if (profilePath == null) {
+      run(new String(bytes, Charset.defaultCharset()));
+    } else {
+      runProfiled(new String(bytes, Charset.defaultCharset()));
+    }
+    printStats();
+    // a run that stopped on a runtime error still covered what it got through
+    if (coverage != null && !console.hadError) writeCoverage(path);
+
+    int status = console.exitCode();
+    if (status != 0) System.exit(status);
+    if (saveSnapshotPath != null) saveSnapshot();
+  }
+
+  private static void writeCoverage(String script) {
+    coverage.printSummary(System.err);
+    try {
+      coverage.writeLcov(Paths.get(coveragePath), Paths.get(script));
+    } catch (IOException error) {
+      System.err.println("Could not write coverage " + coveragePath + ": " + error.getMessage());
+      System.exit(74);
+    }
+  }
+
+  // only after a clean run, a prelude that failed halfway isn't worth keeping
+  private static void saveSnapshot() {
+    try {
+      Snapshot.write(interpreter.globals(), Paths.get(saveSnapshotPath));
+    } catch (IOException error) {
+      System.err.println("Could not save snapshot " + saveSnapshotPath + ": " + error.getMessage());
+      System.exit(74);
+    }
+  }
+
+  /* one script for --server: a fresh interpreter and error state, output goes
+   * wherever System.out/err point right now. returns what runFile would exit with
+   */
+  static int runIsolated(String source) {
+    return runIsolated(source, System.out, null);
+  }
+
+  // same for --batch, which runs several on different threads into their own streams
+  static int runIsolated(String source, PrintStream out, PrintStream err) {
+    Report report = new Report(err);
+    Report outer = current.get();
+    attach(report);
+    try {
+      run(source, newInterpreter(out));
+    } finally {
+      attach(outer);
+    }
+    return report.exitCode();
+  }
+
+  private static void printStats() {
+    if (stats == null) return;
+
+    if (statsJson) {
+      stats.printJson(System.err);
+    } else {
+      stats.printHuman(System.err);
+    }
+  }
+
+  // stream the AST to dumpPath ("-" = stdout for the text form)
+  private static void dumpAst(List<Stmt> statements) {
+    try {
+      if (dumpBinary) {
+        try (OutputStream out = Files.newOutputStream(Paths.get(dumpPath))) {
+          new AstBinaryWriter(out).write(statements);
+        }
+      } else if (dumpPath.equals("-")) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        new AstWriter(out).write(statements);
+        out.flush();
+      } else {
+        try (Writer out = Files.newBufferedWriter(Paths.get(dumpPath), StandardCharsets.UTF_8)) {
+          new AstWriter(out).write(statements);
+        }
+      }
+    } catch (IOException error) {
+      System.err.println("Could not write AST to " + dumpPath + ": " + error.getMessage());
+      report().hadError = true;
     }
-    if (hadRuntimeError) 
-    {
-      System.exit(70);
+  }
+
+  // same as run(), but with the sampling profiler watching the interpreter
+  private static void runProfiled(String source) throws IOException {
+    Profiler profiler = new Profiler(profileIntervalMicros);
+    interpreter.setProfilerSlot(profiler.register());
+    profiler.start();
+    try {
+      run(source);
+    } finally {
+      profiler.stop();
+      interpreter.setProfilerSlot(null);
     }
+
+    profiler.printReport(System.err);
+    profiler.writeCollapsed(Paths.get(profilePath));
   }
 
   // function to run input items directly
@@ -70,15 +493,23 @@ public class Lox {
 
       // run each line
       run(line);
-      hadError = false; // no error occurred here.
+      console.hadError = false; // no error occurred here.
 
       /* Learning: code that reports error is separated from generation of error */
     }
+
+    printStats();
   }
 
   // utilize Java's builtin scanner class to read each line
   // assume that source is the final path
   private static void run(String source) {
+    run(source, interpreter);
+  }
+
+  private static void run(String source, Interpreter interpreter) {
+    Report report = report();
+
     // Scanner scanner = new Scanner(source);
     // List<Token> tokens = scanner.scanTokens();
 
@@ -89,21 +520,88 @@ public class Lox {
 
     // comment out earlier code in favor for temporary testing 
     // see 6.4
+    // the parser pulls tokens from the scanner as it needs them (see
+    // TokenSource) instead of getting the whole list first, so scanning
+    // happens inside the parse. the scan event spans both, and when anyone
+    // is looking the scanner's own share is clocked token by token
+    FlightEvents.Scan scanEvent = new FlightEvents.Scan();
+    FlightEvents.Parse parseEvent = new FlightEvents.Parse();
+    int errorsBefore = report.errorCount;
+    scanEvent.begin();
+    parseEvent.begin();
+    if (stats != null) stats.begin("parse");
     Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens);
+    Stats.Scanning scanning = null;
+    if (stats != null) {
+      scanning = stats.scanning(scanner::nextToken);
+    } else if (scanEvent.isEnabled()) {
+      scanning = new Stats.Scanning(scanner::nextToken, null);
+    }
+    TokenSource tokens = new TokenSource(scanning != null ? scanning : scanner::nextToken);
+    Parser parser = lazyParse ? new Parser(tokens, scanner) : new Parser(tokens, flatParse);
     //Expr expression = parser.parse();
     List<Stmt> statements = parser.parse(); // introduced 8.1
+    if (stats != null) {
+      stats.end(scanning);
+      stats.countTokens(tokens.count());
+      stats.countNodes(statements);
+    }
+    scanEvent.end();
+    parseEvent.end();
+    if (scanEvent.shouldCommit()) {
+      scanEvent.bytes = source.getBytes(StandardCharsets.UTF_8).length;
+      scanEvent.tokens = (int) tokens.count();
+      scanEvent.scannerNanos = scanning != null ? scanning.nanos : 0;
+      scanEvent.commit();
+    }
+    if (parseEvent.shouldCommit()) {
+      NodeCounter counter = new NodeCounter();
+      counter.count(statements);
+      parseEvent.statements = statements.size();
+      parseEvent.nodes = counter.total();
+      parseEvent.errors = report.errorCount - errorsBefore;
+      parseEvent.commit();
+    }
 
     // Stop if there was a syntax error.
-    if (hadError) return;
+    if (report.hadError) return;
+
+    if (dumpPath != null) {
+      dumpAst(statements);
+      return;
+    }
+
+    Instrumenter instrumenter = instrumenter(interpreter);
+    if (instrumenter != null) statements = instrumenter.instrument(statements);
+
+    // after instrumenting, which copies the nodes it wraps
+    if (coverage != null) {
+      coverage.assign(statements);
+      interpreter.setCoverage(coverage.register());
+    }
+
+    // static analysis, only scope sizes for now (see ScopeAnalyzer.java)
+    FlightEvents.Analysis analysisEvent = new FlightEvents.Analysis();
+    analysisEvent.begin();
+    if (stats != null) stats.begin("analyze");
+    new ScopeAnalyzer().analyze(statements);
+    if (stats != null) stats.end();
+    analysisEvent.end();
+    if (analysisEvent.shouldCommit()) {
+      analysisEvent.pass = "scopes";
+      analysisEvent.statements = statements.size();
+      analysisEvent.commit();
+    }
 
     // this line simply prints out our AST
     // as of 7.4 we have a working intepreter, so  call that instead 
     //System.out.println(new AstPrinter().print(expression));
 
+    // every run gets a fresh budget, so a REPL line can't starve the next one
+    interpreter.setBudget(new Budget(maxSteps, maxBytes, timeoutMillis));
+    if (stats != null) stats.begin("interpret");
     interpreter.interpret(statements);
+    if (stats != null) stats.end();
 
   }
 
@@ -115,7 +613,7 @@ public class Lox {
    * Users need to know what works and what fails internally
    * 
    * In our case, reporting exists in this class to satisfy some hadError bool
-   * defined above.
+   * defined above (in Report these days).
    * 
    */
 
@@ -127,7 +625,10 @@ public class Lox {
   // create function to report the actual error (do the printing)
   private static void report(int line, String where, String message) {
     // print an error message using err builtin to java
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
+    Report report = report();
+    report.errorCount++;
+    report.hadError = true;
+    report.err().println("[line " + line + "] Error" + where + ": " + message);
   }
 
   /*
@@ -152,9 +653,10 @@ public class Lox {
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() +
+    Report report = report();
+    report.err().println(error.getMessage() +
         "\n[line " + error.token.line + "]");
-    hadRuntimeError = true;
+    report.hadRuntimeError = true;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/* Lox's array value, `[1, 2, 3]`, `a[i]`, `a[i] = x`
+ *
+ * while every element is a number the storage is a plain double[], so a
+ * numeric array costs 8 bytes an element and storing a number into it never
+ * allocates. the first element that isn't a number turns the storage into an
+ * Object[] (boxing what's there once) and it stays that way from then on.
+ *
+ * reading an element in the tree-walker still makes a Double, every number
+ * there is one. compiled loops don't: `a[i] = a[i] + a[i - 1] * k` runs on
+ * doubles from the reads to the store (see LoopCompiler.number()).
+ *
+ * storing at index size() appends, anywhere further out is an error, and the
+ * storage doubles when it runs out of room. the checks (is it a whole number,
+ * is it in range) are the Interpreter's job, see Interpreter.index(); this
+ * class trusts the int it's given.
+ *
+ * arrays are mutable, so unlike every other Lox value they can't go through a
+ * channel or into a --save-snapshot file, and a spawned worker gets its own
+ * copy of every array it can see (copy()) rather than sharing it.
+ */
+final class LoxArray {
+  private static final int MIN_CAPACITY = 8;
+
+  private double[] numbers; // null once the array holds anything else
+  private Object[] values;  // null while numbers is in use
+  private int size = 0;
+
+  LoxArray(int capacity) {
+    this.numbers = new double[capacityFor(capacity)];
+  }
+
+  // what the constructor will allocate, so the budget can be charged first
+  static int capacityFor(int size) {
+    return Math.max(size, MIN_CAPACITY);
+  }
+
+  private LoxArray(double[] numbers, Object[] values, int size) {
+    this.numbers = numbers;
+    this.values = values;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int capacity() {
+    return numbers != null ? numbers.length : values.length;
+  }
+
+  // still on the double[] storage
+  boolean isNumeric() {
+    return numbers != null;
+  }
+
+  Object get(int index) {
+    if (numbers != null) return numbers[index];
+    return values[index];
+  }
+
+  // only while isNumeric(), no boxing on the way out
+  double getNumber(int index) {
+    return numbers[index];
+  }
+
+  void set(int index, Object value) {
+    if (numbers != null) {
+      if (value instanceof Double) {
+        numbers[index] = (double) value;
+        return;
+      }
+      generalize();
+    }
+    values[index] = value;
+  }
+
+  void setNumber(int index, double value) {
+    if (numbers != null) {
+      numbers[index] = value;
+    } else {
+      values[index] = value;
+    }
+  }
+
+  // index == size(), the caller already made sure there's room (see grow())
+  void add(Object value) {
+    size++;
+    set(size - 1, value);
+  }
+
+  // true if an add() would need a bigger backing array first
+  boolean isFull() {
+    return size == capacity();
+  }
+
+  // the capacity the next grow() will give us
+  int grownCapacity() {
+    return capacity() * 2;
+  }
+
+  void grow() {
+    int capacity = grownCapacity();
+    if (numbers != null) {
+      numbers = Arrays.copyOf(numbers, capacity);
+    } else {
+      values = Arrays.copyOf(values, capacity);
+    }
+  }
+
+  /* value itself unless it's an array, then a copy of it (arrays inside it
+   * copied too). copies maps every array copied so far to its copy, so two
+   * variables holding the same array still do afterwards, and so does an
+   * array that holds itself. every copy is charged to budget before it's
+   * made, and the nesting goes on a worklist rather than the Java stack, so
+   * an array nested a million deep copies fine
+   */
+  static Object copy(Object value, Map<LoxArray, LoxArray> copies,
+                     Budget budget, int line) {
+    if (!(value instanceof LoxArray)) return value;
+
+    // arrays whose copy still has to be filled in with copied elements
+    Deque<LoxArray> unfilled = new ArrayDeque<>();
+    LoxArray result = copyOf((LoxArray) value, copies, unfilled, budget, line);
+    while (!unfilled.isEmpty()) {
+      LoxArray array = unfilled.pop();
+      LoxArray copy = copies.get(array);
+      for (int i = 0; i < array.size; i++) {
+        Object element = array.values[i];
+        if (element instanceof LoxArray) {
+          element = copyOf((LoxArray) element, copies, unfilled, budget, line);
+        }
+        copy.values[i] = element;
+      }
+    }
+    return result;
+  }
+
+  // the copy of array, made empty and queued for filling if there isn't one yet
+  private static LoxArray copyOf(LoxArray array, Map<LoxArray, LoxArray> copies,
+                                 Deque<LoxArray> unfilled, Budget budget, int line) {
+    LoxArray copy = copies.get(array);
+    if (copy != null) return copy;
+
+    budget.allocate(Budget.arrayBytes(array.capacity()), line);
+    if (array.numbers != null) {
+      copy = new LoxArray(array.numbers.clone(), null, array.size);
+    } else {
+      // registered before the elements so one that leads back here finds it
+      copy = new LoxArray(null, new Object[array.values.length], array.size);
+      unfilled.push(array);
+    }
+    copies.put(array, copy);
+    return copy;
+  }
+
+  private void generalize() {
+    values = new Object[numbers.length];
+    for (int i = 0; i < size; i++) values[i] = numbers[i];
+    numbers = null;
+  }
+
+  /* the elements formatted the way print shows each of them. an array can
+   * hold itself (`a[0] = a;`), one that's already being printed comes out as
+   * [...] instead of going round forever. arrays inside arrays go on a stack
+   * of their own, with how far along each one is, not on the Java stack
+   */
+  String toString(Interpreter interpreter) {
+    StringBuilder text = new StringBuilder();
+    Set<LoxArray> open = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Printing> stack = new ArrayDeque<>();
+
+    open.add(this);
+    stack.push(new Printing(this));
+    text.append('[');
+    while (!stack.isEmpty()) {
+      Printing printing = stack.peek();
+      LoxArray array = printing.array;
+      if (printing.next == array.size) {
+        text.append(']');
+        open.remove(array);
+        stack.pop();
+        continue;
+      }
+
+      int i = printing.next++;
+      if (i > 0) text.append(", ");
+      Object element = array.get(i);
+      if (!(element instanceof LoxArray)) {
+        text.append(interpreter.stringify(element));
+      } else if (!open.add((LoxArray) element)) {
+        text.append("[...]");
+      } else {
+        stack.push(new Printing((LoxArray) element));
+        text.append('[');
+      }
+    }
+    return text.toString();
+  }
+
+  // an array toString() is in the middle of
+  private static final class Printing {
+    final LoxArray array;
+    int next = 0; // the element that comes out next
+
+    Printing(LoxArray array) {
+      this.array = array;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<array " + size + ">";
+  }
+}
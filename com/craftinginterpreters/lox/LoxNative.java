@@ -0,0 +1,158 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/* A Java static method callable from Lox, `sqrt(2)`, see Natives.java
+ *
+ * the method is looked up once, when the registry is built, and kept as a
+ * MethodHandle. a call is then handle.invokeExact(...), no reflection and no
+ * Object[] of arguments for the JVM to check on every call.
+ *
+ * how it's invoked depends on the method's type (shape):
+ *  - NUMBER (double)double, NUMBERS (double, double)double, NOTHING ()double:
+ *    the handle keeps that exact type, so the arguments go in as doubles and
+ *    the result comes out as one. compiled loops call invoke() directly and
+ *    nothing in `sqrt(x * x + y * y)` is boxed
+ *  - OTHER, anything else: parameters can be double, boolean, String or
+ *    Object (any Lox value), they're checked here and the handle is adapted
+ *    once to take them as an Object[]
+ *
+ * problems a native finds itself (substring out of range, ...) come out as a
+ * Failure, which the Interpreter turns into a RuntimeError at the call.
+ * natives hold no state, so every interpreter and worker shares the same ones.
+ */
+final class LoxNative {
+  static final int NUMBER = 0;
+  static final int NUMBERS = 1;
+  static final int NOTHING = 2;
+  static final int OTHER = 3;
+
+  // a native's own error, just the message, no stack trace to fill in
+  static final class Failure extends RuntimeException {
+    Failure(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  final String name;
+  final int arity;
+  final int shape;
+
+  private final MethodHandle handle;   // exact type for the shape, see above
+  private final Class<?>[] parameters; // what OTHER checks each argument against
+
+  LoxNative(String name, MethodHandle target) {
+    MethodType type = target.type();
+    this.name = name;
+    this.arity = type.parameterCount();
+    this.parameters = type.parameterArray();
+
+    if (type.equals(MethodType.methodType(double.class, double.class))) {
+      shape = NUMBER;
+    } else if (type.equals(MethodType.methodType(double.class, double.class, double.class))) {
+      shape = NUMBERS;
+    } else if (type.equals(MethodType.methodType(double.class))) {
+      shape = NOTHING;
+    } else {
+      shape = OTHER;
+    }
+
+    if (shape != OTHER) {
+      handle = target;
+      return;
+    }
+
+    for (Class<?> parameter : parameters) {
+      if (parameter != double.class && parameter != boolean.class &&
+          parameter != String.class && parameter != Object.class) {
+        throw new IllegalArgumentException(name + "() takes a " +
+            parameter.getSimpleName() + ", which isn't a Lox value.");
+      }
+    }
+    handle = target.asType(type.generic()).asSpreader(Object[].class, arity);
+  }
+
+  // the arguments have been evaluated already, this checks and runs
+  Object call(Object[] arguments) {
+    if (arguments.length != arity) {
+      throw new Failure("Expected " + arity + " arguments but got " +
+          arguments.length + ".");
+    }
+
+    switch (shape) {
+      case NUMBER: return invoke(number(arguments, 0));
+      case NUMBERS: return invoke(number(arguments, 0), number(arguments, 1));
+      case NOTHING: return invoke();
+    }
+
+    for (int i = 0; i < arity; i++) check(arguments, i);
+    try {
+      return (Object) handle.invokeExact(arguments);
+    } catch (Throwable error) {
+      throw unchecked(error);
+    }
+  }
+
+  // the exact entry points, only for the matching shape
+
+  double invoke(double a) {
+    try {
+      return (double) handle.invokeExact(a);
+    } catch (Throwable error) {
+      throw unchecked(error);
+    }
+  }
+
+  double invoke(double a, double b) {
+    try {
+      return (double) handle.invokeExact(a, b);
+    } catch (Throwable error) {
+      throw unchecked(error);
+    }
+  }
+
+  double invoke() {
+    try {
+      return (double) handle.invokeExact();
+    } catch (Throwable error) {
+      throw unchecked(error);
+    }
+  }
+
+  private double number(Object[] arguments, int i) {
+    if (arguments[i] instanceof Double) return (double) arguments[i];
+    throw mismatch(i, "a number");
+  }
+
+  private void check(Object[] arguments, int i) {
+    Object argument = arguments[i];
+    Class<?> parameter = parameters[i];
+    if (parameter == double.class && !(argument instanceof Double)) {
+      throw mismatch(i, "a number");
+    }
+    if (parameter == boolean.class && !(argument instanceof Boolean)) {
+      throw mismatch(i, "true or false");
+    }
+    if (parameter == String.class && !(argument instanceof String)) {
+      throw mismatch(i, "a string");
+    }
+  }
+
+  private Failure mismatch(int i, String expected) {
+    return new Failure("Argument " + (i + 1) + " to " + name + "() must be " +
+        expected + ".");
+  }
+
+  // Failure is a RuntimeException too, so it comes out as it is
+  private static RuntimeException unchecked(Throwable error) {
+    if (error instanceof RuntimeException) return (RuntimeException) error;
+    if (error instanceof Error) throw (Error) error;
+    return new IllegalStateException(error);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn " + name + ">";
+  }
+}
@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/* The native functions every script starts with, as globals
+ *
+ *   math     sqrt floor ceil abs sin cos exp log (x), pow min max (x, y)
+ *   time     clock(), seconds since the epoch
+ *   strings  len(s) (an array's length too), substring(s, from, to),
+ *            indexOf(s, part) (-1 if it isn't there), upper(s), lower(s),
+ *            num(s) (the number s spells, or nil)
+ *
+ * the math ones are java.lang.Math's own methods, bound as they are. the rest
+ * are the small static methods below. all of them are looked up once, here,
+ * and wrapped in a LoxNative that keeps the MethodHandle (see LoxNative.java).
+ *
+ * a script can shadow or reassign any of them like any other global. a
+ * --save-snapshot file only keeps the ones it did, every run defines the
+ * natives itself (see Snapshot.java).
+ */
+final class Natives {
+  private static final Map<String, LoxNative> BY_NAME = bindAll();
+
+  private Natives() {}
+
+  // fresh globals holding every native, with room for extra variables on top
+  static Environment globals(int extra) {
+    Environment globals = new Environment(null, BY_NAME.size() + extra);
+    for (LoxNative function : BY_NAME.values()) {
+      globals.define(function.name, function);
+    }
+    return globals;
+  }
+
+  static Environment globals() {
+    return globals(0);
+  }
+
+  // the native called name, null if there isn't one
+  static LoxNative lookup(String name) {
+    return BY_NAME.get(name);
+  }
+
+  // name still holds the native it started with
+  static boolean isBuiltIn(String name, Object value) {
+    return value != null && BY_NAME.get(name) == value;
+  }
+
+  private static Map<String, LoxNative> bindAll() {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    Map<String, LoxNative> natives = new HashMap<>();
+    try {
+      for (String name : new String[] {
+          "sqrt", "floor", "ceil", "abs", "sin", "cos", "exp", "log" }) {
+        bind(natives, name, lookup.findStatic(Math.class, name,
+            MethodType.methodType(double.class, double.class)));
+      }
+      for (String name : new String[] { "pow", "min", "max" }) {
+        bind(natives, name, lookup.findStatic(Math.class, name,
+            MethodType.methodType(double.class, double.class, double.class)));
+      }
+
+      bind(natives, "clock", lookup.findStatic(Natives.class, "clock",
+          MethodType.methodType(double.class)));
+      bind(natives, "len", lookup.findStatic(Natives.class, "len",
+          MethodType.methodType(double.class, Object.class)));
+      bind(natives, "substring", lookup.findStatic(Natives.class, "substring",
+          MethodType.methodType(String.class, String.class, double.class, double.class)));
+      bind(natives, "indexOf", lookup.findStatic(Natives.class, "indexOf",
+          MethodType.methodType(double.class, String.class, String.class)));
+      bind(natives, "upper", lookup.findStatic(Natives.class, "upper",
+          MethodType.methodType(String.class, String.class)));
+      bind(natives, "lower", lookup.findStatic(Natives.class, "lower",
+          MethodType.methodType(String.class, String.class)));
+      bind(natives, "num", lookup.findStatic(Natives.class, "num",
+          MethodType.methodType(Object.class, String.class)));
+    } catch (ReflectiveOperationException error) {
+      throw new IllegalStateException(error); // they're all right here
+    }
+    return natives;
+  }
+
+  private static void bind(Map<String, LoxNative> natives, String name,
+                           MethodHandle handle) {
+    natives.put(name, new LoxNative(name, handle));
+  }
+
+  /* the natives that aren't in java.lang.Math */
+
+  private static double clock() {
+    return System.currentTimeMillis() / 1000.0;
+  }
+
+  private static double len(Object value) {
+    if (value instanceof String) return ((String) value).length();
+    if (value instanceof LoxArray) return ((LoxArray) value).size();
+    throw new LoxNative.Failure("len() takes a string or an array.");
+  }
+
+  // the characters from index from up to (not including) index to
+  private static String substring(String text, double from, double to) {
+    if (from != Math.floor(from) || to != Math.floor(to)) {
+      throw new LoxNative.Failure("Substring bounds must be whole numbers.");
+    }
+    if (from < 0 || to < from || to > text.length()) {
+      throw new LoxNative.Failure("Substring bounds are out of range.");
+    }
+    return text.substring((int) from, (int) to);
+  }
+
+  private static double indexOf(String text, String part) {
+    return text.indexOf(part);
+  }
+
+  private static String upper(String text) {
+    return text.toUpperCase(Locale.ROOT);
+  }
+
+  private static String lower(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+
+  // same spelling as a number literal, with an optional minus
+  private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+  private static Object num(String text) {
+    if (!NUMBER.matcher(text).matches()) return null;
+    return Double.parseDouble(text);
+  }
+}
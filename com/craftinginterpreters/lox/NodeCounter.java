@@ -0,0 +1,234 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Walks a parsed program and counts its AST nodes, per node type
+ * (i.e. "Binary" -> 12, "Print" -> 3) and in total.
+ *
+ * only used for reporting (JFR events, --stats), never on the hot path.
+ * nodes still to visit go on a worklist rather than the Java stack, so very
+ * deep trees (200k-term expressions) can be counted too.
+ */
+class NodeCounter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Map<String, Long> counts = new TreeMap<>();
+  private long total = 0;
+  private final Deque<Object> worklist = new ArrayDeque<>();
+
+  void count(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      count(statement);
+    }
+
+    while (!worklist.isEmpty()) {
+      Object node = worklist.pop();
+      if (node instanceof Stmt) {
+        ((Stmt) node).accept(this);
+      } else {
+        ((Expr) node).accept(this);
+      }
+    }
+  }
+
+  long total() {
+    return total;
+  }
+
+  // node type name -> how many of them, sorted by name
+  Map<String, Long> counts() {
+    return counts;
+  }
+
+  private void count(Stmt stmt) {
+    // parse errors leave nulls behind in the statement list
+    if (stmt == null) return;
+    tally(stmt);
+    worklist.push(stmt);
+  }
+
+  private void count(Expr expr) {
+    // a for loop's condition and increment are optional
+    if (expr == null) return;
+    tally(expr);
+    worklist.push(expr);
+  }
+
+  private void tally(Object node) {
+    total++;
+    counts.merge(node.getClass().getSimpleName(), 1L, Long::sum);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    count(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    count(expr.left);
+    count(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    count(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    count(expr.left);
+    count(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    count(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    // counting isn't a reason to parse a --lazy block, it counts once it's parsed
+    if (LazyBlock.pending(stmt.statements)) return null;
+
+    // onto the worklist one by one, count(List) would drain it from in here
+    for (Stmt statement : stmt.statements) {
+      count(statement);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    count(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    count(stmt.condition);
+    count(stmt.thenBranch);
+    count(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    count(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) count(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    count(stmt.initializer);
+    count(stmt.condition);
+    count(stmt.increment);
+    count(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    count(stmt.condition);
+    count(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitChannelExpr(Expr.Channel expr) {
+    count(expr.capacity);
+    return null;
+  }
+
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    for (Expr element : expr.elements) count(element);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    count(expr.callee);
+    for (Expr argument : expr.arguments) count(argument);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    count(expr.object);
+    count(expr.index);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    count(expr.object);
+    count(expr.index);
+    count(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitReceiveExpr(Expr.Receive expr) {
+    count(expr.channel);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    count(stmt.channel);
+    count(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitTracedExpr(Expr.Traced expr) {
+    count(expr.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    count(stmt.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    count(stmt.body);
+    return null;
+  }
+}
@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+
+/* Double -> text for print and string concatenation
+ *
+ * both used to go through Double.toString: print then checked endsWith(".0")
+ * and took a substring, concatenation built the text and then copied it again.
+ * the numbers scripts actually print are mostly integers or have a couple of
+ * decimals, and those can be written digit by digit into a reusable buffer
+ * and turned into a String with a single copy.
+ *
+ * the output has to stay byte-identical to Double.toString, and on JDK 17 that
+ * isn't always the shortest round trip (so no Ryu/Schubfach here, it would
+ * change what gets printed). instead only two shapes take the fast path:
+ *  - integers with magnitude below 10^7 (from there on Double.toString
+ *    switches to E notation)
+ *  - values that are exactly m / 10^k for k = 1..3 and m below 10^7
+ * both were checked exhaustively against Double.toString, everything else
+ * (NaN, infinities, tiny/huge values, 0.1 + 0.2, ...) still goes through it.
+ *
+ * not thread safe, each Interpreter has its own.
+ */
+final class NumberFormatter {
+  private static final double INTEGRAL_LIMIT = 1e7;
+  private static final long DIGITS_LIMIT = 10_000_000L;
+  private static final double[] SCALES = { 1, 10, 100, 1000 };
+
+  // "-" + 7 digits + "." + ".0", plenty of room
+  private final byte[] buffer = new byte[24];
+
+  // exactly what Double.toString gives, used for string concatenation
+  String toJavaString(double value) {
+    int length = format(value, true);
+    if (length >= 0) return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+    return Double.toString(value);
+  }
+
+  // print form: like Double.toString but integers lose their ".0"
+  String display(double value) {
+    int length = format(value, false);
+    if (length >= 0) return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+
+    String text = Double.toString(value);
+    if (text.endsWith(".0")) {
+      text = text.substring(0, text.length() - 2);
+    }
+    return text;
+  }
+
+  /* writes the number to the start of the buffer and returns its length, or
+   * -1 if it's not one of the fast path shapes. pointZero = keep the ".0" on
+   * integers, i.e. produce exactly what Double.toString would
+   */
+  private int format(double value, boolean pointZero) {
+    double magnitude = Math.abs(value);
+    if (!(magnitude < INTEGRAL_LIMIT)) return -1; // NaN fails this too
+
+    // the sign bit, so -0.0 comes out as "-0" like before
+    boolean negative = Double.doubleToRawLongBits(value) < 0;
+
+    long whole = (long) magnitude;
+    if (whole == magnitude) {
+      int end = pointZero ? 2 : 0;
+      int start = writeDigits(whole, buffer.length - end);
+      if (pointZero) {
+        buffer[buffer.length - 2] = (byte) '.';
+        buffer[buffer.length - 1] = (byte) '0';
+      }
+      return finish(start, negative);
+    }
+
+    // the smallest k with magnitude == m / 10^k gives the shortest digits
+    for (int k = 1; k < SCALES.length; k++) {
+      long scaled = Math.round(magnitude * SCALES[k]);
+      if (scaled >= DIGITS_LIMIT) return -1;
+      if (scaled / SCALES[k] != magnitude) continue;
+
+      // fraction digits, zero padded on the left ("0.05"), then the rest
+      int position = buffer.length;
+      for (int i = 0; i < k; i++) {
+        buffer[--position] = (byte) ('0' + scaled % 10);
+        scaled /= 10;
+      }
+      buffer[--position] = (byte) '.';
+      return finish(writeDigits(scaled, position), negative);
+    }
+
+    return -1;
+  }
+
+  // digits of value ending just before `end`, returns where they start
+  private int writeDigits(long value, int end) {
+    int position = end;
+    do {
+      buffer[--position] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    return position;
+  }
+
+  // add the sign and move the text (built right to left) to the front
+  private int finish(int start, boolean negative) {
+    if (negative) buffer[--start] = (byte) '-';
+    int length = buffer.length - start;
+    System.arraycopy(buffer, start, buffer, 0, length);
+    return length;
+  }
+}
@@ -1,7 +1,11 @@
 package com.craftinginterpreters.lox;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 /* class to parse through tokens and format them into proper ASTs 
@@ -25,13 +29,53 @@ public class Parser {
   // used so that we can return errors in a ParseError useful format
   private static class ParseError extends RuntimeException {}
 
-  // define our list of tokens and which token we're currently on 
-  private final List<Token> tokens;
-  private int current = 0;
+  // the tokens, pulled from the scanner as we go (see TokenSource), and
+  // which one we're currently on
+  private final TokenSource tokens;
+
+  // "flat" mode parses nesting with explicit stacks instead of recursion,
+  // see the bottom of this file
+  private final boolean flat;
+
+  // --lazy: block bodies are only skimmed, see LazyBlock and skimBlock()
+  // null for the normal parser, otherwise the scanner the tokens come from
+  private final Scanner lazyScanner;
+
+  // --lazy: every block skimmed so far by the offset of its '{', shared with
+  // the LazyBlocks so parsing one can step over the blocks inside it
+  private final Map<Integer, LazyBlock> skimmed;
+
+  // how many loop bodies the statement being parsed is in, for break/continue.
+  // a spawn body starts over at 0, a worker can't jump out of its spawner's loop
+  private int loopDepth = 0;
 
   // constructor to intialize our tokens
   Parser(List<Token> tokens) {
+    this(tokens, false);
+  }
+
+  Parser(List<Token> tokens, boolean flat) {
+    this(TokenSource.of(tokens), flat);
+  }
+
+  Parser(TokenSource tokens, boolean flat) {
+    this.tokens = tokens;
+    this.flat = flat;
+    this.lazyScanner = null;
+    this.skimmed = null;
+  }
+
+  // lazy parser, the tokens have to come from scanner
+  Parser(TokenSource tokens, Scanner scanner) {
+    this(tokens, scanner, new ConcurrentHashMap<>());
+  }
+
+  // a LazyBlock's body, the blocks in it were skimmed along with it
+  Parser(TokenSource tokens, Scanner scanner, Map<Integer, LazyBlock> skimmed) {
     this.tokens = tokens;
+    this.flat = false;
+    this.lazyScanner = scanner;
+    this.skimmed = skimmed;
   }
 
   // try to parse() something, if it fails, return null after catching error
@@ -45,23 +89,32 @@ public class Parser {
 
   // new parsing function introduced in 8.1 that takes and returns statements
   List<Stmt> parse() {
+    if (flat) return parseFlat();
+
     List<Stmt> statements = new ArrayList<>();
     while (!isAtEnd()) {
-      statements.add(statement());
+      statements.add(declaration());
     }
 
     return statements; 
   }
 
+  // the statements of a block whose '{' was already consumed, up to its '}'
+  List<Stmt> blockBody(boolean inLoop) {
+    loopDepth = inLoop ? 1 : 0;
+    return block();
+  }
+
 
   private Expr expression() {
     //return equality();
+    if (flat) return flatExpression();
     return assignment();
   }
 
   private Stmt declaration() {
     try {
-      if (match(VAR)) return varDeclaration();
+      if (match(VAR)) return atLine(previous().line, varDeclaration());
 
       return statement();
     } catch (ParseError error) {
@@ -117,7 +170,7 @@ public class Parser {
    * at the end of our list of tokens
    */
   private Token advance() {
-    if (!isAtEnd()) current++;
+    if (!isAtEnd()) tokens.advance();
     return previous();
   }
 
@@ -126,11 +179,11 @@ public class Parser {
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return tokens.peek();
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.previous();
   }
 
   /* various error checking items  */
@@ -169,6 +222,8 @@ public class Parser {
         case WHILE:
         case PRINT:
         case RETURN:
+        case SPAWN:
+        case SEND:
           return;
       }
 
@@ -236,11 +291,71 @@ public class Parser {
       return new Expr.Unary(operator, right);
     }
 
-    return primary();
+    // `receive ch` binds like the other prefix operators
+    if (match(RECEIVE)) {
+      Token keyword = previous();
+      Expr channel = unary();
+      return new Expr.Receive(keyword, channel);
+    }
+
+    return call();
+  }
+
+  /* call → primary ( "(" arguments? ")" | "[" expression "]" )* ;
+   * calls and indexing bind tighter than any prefix operator, -a[0] is -(a[0]).
+   * groupings are parsed here rather than in primary(): every frame per
+   * nesting level counts for how deep ((((x)))) can go
+   */
+  private Expr call() {
+    Expr expr;
+    if (match(LEFT_PAREN)) {
+      expr = expression();
+      consume(RIGHT_PAREN, "Expect ')' after expression.");
+      expr = new Expr.Grouping(expr);
+    } else {
+      expr = primary();
+    }
+
+    for (;;) {
+      if (match(LEFT_PAREN)) {
+        expr = finishCall(expr);
+      } else if (match(LEFT_BRACKET)) {
+        expr = finishIndex(expr);
+      } else {
+        break;
+      }
+    }
+
+    return expr;
+  }
+
+  // f(...) with the '(' already consumed, flat mode uses this too
+  private Expr finishCall(Expr callee) {
+    List<Expr> arguments = new ArrayList<>();
+    if (!check(RIGHT_PAREN)) {
+      do {
+        if (arguments.size() >= 255) {
+          error(peek(), "Can't have more than 255 arguments.");
+        }
+        arguments.add(expression());
+      } while (match(COMMA));
+    }
+
+    Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+    return new Expr.Call(callee, paren, arguments);
+  }
+
+  // a[...] with the '[' already consumed, flat mode uses this too
+  private Expr finishIndex(Expr object) {
+    Token bracket = previous();
+    Expr index = expression();
+    consume(RIGHT_BRACKET, "Expect ']' after index.");
+    return new Expr.Index(object, bracket, index);
   }
 
   /* if it's not a unary expr, it must be a primary op
-   * this func checks if it is a LITERAL or GROUPING
+   * this func checks if it is a LITERAL, a name, a channel or an array
+   * (GROUPING moved up into call())
    */
   private Expr primary() {
     if (match(FALSE)) return new Expr.Literal(false);
@@ -254,12 +369,29 @@ public class Parser {
       return new Expr.Literal(previous().literal);
     }
 
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
+    // channel(capacity)
+    if (match(CHANNEL)) {
+      Token keyword = previous();
+      consume(LEFT_PAREN, "Expect '(' after 'channel'.");
+      Expr capacity = expression();
+      consume(RIGHT_PAREN, "Expect ')' after channel capacity.");
+      return new Expr.Channel(keyword, capacity);
+    }
+
+    // [a, b, c], elements are parsed like any other nested expression
+    if (match(LEFT_BRACKET)) {
+      Token bracket = previous();
+      List<Expr> elements = new ArrayList<>();
+      if (!check(RIGHT_BRACKET)) {
+        do {
+          elements.add(expression());
+        } while (match(COMMA));
+      }
+      consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+      return new Expr.Array(bracket, elements);
     }
 
+    // '(' is handled by call()
     throw error(peek(), "Expect expression.");
   }
 
@@ -280,27 +412,100 @@ public class Parser {
 
   /* figure out what kind of statement it is, and execute accordingly.   */
   private Stmt statement() {
-    if (match(FOR)) return forStatement();
-    if (match(PRINT)) return printStatement();
-    if (match(WHILE)) return whileStatement();
-    if (match(IF)) return ifStatement();
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
+    // remember where the statement starts before any of its tokens are consumed
+    int line = peek().line;
+
+    if (match(FOR)) return atLine(line, forStatement());
+    if (match(PRINT)) return atLine(line, printStatement());
+    if (match(WHILE)) return atLine(line, whileStatement());
+    if (match(IF)) return atLine(line, ifStatement());
+    if (match(SPAWN)) return atLine(line, new Stmt.Spawn(previous(), spawnBody()));
+    if (match(SEND)) return atLine(line, sendStatement());
+    if (match(BREAK, CONTINUE)) return atLine(line, jumpStatement(loopDepth > 0));
+    if (match(LEFT_BRACE)) {
+      if (lazyScanner != null) return atLine(line, new Stmt.Block(skimmedBlock()));
+      return atLine(line, new Stmt.Block(block()));
+    }
+
+    return atLine(line, expressionStatement());
+  }
+
+  // stamp a freshly built statement with the line it started on
+  private Stmt atLine(int line, Stmt stmt) {
+    stmt.line = line;
+    return stmt;
+  }
+
+  // a parse error can leave in the middle of a body, hence the finally
+  private Stmt loopBody() {
+    loopDepth++;
+    try {
+      return statement();
+    } finally {
+      loopDepth--;
+    }
+  }
+
+  private Stmt spawnBody() {
+    int outer = loopDepth;
+    loopDepth = 0;
+    try {
+      return statement();
+    } finally {
+      loopDepth = outer;
+    }
+  }
 
-    return expressionStatement();
+  // break; and continue;, only inside a loop body
+  private Stmt jumpStatement(boolean inLoop) {
+    Token keyword = jump(inLoop);
+    if (keyword.type == BREAK) return new Stmt.Break(keyword);
+    return new Stmt.Continue(keyword);
   }
 
+  private Token jump(boolean inLoop) {
+    Token keyword = previous();
+    if (!inLoop) error(keyword, "Can't use '" + keyword.lexeme + "' outside of a loop.");
+    consume(SEMICOLON, "Expect ';' after '" + keyword.lexeme + "'.");
+    return keyword;
+  }
+
+  /* 9.5, except the book desugars into a block around a while here. we keep
+   * the loop as its own node, see Interpreter.visitForStmt
+   */
   private Stmt forStatement() {
+    Pending clauses = forClauses(previous().line);
+    Stmt body = loopBody();
+
+    return new Stmt.For(clauses.initializer, clauses.condition, clauses.increment, body);
+  }
+
+  // everything between 'for' and the body, flat mode parses these the same way
+  private Pending forClauses(int line) {
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
-    // More here...
     Stmt initializer;
     if (match(SEMICOLON)) {
       initializer = null;
     } else if (match(VAR)) {
-      initializer = varDeclaration();
+      initializer = atLine(previous().line, varDeclaration());
     } else {
-      initializer = expressionStatement();
+      initializer = atLine(peek().line, expressionStatement());
+    }
+
+    Expr condition = null;
+    if (!check(SEMICOLON)) {
+      condition = expression();
+    }
+    consume(SEMICOLON, "Expect ';' after loop condition.");
+
+    Expr increment = null;
+    if (!check(RIGHT_PAREN)) {
+      increment = expression();
     }
+    consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+
+    return Pending.forLoop(line, initializer, condition, increment);
   }
 
   /* introduced in 9.4  */
@@ -309,7 +514,7 @@ public class Parser {
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression(); 
     consume(RIGHT_PAREN, "Expect ')' after condition.");
-    Stmt body = statement();
+    Stmt body = loopBody();
 
     return new Stmt.While(condition, body);
   }
@@ -345,6 +550,16 @@ public class Parser {
     return new Stmt.Print(value);
   }
 
+  // send channel, value;
+  private Stmt sendStatement() {
+    Token keyword = previous();
+    Expr channel = expression();
+    consume(COMMA, "Expect ',' after channel.");
+    Expr value = expression();
+    consume(SEMICOLON, "Expect ';' after value.");
+    return new Stmt.Send(keyword, channel, value);
+  }
+
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expect variable name.");
 
@@ -384,11 +599,209 @@ public class Parser {
     return statements;
   }
 
+  /* --lazy: skimming
+   *
+   * the methods below walk the same grammar as statement() and expression()
+   * with the same errors, but build nothing. a lazy block remembers where its
+   * body starts and LazyBlock parses it properly the first time it's needed.
+   * anything added to the grammar above has to be added here too.
+   */
+
+  /* the block whose '{' was just consumed. the first time round it's skimmed,
+   * and so is every block inside it, each one getting its LazyBlock on the
+   * way. when a LazyBlock parses its body later it meets those nested blocks
+   * again: they're looked up and the scanner jumps past their '}', instead of
+   * skimming them once per enclosing block (quadratic in the nesting depth)
+   */
+  private LazyBlock skimmedBlock() {
+    Token brace = previous();
+    LazyBlock block = skimmed.get(brace.offset);
+    if (block != null) {
+      lazyScanner.jump(block.end, block.endLine);
+      tokens.restart();
+      return block;
+    }
+
+    skimBlock();
+    Token closing = previous();
+    block = new LazyBlock(lazyScanner.source(), brace.offset + 1, brace.line,
+                          loopDepth > 0, closing.offset + 1, closing.line, skimmed);
+    skimmed.put(brace.offset, block);
+    return block;
+  }
+
+  private void skimBlock() {
+    while (!check(RIGHT_BRACE) && !isAtEnd()) {
+      skimDeclaration();
+    }
+
+    consume(RIGHT_BRACE, "Expect '}' after block.");
+  }
+
+  private void skimDeclaration() {
+    try {
+      if (match(VAR)) {
+        consume(IDENTIFIER, "Expect variable name.");
+        if (match(EQUAL)) skimExpression();
+        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        return;
+      }
+
+      skimStatement();
+    } catch (ParseError error) {
+      synchronize();
+    }
+  }
+
+  private void skimStatement() {
+    if (match(FOR)) {
+      consume(LEFT_PAREN, "Expect '(' after 'for'.");
+      if (match(VAR)) {
+        consume(IDENTIFIER, "Expect variable name.");
+        if (match(EQUAL)) skimExpression();
+        consume(SEMICOLON, "Expect ';' after variable declaration.");
+      } else if (!match(SEMICOLON)) {
+        skimExpression();
+        consume(SEMICOLON, "Expect ';' after expression.");
+      }
+      if (!check(SEMICOLON)) skimExpression();
+      consume(SEMICOLON, "Expect ';' after loop condition.");
+      if (!check(RIGHT_PAREN)) skimExpression();
+      consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+      skimLoopBody();
+    } else if (match(PRINT)) {
+      skimExpression();
+      consume(SEMICOLON, "Expect ';' after value.");
+    } else if (match(WHILE)) {
+      consume(LEFT_PAREN, "Expect '(' after 'while'.");
+      skimExpression();
+      consume(RIGHT_PAREN, "Expect ')' after condition.");
+      skimLoopBody();
+    } else if (match(IF)) {
+      consume(LEFT_PAREN, "Expect '(' after 'if'.");
+      skimExpression();
+      consume(RIGHT_PAREN, "Expect ')' after if condition.");
+      skimStatement();
+      if (match(ELSE)) skimStatement();
+    } else if (match(SPAWN)) {
+      int outer = loopDepth;
+      loopDepth = 0;
+      try {
+        skimStatement();
+      } finally {
+        loopDepth = outer;
+      }
+    } else if (match(SEND)) {
+      skimExpression();
+      consume(COMMA, "Expect ',' after channel.");
+      skimExpression();
+      consume(SEMICOLON, "Expect ';' after value.");
+    } else if (match(BREAK, CONTINUE)) {
+      jump(loopDepth > 0);
+    } else if (match(LEFT_BRACE)) {
+      skimmedBlock();
+    } else {
+      skimExpression();
+      consume(SEMICOLON, "Expect ';' after expression.");
+    }
+  }
+
+  private void skimLoopBody() {
+    loopDepth++;
+    try {
+      skimStatement();
+    } finally {
+      loopDepth--;
+    }
+  }
+
+  /* without a tree, precedence doesn't matter: any run of operands joined by
+   * binary operators is fine. what's left to check is assignment, which needs
+   * a bare variable or an index on the left. returns true if that's what was
+   * skimmed.
+   */
+  private boolean skimExpression() {
+    boolean variable = skimUnary();
+
+    while (precedence(peek().type) > precedence(EQUAL)) {
+      advance();
+      skimUnary();
+      variable = false;
+    }
+
+    if (match(EQUAL)) {
+      Token equals = previous();
+      skimExpression();
+      if (!variable) error(equals, "Invalid assignment target.");
+      return false;
+    }
+
+    return variable;
+  }
+
+  private boolean skimUnary() {
+    if (match(BANG, MINUS, RECEIVE)) {
+      skimUnary();
+      return false;
+    }
+
+    boolean target = skimPrimary();
+    for (;;) {
+      if (match(LEFT_PAREN)) {
+        int count = 0;
+        if (!check(RIGHT_PAREN)) {
+          do {
+            if (count++ >= 255) error(peek(), "Can't have more than 255 arguments.");
+            skimExpression();
+          } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        target = false;
+      } else if (match(LEFT_BRACKET)) {
+        skimExpression();
+        consume(RIGHT_BRACKET, "Expect ']' after index.");
+        target = true;
+      } else {
+        return target;
+      }
+    }
+  }
+
+  private boolean skimPrimary() {
+    if (match(IDENTIFIER)) return true;
+    if (match(FALSE, TRUE, NIL, NUMBER, STRING)) return false;
+
+    if (match(CHANNEL)) {
+      consume(LEFT_PAREN, "Expect '(' after 'channel'.");
+      skimExpression();
+      consume(RIGHT_PAREN, "Expect ')' after channel capacity.");
+      return false;
+    }
+
+    if (match(LEFT_BRACKET)) {
+      if (!check(RIGHT_BRACKET)) {
+        do {
+          skimExpression();
+        } while (match(COMMA));
+      }
+      consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+      return false;
+    }
+
+    if (match(LEFT_PAREN)) {
+      skimExpression();
+      consume(RIGHT_PAREN, "Expect ')' after expression.");
+      return false;
+    }
+
+    throw error(peek(), "Expect expression.");
+  }
+
   /* 8.4: in the case of variable assignment we don't want to evaluate LHS to token,
    * use this function to abstract away that problem and handle that case
    */
   private Expr assignment() {
-    Expr expr = or()
+    Expr expr = or();
 
     if (match(EQUAL)) {
       Token equals = previous();
@@ -399,6 +812,11 @@ public class Parser {
         return new Expr.Assign(name, value);
       }
 
+      if (expr instanceof Expr.Index) {
+        Expr.Index target = (Expr.Index) expr;
+        return new Expr.SetIndex(target.object, target.bracket, target.index, value);
+      }
+
       error(equals, "Invalid assignment target."); 
     }
 
@@ -430,8 +848,301 @@ public class Parser {
     return expr;
   }
 
+  /* "flat" parsing, used for machine generated input
+   *
+   * the recursive descent above uses one Java stack frame (actually several)
+   * per level of nesting, so something like ((((((1)))))) or - - - - x or
+   * { { { ... } } } a few thousand levels deep dies with a StackOverflowError.
+   * flat mode parses the exact same grammar with explicit stacks on the heap:
+   *  - expressions: shunting-yard over the precedence table below
+   *  - statements: a stack of statements still waiting for their body
+   * so nesting depth is only limited by memory. the exceptions are what's
+   * between brackets: array elements, indexes and call arguments are whole
+   * expressions parsed with a nested call, like a channel's capacity.
+   */
+
+  // how tightly each binary operator binds, mirrors the assignment() -> factor() chain
+  private static int precedence(TokenType type) {
+    switch (type) {
+      case EQUAL: return 1;
+      case OR: return 2;
+      case AND: return 3;
+      case BANG_EQUAL: case EQUAL_EQUAL: return 4;
+      case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL: return 5;
+      case MINUS: case PLUS: return 6;
+      case SLASH: case STAR: return 7;
+      default: return -1; // not a binary operator
+    }
+  }
+
+  private static final int UNARY_PRECEDENCE = 8;
+  private static final int GROUP = 0; // '(' sits on the operator stack as a barrier
 
+  private static final class Operator {
+    final Token token;
+    final int precedence;
+    final boolean unary;
 
+    Operator(Token token, int precedence, boolean unary) {
+      this.token = token;
+      this.precedence = precedence;
+      this.unary = unary;
+    }
+  }
 
+  private Expr flatExpression() {
+    List<Expr> operands = new ArrayList<>();
+    Deque<Operator> operators = new ArrayDeque<>();
+    int open = 0; // '(' opened by this expression and not closed yet
 
+    for (;;) {
+      // expecting an operand: prefix operators and '(' can come first
+      if (match(BANG, MINUS, RECEIVE)) {
+        operators.push(new Operator(previous(), UNARY_PRECEDENCE, true));
+        continue;
+      }
+      if (match(LEFT_PAREN)) {
+        operators.push(new Operator(previous(), GROUP, false));
+        open++;
+        continue;
+      }
+
+      // '(' never gets here, so this only ever parses literals, names, arrays
+      // and channels, and calls and indexes on them
+      operands.add(call());
+
+      // close every group that ends right after this operand, and call or
+      // index the ones that are followed by a '(' or '[': (a)[0]
+      for (;;) {
+        if (open > 0 && match(RIGHT_PAREN)) {
+          while (operators.peek().precedence != GROUP) reduce(operands, operators);
+          operators.pop();
+          open--;
+          operands.add(new Expr.Grouping(removeLast(operands)));
+        } else if (match(LEFT_PAREN)) {
+          operands.add(finishCall(removeLast(operands)));
+        } else if (match(LEFT_BRACKET)) {
+          operands.add(finishIndex(removeLast(operands)));
+        } else {
+          break;
+        }
+      }
+
+      // expecting an operator: anything else ends the expression
+      int precedence = precedence(peek().type);
+      if (precedence < 0) break;
+      Token operator = advance();
+
+      // '=' groups to the right, everything else to the left
+      boolean rightAssociative = operator.type == EQUAL;
+      while (!operators.isEmpty() &&
+             operators.peek().precedence != GROUP &&
+             (operators.peek().precedence > precedence ||
+              (operators.peek().precedence == precedence && !rightAssociative))) {
+        reduce(operands, operators);
+      }
+      operators.push(new Operator(operator, precedence, false));
+    }
+
+    if (open > 0) throw error(peek(), "Expect ')' after expression.");
+
+    while (!operators.isEmpty()) reduce(operands, operators);
+    return removeLast(operands);
+  }
+
+  // pop one operator and build its node out of the operands on top
+  private void reduce(List<Expr> operands, Deque<Operator> operators) {
+    Operator operator = operators.pop();
+    Expr right = removeLast(operands);
+
+    if (operator.unary) {
+      if (operator.token.type == RECEIVE) {
+        operands.add(new Expr.Receive(operator.token, right));
+      } else {
+        operands.add(new Expr.Unary(operator.token, right));
+      }
+      return;
+    }
+
+    Expr left = removeLast(operands);
+    switch (operator.token.type) {
+      case EQUAL:
+        // same rule (and same error) as assignment()
+        if (left instanceof Expr.Variable) {
+          operands.add(new Expr.Assign(((Expr.Variable)left).name, right));
+        } else if (left instanceof Expr.Index) {
+          Expr.Index target = (Expr.Index) left;
+          operands.add(new Expr.SetIndex(target.object, target.bracket, target.index, right));
+        } else {
+          error(operator.token, "Invalid assignment target.");
+          operands.add(left);
+        }
+        break;
+      case OR:
+      case AND:
+        operands.add(new Expr.Logical(left, operator.token, right));
+        break;
+      default:
+        operands.add(new Expr.Binary(left, operator.token, right));
+        break;
+    }
+  }
+
+  private static Expr removeLast(List<Expr> operands) {
+    return operands.remove(operands.size() - 1);
+  }
+
+  // a statement we've seen the start of, but whose body hasn't been parsed yet
+  private static final class Pending {
+    final TokenType kind; // LEFT_BRACE, WHILE, IF, ELSE, SPAWN or FOR
+    final int line;
+    final List<Stmt> statements; // LEFT_BRACE
+    final Expr condition;        // WHILE, IF, ELSE, FOR
+    final Stmt thenBranch;       // ELSE
+    final Token keyword;         // SPAWN
+    final Stmt initializer;      // FOR
+    final Expr increment;        // FOR
+
+    Pending(TokenType kind, int line, List<Stmt> statements,
+            Expr condition, Stmt thenBranch) {
+      this(kind, line, statements, condition, thenBranch, null);
+    }
+
+    Pending(TokenType kind, int line, List<Stmt> statements,
+            Expr condition, Stmt thenBranch, Token keyword) {
+      this(kind, line, statements, condition, thenBranch, keyword, null, null);
+    }
+
+    private Pending(TokenType kind, int line, List<Stmt> statements,
+                    Expr condition, Stmt thenBranch, Token keyword,
+                    Stmt initializer, Expr increment) {
+      this.kind = kind;
+      this.line = line;
+      this.statements = statements;
+      this.condition = condition;
+      this.thenBranch = thenBranch;
+      this.keyword = keyword;
+      this.initializer = initializer;
+      this.increment = increment;
+    }
+
+    static Pending forLoop(int line, Stmt initializer, Expr condition, Expr increment) {
+      return new Pending(FOR, line, null, condition, null, null, initializer, increment);
+    }
+  }
+
+  private List<Stmt> parseFlat() {
+    List<Stmt> statements = new ArrayList<>();
+    Deque<Pending> pending = new ArrayDeque<>();
+
+    for (;;) {
+      Pending top = pending.peek();
+      if (top == null && isAtEnd()) break;
+
+      // at the top level or directly inside a block we take declarations,
+      // the body of a while/if is just a statement (same as statement())
+      boolean declarations = top == null || top.kind == LEFT_BRACE;
+
+      try {
+        if (top != null && top.kind == LEFT_BRACE &&
+            (check(RIGHT_BRACE) || isAtEnd())) {
+          pending.pop();
+          consume(RIGHT_BRACE, "Expect '}' after block.");
+          finish(statements, pending,
+                 atLine(top.line, new Stmt.Block(top.statements)));
+          continue;
+        }
+
+        int line = peek().line;
+        if (declarations && match(VAR)) {
+          finish(statements, pending, atLine(line, varDeclaration()));
+        } else if (match(LEFT_BRACE)) {
+          pending.push(new Pending(LEFT_BRACE, line, new ArrayList<>(), null, null));
+        } else if (match(WHILE)) {
+          consume(LEFT_PAREN, "Expect '(' after 'while'.");
+          Expr condition = expression();
+          consume(RIGHT_PAREN, "Expect ')' after condition.");
+          pending.push(new Pending(WHILE, line, null, condition, null));
+        } else if (match(IF)) {
+          consume(LEFT_PAREN, "Expect '(' after 'if'.");
+          Expr condition = expression();
+          consume(RIGHT_PAREN, "Expect ')' after if condition.");
+          pending.push(new Pending(IF, line, null, condition, null));
+        } else if (match(SPAWN)) {
+          pending.push(new Pending(SPAWN, line, null, null, null, previous()));
+        } else if (match(SEND)) {
+          finish(statements, pending, atLine(line, sendStatement()));
+        } else if (match(BREAK, CONTINUE)) {
+          finish(statements, pending, atLine(line, jumpStatement(inLoop(pending))));
+        } else if (match(FOR)) {
+          pending.push(forClauses(line));
+        } else if (match(PRINT)) {
+          finish(statements, pending, atLine(line, printStatement()));
+        } else {
+          finish(statements, pending, atLine(line, expressionStatement()));
+        }
+      } catch (ParseError error) {
+        // same recovery as declaration(): whatever statement we were in the
+        // middle of becomes null in the nearest enclosing block
+        while (!pending.isEmpty() && pending.peek().kind != LEFT_BRACE) {
+          pending.pop();
+        }
+        synchronize();
+        (pending.isEmpty() ? statements : pending.peek().statements).add(null);
+      }
+    }
+
+    return statements;
+  }
+
+  // is the statement about to be parsed in a loop body (and not a spawn's)?
+  private static boolean inLoop(Deque<Pending> pending) {
+    for (Pending outer : pending) {
+      if (outer.kind == WHILE || outer.kind == FOR) return true;
+      if (outer.kind == SPAWN) return false;
+    }
+    return false;
+  }
+
+  // hand a finished statement to whatever is waiting for it, which may finish that too
+  private void finish(List<Stmt> statements, Deque<Pending> pending, Stmt stmt) {
+    for (;;) {
+      Pending top = pending.peek();
+      if (top == null) {
+        statements.add(stmt);
+        return;
+      }
+
+      switch (top.kind) {
+        case LEFT_BRACE:
+          top.statements.add(stmt);
+          return;
+        case WHILE:
+          pending.pop();
+          stmt = atLine(top.line, new Stmt.While(top.condition, stmt));
+          break;
+        case IF:
+          pending.pop();
+          if (match(ELSE)) {
+            pending.push(new Pending(ELSE, top.line, null, top.condition, stmt));
+            return;
+          }
+          stmt = atLine(top.line, new Stmt.If(top.condition, stmt, null));
+          break;
+        case SPAWN:
+          pending.pop();
+          stmt = atLine(top.line, new Stmt.Spawn(top.keyword, stmt));
+          break;
+        case FOR:
+          pending.pop();
+          stmt = atLine(top.line,
+              new Stmt.For(top.initializer, top.condition, top.increment, stmt));
+          break;
+        default: // ELSE
+          pending.pop();
+          stmt = atLine(top.line, new Stmt.If(top.condition, top.thenBranch, stmt));
+          break;
+      }
+    }
+  }
 }
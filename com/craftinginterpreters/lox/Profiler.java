@@ -0,0 +1,179 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/* Sampling profiler for Lox source lines
+ *
+ * JVM profilers only ever show Interpreter.visitBinaryExpr and Environment.get,
+ * which says nothing about *which* Lox statement is hot. Instead:
+ *  - the interpreter pushes every Stmt it executes onto a Slot (one per thread),
+ *    that's just an array store and a counter bump
+ *  - a daemon sampler thread wakes up every `interval` and copies each slot's
+ *    stack, no locking, a torn read only costs us one slightly wrong sample
+ *
+ * Lox has no functions (yet), so the "stack" is statement nesting:
+ * while -> block -> print, etc.
+ *
+ * output: per-line self/total time and a collapsed-stack file
+ * (frame;frame;frame count) that flamegraph.pl / speedscope can load.
+ */
+class Profiler {
+
+  /* the per-thread slot the interpreter publishes into */
+  static final class Slot {
+    private static final VarHandle DEPTH;
+
+    static {
+      try {
+        DEPTH = MethodHandles.lookup().findVarHandle(Slot.class, "depth", int.class);
+      } catch (ReflectiveOperationException error) {
+        throw new ExceptionInInitializerError(error);
+      }
+    }
+
+    private Stmt[] frames = new Stmt[64];
+    private int depth;
+
+    void push(Stmt stmt) {
+      int d = depth;
+      if (d == frames.length) {
+        frames = Arrays.copyOf(frames, d * 2);
+      }
+      frames[d] = stmt;
+
+      // release store: the sampler sees the frame before it sees the new depth
+      DEPTH.setRelease(this, d + 1);
+    }
+
+    void pop() {
+      DEPTH.setRelease(this, depth - 1);
+    }
+
+    // racy copy for the sampler thread, fine for statistics
+    private Stmt[] snapshot() {
+      int d = (int) DEPTH.getAcquire(this);
+      Stmt[] current = frames;
+      if (d > current.length) d = current.length;
+
+      Stmt[] copy = new Stmt[d];
+      System.arraycopy(current, 0, copy, 0, d);
+      return copy;
+    }
+  }
+
+  private final long intervalNanos;
+  private final List<Slot> slots = new CopyOnWriteArrayList<>();
+  private Thread sampler;
+  private volatile boolean running;
+
+  // everything below is only touched by the sampler thread until stop()
+  private long samples = 0;
+  private final Map<Integer, Long> selfSamples = new HashMap<>();
+  private final Map<Integer, Long> totalSamples = new HashMap<>();
+  private final Map<String, Long> stacks = new HashMap<>();
+
+  Profiler(long intervalMicros) {
+    this.intervalNanos = intervalMicros * 1000L;
+  }
+
+  // hand out a slot for an interpreter thread to publish into
+  Slot register() {
+    Slot slot = new Slot();
+    slots.add(slot);
+    return slot;
+  }
+
+  void start() {
+    running = true;
+    sampler = new Thread(this::sampleLoop, "lox-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  void stop() {
+    running = false;
+    try {
+      sampler.join();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sampleLoop() {
+    while (running) {
+      LockSupport.parkNanos(intervalNanos);
+      for (Slot slot : slots) {
+        record(slot.snapshot());
+      }
+    }
+  }
+
+  private void record(Stmt[] stack) {
+    if (stack.length == 0) return;
+    samples++;
+
+    // self time goes to whatever is on top
+    selfSamples.merge(stack[stack.length - 1].line, 1L, Long::sum);
+
+    // total time counts each line once per sample, even if it's nested in itself
+    Set<Integer> seen = new HashSet<>();
+    StringBuilder collapsed = new StringBuilder();
+    for (Stmt frame : stack) {
+      if (seen.add(frame.line)) {
+        totalSamples.merge(frame.line, 1L, Long::sum);
+      }
+      if (collapsed.length() > 0) collapsed.append(';');
+      collapsed.append(frameName(frame));
+    }
+    stacks.merge(collapsed.toString(), 1L, Long::sum);
+  }
+
+  // i.e. "While (line 3)", no ';' allowed since that's the frame separator
+  private static String frameName(Stmt stmt) {
+    return stmt.getClass().getSimpleName() + " (line " + stmt.line + ")";
+  }
+
+  /* human readable table, hottest self time first */
+  void printReport(PrintStream out) {
+    double millisPerSample = intervalNanos / 1_000_000.0;
+    out.println("-- profile: " + samples + " samples, " +
+        (intervalNanos / 1000) + "us interval --");
+    out.printf("%8s %10s %10s%n", "line", "self ms", "total ms");
+
+    List<Map.Entry<Integer, Long>> rows = new ArrayList<>(totalSamples.entrySet());
+    rows.sort((a, b) -> Long.compare(selfSamples.getOrDefault(b.getKey(), 0L),
+                                     selfSamples.getOrDefault(a.getKey(), 0L)));
+    for (Map.Entry<Integer, Long> row : rows) {
+      long self = selfSamples.getOrDefault(row.getKey(), 0L);
+      out.printf("%8d %10.1f %10.1f%n", row.getKey(),
+          self * millisPerSample, row.getValue() * millisPerSample);
+    }
+  }
+
+  /* collapsed stacks, one "frame;frame;frame count" per line */
+  void writeCollapsed(Path path) throws IOException {
+    try (PrintWriter writer = new PrintWriter(
+        Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+      for (Map.Entry<String, Long> stack : new TreeMap<>(stacks).entrySet()) {
+        writer.println(stack.getKey() + " " + stack.getValue());
+      }
+    }
+  }
+}
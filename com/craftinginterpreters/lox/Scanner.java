@@ -17,7 +17,9 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
   private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+
+  // what the last scanToken() produced, null if it was whitespace or a comment
+  private Token scanned = null;
 
   // needed for our token scanner
   private int start = 0;
@@ -28,17 +30,52 @@ class Scanner {
     this.source = source;
   }
 
+  // pick up in the middle of source, see LazyBlock
+  Scanner(String source, int offset, int line) {
+    this.source = source;
+    this.start = offset;
+    this.current = offset;
+    this.line = line;
+  }
+
+  // carry on at offset, which is on the given line (see Parser.skimmedBlock)
+  void jump(int offset, int line) {
+    this.start = offset;
+    this.current = offset;
+    this.line = line;
+    this.scanned = null;
+  }
+
+  String source() {
+    return source;
+  }
+
   // scan through source code, adding tokens until we run out of chars 
   List<Token> scanTokens() {
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = nextToken();
+      tokens.add(token);
+    } while (token.type != EOF);
+    return tokens;
+  }
+
+  // one token at a time for the parser (see TokenSource), EOF once we run out
+  Token nextToken() {
     while (!isAtEnd()) {
-      
+
       // we're at the beginning of the next lexemme
       start = current;
       scanToken();
+      if (scanned != null) {
+        Token token = scanned;
+        scanned = null;
+        return token;
+      }
     }
 
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+    return new Token(EOF, "", null, line, current);
   }
 
   /* 4.5 starts here */
@@ -56,6 +93,8 @@ class Scanner {
       case ')': addToken(RIGHT_PAREN); break;
       case '{': addToken(LEFT_BRACE); break;
       case '}': addToken(RIGHT_BRACE); break;
+      case '[': addToken(LEFT_BRACKET); break;
+      case ']': addToken(RIGHT_BRACKET); break;
       case ',': addToken(COMMA); break;
       case '.': addToken(DOT); break;
       case '-': addToken(MINUS); break;
@@ -152,10 +191,10 @@ class Scanner {
   }
 
   // actual method for creating new token 
-  // adds token to list of all tokens
+  // hands it to nextToken(), which gives it to whoever is pulling
   private void addToken(TokenType type, Object literal) {
     String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    scanned = new Token(type, text, literal, line, start);
   }
 
   /* 
@@ -320,6 +359,16 @@ class Scanner {
     keywords.put("true",   TRUE);
     keywords.put("var",    VAR);
     keywords.put("while",  WHILE);
+
+    // workers & channels
+    keywords.put("spawn",   SPAWN);
+    keywords.put("send",    SEND);
+    keywords.put("receive", RECEIVE);
+    keywords.put("channel", CHANNEL);
+
+    // loops
+    keywords.put("break",    BREAK);
+    keywords.put("continue", CONTINUE);
   }
 
   // challenge: c-style comment, based on string(), does not support nesting!
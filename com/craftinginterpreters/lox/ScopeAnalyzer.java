@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/* Static pass run between parsing and interpreting
+ *
+ * for every block, count the variables it declares directly (nested blocks get
+ * their own count) and store it in Stmt.Block.slots. the interpreter uses it to:
+ *  - skip creating an Environment for blocks that declare nothing
+ *  - size the environment exactly for blocks that do
+ *
+ * this is the same spot the book's Resolver will sit in later (chapter 11).
+ *
+ * statements still to look at go on a worklist instead of the Java stack, so
+ * blocks nested arbitrarily deep (see Parser's flat mode) don't overflow it.
+ */
+class ScopeAnalyzer implements Stmt.Visitor<Void> {
+  private final Deque<Stmt> worklist = new ArrayDeque<>();
+
+  void analyze(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      analyze(statement);
+    }
+
+    while (!worklist.isEmpty()) {
+      worklist.pop().accept(this);
+    }
+  }
+
+  // a block the pass didn't get to: a --lazy body, which gets parsed here (the
+  // first look at its statements does that), or a tree that skipped the pass
+  static void analyzeLate(Stmt.Block block) {
+    block.statements.size();
+    new ScopeAnalyzer().analyze(List.of(block));
+  }
+
+  private void analyze(Stmt stmt) {
+    // parse errors leave nulls behind in the statement list
+    if (stmt != null) worklist.push(stmt);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    // a --lazy block that hasn't been parsed keeps slots = -1, the interpreter
+    // analyzes it when it gets there (analyzeLate)
+    if (LazyBlock.pending(stmt.statements)) return null;
+
+    int slots = 0;
+    for (Stmt statement : stmt.statements) {
+      if (Instrumenter.unwrap(statement) instanceof Stmt.Var) slots++;
+      analyze(statement);
+    }
+
+    stmt.slots = slots;
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    analyze(stmt.thenBranch);
+    analyze(stmt.elseBranch);
+    return null;
+  }
+
+  // the loop variable gets a scope of its own, see Interpreter.enterFor
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    analyze(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    analyze(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    analyze(stmt.inner);
+    return null;
+  }
+
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    analyze(stmt.body);
+    return null;
+  }
+
+  // nothing below can contain a block
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    return null;
+  }
+}
@@ -0,0 +1,242 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/* `jlox --server=SOCKET`: a warm JVM that runs scripts sent over a unix socket
+ *
+ * a cold `jlox script.lox` pays JVM startup and then runs the interpreter in
+ * the bytecode interpreter until the JIT catches up, which for a short script
+ * is most of the time it takes. the server pays that once (and runs a warm-up
+ * script so the hot paths are already compiled) and then takes requests.
+ *
+ * protocol, all ints big endian (DataInput/DataOutput):
+ *   request   kind byte (PATH or SOURCE), int length, utf-8 bytes
+ *   response  any number of  stream byte (STDOUT or STDERR), int length, bytes
+ *             then  EXIT, int exit code  (0, 65, 70 like runFile; 66 = can't read;
+ *             64 = bad request)
+ * output is sent while the script runs, one frame per line or so. a request
+ * with an unknown kind or a length outside 0..MAX_REQUEST_BYTES gets an error
+ * frame and exit 64 without anything being allocated for it.
+ *
+ * every script gets a fresh Interpreter and fresh error flags (Lox.runIsolated),
+ * so nothing carries over between requests. requests are handled one at a
+ * time: the interpreter reports through System.out/err and Lox's static error
+ * state, and those get pointed at the current client. so a client that
+ * connects and then sends nothing would hold up everyone behind it, it gets
+ * REQUEST_TIMEOUT_MILLIS to get its request in.
+ */
+class Server {
+  static final byte PATH = 'P';
+  static final byte SOURCE = 'S';
+  static final byte STDOUT = 1;
+  static final byte STDERR = 2;
+  static final byte EXIT = 'X';
+
+  static final int BAD_REQUEST = 64;
+  static final int CANNOT_READ = 66;
+
+  static final int MAX_REQUEST_BYTES = 64 << 20;
+  static final long REQUEST_TIMEOUT_MILLIS = 10_000;
+
+  // closes a connection that's taking too long over its request, see handle
+  private static final ScheduledExecutorService TIMER =
+      Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "lox-server-timer");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  // exercised a few times at startup so the interpreter is JIT compiled already
+  private static final String WARM_UP =
+      "var i = 0; var text = \"\"; var sum = 0;\n" +
+      "while (i < 20000) {\n" +
+      "  var half = i / 2;\n" +
+      "  if (i < 10 or i == 100) { text = text + \"n\" + half; print text; }\n" +
+      "  { var inner = half * 3 - 1; sum = sum + inner; }\n" +
+      "  i = i + 1;\n" +
+      "}\n" +
+      "print sum; print !true and nil == nil;\n";
+  private static final int WARM_UP_RUNS = 20;
+
+  static void serve(Path socket) throws IOException {
+    Files.deleteIfExists(socket);
+
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException ignored) {
+          // going away anyway
+        }
+      }));
+
+      long start = System.nanoTime();
+      warmUp();
+      System.err.printf("jlox server on %s (warm-up %.1f ms)%n",
+          socket, (System.nanoTime() - start) / 1e6);
+
+      for (;;) {
+        try (SocketChannel client = server.accept()) {
+          handle(client);
+        } catch (IOException error) {
+          System.err.println("jlox server: " + error.getMessage());
+        } catch (RuntimeException | Error error) {
+          // out of memory and the like, that client is lost but the server isn't
+          System.err.print("jlox server: ");
+          error.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private static void warmUp() {
+    PrintStream out = System.out;
+    PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    System.setOut(discard);
+    try {
+      for (int i = 0; i < WARM_UP_RUNS; i++) {
+        Lox.runIsolated(WARM_UP);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+  private static void handle(SocketChannel client) throws IOException {
+    DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(client)));
+
+    // unix domain channels don't do SO_TIMEOUT, and closing the channel is the
+    // one thing that gets a blocked read out, so that's what the timeout does
+    ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+      try {
+        client.close();
+      } catch (IOException ignored) {
+        // the read fails either way
+      }
+    }, REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+    byte kind;
+    byte[] payload;
+    try {
+      kind = in.readByte();
+      int length = in.readInt();
+      if (kind != PATH && kind != SOURCE) {
+        refuse(out, "Unknown request kind " + kind + ".");
+        return;
+      }
+      if (length < 0 || length > MAX_REQUEST_BYTES) {
+        refuse(out, "Request length " + length + " is out of range.");
+        return;
+      }
+      payload = new byte[length];
+      in.readFully(payload);
+    } catch (AsynchronousCloseException error) {
+      throw new IOException("no request within " + REQUEST_TIMEOUT_MILLIS + " ms");
+    } finally {
+      timeout.cancel(false);
+    }
+    String text = new String(payload, StandardCharsets.UTF_8);
+
+    long start = System.nanoTime();
+    PrintStream stdout = new PrintStream(
+        new BufferedOutputStream(new Frames(out, STDOUT)), true);
+    PrintStream stderr = new PrintStream(
+        new BufferedOutputStream(new Frames(out, STDERR)), true);
+    PrintStream serverOut = System.out;
+    PrintStream serverErr = System.err;
+
+    int status;
+    System.setOut(stdout);
+    System.setErr(stderr);
+    try {
+      String source = text;
+      if (kind == PATH) {
+        // same decoding as runFile
+        source = new String(Files.readAllBytes(Paths.get(text)), Charset.defaultCharset());
+      }
+      status = Lox.runIsolated(source);
+    } catch (IOException error) {
+      stderr.println("Could not read " + text + ": " + error.getMessage());
+      status = CANNOT_READ;
+    } catch (RuntimeException | StackOverflowError error) {
+      // a bug in the interpreter shouldn't take the server down with it
+      error.printStackTrace(stderr);
+      status = 70;
+    } finally {
+      stdout.flush();
+      stderr.flush();
+      System.setOut(serverOut);
+      System.setErr(serverErr);
+    }
+
+    synchronized (out) {
+      out.writeByte(EXIT);
+      out.writeInt(status);
+      out.flush();
+    }
+
+    System.err.printf("%s: exit %d in %.2f ms%n",
+        kind == PATH ? text : "<source>", status, (System.nanoTime() - start) / 1e6);
+  }
+
+  // a request we won't run gets the reason on stderr and exit 64
+  private static void refuse(DataOutputStream out, String message) throws IOException {
+    byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    new Frames(out, STDERR).write(bytes, 0, bytes.length);
+    out.writeByte(EXIT);
+    out.writeInt(BAD_REQUEST);
+    out.flush();
+    System.err.println("jlox server: " + message);
+  }
+
+  // an OutputStream that sends everything written to it as frames of one stream
+  private static final class Frames extends OutputStream {
+    private final DataOutputStream out;
+    private final byte stream;
+
+    Frames(DataOutputStream out, byte stream) {
+      this.out = out;
+      this.stream = stream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    // workers print from their own threads, stdout and stderr share the socket
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) return;
+      synchronized (out) {
+        out.writeByte(stream);
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* The globals a prelude left behind, saved so later runs can skip the prelude
+ *
+ *   jlox --save-snapshot=prelude.snap prelude.lox
+ *   jlox --snapshot=prelude.snap script.lox
+ *
+ * only values that mean the same thing in another run can be saved: numbers,
+ * strings, booleans and nil. a channel belongs to the run that made it, so a
+ * prelude that leaves one in a global can't be snapshotted, and neither can
+ * one that leaves an array (every run would share it, and it's mutable).
+ * a global that still holds the native it started with (see Natives.java)
+ * isn't saved, every run defines those itself before restoring the rest. a
+ * native in any other variable is refused like a channel.
+ *
+ * file layout, big endian:
+ *   int MAGIC, byte VERSION, int variable count
+ *   per variable: name, tag byte, value
+ *     NIL / TRUE / FALSE have no value, NUMBER is 8 bytes of double bits,
+ *     STRING is a string
+ *   strings are int length + UTF-8 bytes
+ *
+ * the count is what loading needs to size the globals up front (see the
+ * Environment capacity constructor), so a big prelude goes straight into a
+ * right-sized HashMap instead of growing into one. the file is decoded once into
+ * flat arrays, and every interpreter after that gets its globals from
+ * restore(): one define() per variable. the values themselves are immutable,
+ * so all the restored environments share them.
+ */
+class Snapshot {
+  static final int MAGIC = 0x4c4f5853; // "LOXS"
+  static final byte VERSION = 1;
+
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+
+  // the smallest a variable can be: name length (an empty name, say) and a NIL tag
+  private static final int MIN_ENTRY = 4 + 1;
+
+  private final String[] names;
+  private final Object[] values;
+
+  private Snapshot(String[] names, Object[] values) {
+    this.names = names;
+    this.values = values;
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  // fresh globals for one interpreter
+  Environment restore() {
+    Environment globals = Natives.globals(names.length);
+    for (int i = 0; i < names.length; i++) {
+      globals.define(names[i], values[i]);
+    }
+    return globals;
+  }
+
+  static void write(Environment globals, Path path) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+
+    int[] count = { 0 };
+    globals.forEachVariable((name, value) -> {
+      if (!Natives.isBuiltIn(name, value)) count[0]++;
+    });
+    out.writeInt(count[0]);
+
+    // an IOException can't come out of the lambda, so remember the first problem
+    String[] unsupported = { null };
+    globals.forEachVariable((name, value) -> {
+      if (unsupported[0] != null || Natives.isBuiltIn(name, value)) return;
+      if (!(value == null || value instanceof Boolean ||
+            value instanceof Double || value instanceof String)) {
+        unsupported[0] = name;
+        return;
+      }
+      try {
+        writeString(out, name);
+        writeValue(out, value);
+      } catch (IOException error) {
+        throw new IllegalStateException(error); // can't happen, it's all in memory
+      }
+    });
+    if (unsupported[0] != null) {
+      throw new IOException("global '" + unsupported[0] + "' holds a value that" +
+          " only lives as long as the run.");
+    }
+
+    Files.write(path, bytes.toByteArray());
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NIL);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Double) {
+      out.writeByte(NUMBER);
+      out.writeLong(Double.doubleToRawLongBits((Double) value));
+    } else {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String text) throws IOException {
+    byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  static Snapshot read(Path path) throws IOException {
+    ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+    try {
+      if (in.getInt() != MAGIC) throw new IOException("not a jlox snapshot.");
+      byte version = in.get();
+      if (version != VERSION) {
+        throw new IOException("snapshot version " + version + ", expected " + VERSION + ".");
+      }
+
+      // every entry takes at least MIN_ENTRY bytes, so a count bigger than the
+      // rest of the file could hold is corrupt, checked before it sizes anything
+      int count = in.getInt();
+      if (count < 0 || count > in.remaining() / MIN_ENTRY) {
+        throw new IOException("corrupt snapshot.");
+      }
+      String[] names = new String[count];
+      Object[] values = new Object[count];
+      for (int i = 0; i < count; i++) {
+        names[i] = readString(in);
+        values[i] = readValue(in);
+      }
+      return new Snapshot(names, values);
+    } catch (BufferUnderflowException error) {
+      throw new IOException("snapshot is truncated.");
+    }
+  }
+
+  private static Object readValue(ByteBuffer in) throws IOException {
+    byte tag = in.get();
+    switch (tag) {
+      case NIL: return null;
+      case FALSE: return false;
+      case TRUE: return true;
+      case NUMBER: return Double.longBitsToDouble(in.getLong());
+      case STRING: return readString(in);
+    }
+    throw new IOException("corrupt snapshot (value tag " + tag + ").");
+  }
+
+  private static String readString(ByteBuffer in) throws IOException {
+    int length = in.getInt();
+    if (length < 0 || length > in.remaining()) throw new IOException("corrupt snapshot.");
+    String text = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+    in.position(in.position() + length);
+    return text;
+  }
+}
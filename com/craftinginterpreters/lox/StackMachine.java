@@ -0,0 +1,574 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/* Explicit-stack evaluator for very deeply nested code
+ *
+ * Interpreter.evaluate()/execute() recurse through accept() on the Java stack,
+ * so a machine generated 200k-term `a + b + c + ...` chain (a left-leaning
+ * tree 200k deep) or blocks nested a few thousand levels deep overflow it.
+ *
+ * the Interpreter counts how deep it is, and past Interpreter.MAX_DEPTH hands
+ * the rest of that subtree to this class. here every node gets a frame on a
+ * heap allocated work stack together with a small state number ("which child
+ * are we waiting on"), and the visit methods do exactly one step each instead
+ * of recursing. the children's values pile up on a value stack, so it's the
+ * postorder walk a bytecode VM would do, just without compiling first.
+ *
+ * normal code never gets this deep, so it keeps the plain recursive visitor.
+ * all of the actual semantics (operators, truthiness, variables, budgets) still
+ * live in the Interpreter; this class only decides the order.
+ */
+class StackMachine implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Interpreter interpreter;
+
+  // expressions waiting to be finished, and how far along each one is
+  private Expr[] exprs = new Expr[64];
+  private int[] exprStates = new int[64];
+  private int exprTop = 0;
+
+  // values of finished subexpressions
+  private Object[] values = new Object[64];
+  private int valueTop = 0;
+
+  // statements waiting to be finished, how far along they are, and for blocks
+  // the environment to go back to once they're done
+  private Stmt[] stmts = new Stmt[64];
+  private int[] stmtStates = new int[64];
+  private Environment[] saved = new Environment[64];
+  private int stmtTop = 0;
+
+  // where the current execute() started, break/continue don't unwind past it
+  private int stmtBase = 0;
+
+  StackMachine(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  /* entry points, both can be re-entered (a statement evaluates its condition
+   * through here while the statement itself is on the stack), so everything
+   * works relative to where the stacks were when we got called
+   */
+  Object evaluate(Expr expr) {
+    int base = exprTop;
+    int valueBase = valueTop;
+    pushExpr(expr);
+
+    try {
+      while (exprTop > base) {
+        exprs[exprTop - 1].accept(this);
+      }
+    } catch (RuntimeException error) {
+      Arrays.fill(exprs, base, exprTop, null);
+      Arrays.fill(values, valueBase, valueTop, null);
+      exprTop = base;
+      valueTop = valueBase;
+      throw error;
+    }
+
+    return popValue();
+  }
+
+  void execute(Stmt stmt) {
+    int base = stmtTop;
+    int outerBase = stmtBase;
+    stmtBase = base;
+    pushStmt(stmt);
+
+    try {
+      while (stmtTop > base) {
+        stmts[stmtTop - 1].accept(this);
+      }
+    } catch (RuntimeException error) {
+      // put back every environment the blocks we're abandoning swapped in,
+      // innermost first so the outermost one wins
+      while (stmtTop > base) {
+        Environment previous = saved[stmtTop - 1];
+        if (previous != null) interpreter.leaveBlock(previous);
+        popStmt();
+      }
+      throw error;
+    } finally {
+      stmtBase = outerBase;
+    }
+  }
+
+  private void pushExpr(Expr expr) {
+    if (exprTop == exprs.length) {
+      exprs = Arrays.copyOf(exprs, exprTop * 2);
+      exprStates = Arrays.copyOf(exprStates, exprTop * 2);
+    }
+    exprs[exprTop] = expr;
+    exprStates[exprTop] = 0;
+    exprTop++;
+  }
+
+  private void popExpr() {
+    exprs[--exprTop] = null;
+  }
+
+  // state of the expression currently on top
+  private int exprState() {
+    return exprStates[exprTop - 1];
+  }
+
+  private void setExprState(int state) {
+    exprStates[exprTop - 1] = state;
+  }
+
+  private void pushValue(Object value) {
+    if (valueTop == values.length) {
+      values = Arrays.copyOf(values, valueTop * 2);
+    }
+    values[valueTop++] = value;
+  }
+
+  private Object popValue() {
+    Object value = values[--valueTop];
+    values[valueTop] = null;
+    return value;
+  }
+
+  private void pushStmt(Stmt stmt) {
+    if (stmtTop == stmts.length) {
+      stmts = Arrays.copyOf(stmts, stmtTop * 2);
+      stmtStates = Arrays.copyOf(stmtStates, stmtTop * 2);
+      saved = Arrays.copyOf(saved, stmtTop * 2);
+    }
+    stmts[stmtTop] = stmt;
+    stmtStates[stmtTop] = 0;
+    saved[stmtTop] = null;
+    stmtTop++;
+
+    Profiler.Slot slot = interpreter.profilerSlot();
+    if (slot != null) slot.push(stmt);
+    Coverage.Hits coverage = interpreter.coverage();
+    if (coverage != null) coverage.hit(stmt.coverage);
+  }
+
+  private void popStmt() {
+    stmtTop--;
+    stmts[stmtTop] = null;
+    saved[stmtTop] = null;
+
+    Profiler.Slot slot = interpreter.profilerSlot();
+    if (slot != null) slot.pop();
+  }
+
+  // a branch point's outcome for --coverage, if it's on
+  private void branch(int id, boolean taken) {
+    Coverage.Hits coverage = interpreter.coverage();
+    if (coverage != null) coverage.branch(id, taken);
+  }
+
+  /* expressions, one step per call */
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.value);
+      return null;
+    }
+
+    // the assigned value stays on the value stack as our result
+    popExpr();
+    interpreter.assignVariable(expr.name, values[valueTop - 1]);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    switch (exprState()) {
+      case 0:
+        setExprState(1);
+        pushExpr(expr.left);
+        return null;
+      case 1:
+        setExprState(2);
+        pushExpr(expr.right);
+        return null;
+    }
+
+    popExpr();
+    Object right = popValue();
+    Object left = popValue();
+    pushValue(interpreter.binary(expr.operator, left, right));
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.expression);
+      return null;
+    }
+
+    popExpr();
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    popExpr();
+    pushValue(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    switch (exprState()) {
+      case 0:
+        setExprState(1);
+        pushExpr(expr.left);
+        return null;
+      case 1: {
+        // short circuit: the left value is the result and stays where it is
+        boolean truthy = interpreter.isTruthy(values[valueTop - 1]);
+        boolean decided = expr.operator.type == TokenType.OR ? truthy : !truthy;
+        branch(expr.coverage, !decided);
+        if (decided) {
+          popExpr();
+          return null;
+        }
+
+        popValue();
+        setExprState(2);
+        pushExpr(expr.right);
+        return null;
+      }
+    }
+
+    // the right value is the result
+    popExpr();
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.right);
+      return null;
+    }
+
+    popExpr();
+    pushValue(interpreter.unary(expr.operator, popValue()));
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    popExpr();
+    pushValue(interpreter.lookUp(expr.name));
+    return null;
+  }
+
+  @Override
+  public Void visitChannelExpr(Expr.Channel expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.capacity);
+      return null;
+    }
+
+    popExpr();
+    pushValue(interpreter.channel(expr.keyword, popValue()));
+    return null;
+  }
+
+  @Override
+  public Void visitReceiveExpr(Expr.Receive expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.channel);
+      return null;
+    }
+
+    popExpr();
+    pushValue(interpreter.receive(expr.keyword, popValue()));
+    return null;
+  }
+
+  // the array goes on the value stack first, each element is added to it as
+  // soon as it's done, and what's left at the end is the result
+  @Override
+  public Void visitArrayExpr(Expr.Array expr) {
+    int state = exprState();
+    if (state == 0) {
+      pushValue(interpreter.newArray(expr.bracket, expr.elements.size()));
+    } else {
+      Object element = popValue();
+      interpreter.append(expr.bracket, (LoxArray) values[valueTop - 1], element);
+    }
+
+    if (state < expr.elements.size()) {
+      setExprState(state + 1);
+      pushExpr(expr.elements.get(state));
+      return null;
+    }
+
+    popExpr();
+    return null;
+  }
+
+  // the callee and then each argument go on the value stack, the call pops them all
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    int state = exprState();
+    if (state <= expr.arguments.size()) {
+      setExprState(state + 1);
+      pushExpr(state == 0 ? expr.callee : expr.arguments.get(state - 1));
+      return null;
+    }
+
+    popExpr();
+    Object[] arguments = new Object[expr.arguments.size()];
+    for (int i = arguments.length - 1; i >= 0; i--) arguments[i] = popValue();
+    Object callee = popValue();
+    pushValue(interpreter.call(expr.paren, callee, arguments));
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    switch (exprState()) {
+      case 0:
+        setExprState(1);
+        pushExpr(expr.object);
+        return null;
+      case 1:
+        setExprState(2);
+        pushExpr(expr.index);
+        return null;
+    }
+
+    popExpr();
+    Object index = popValue();
+    Object object = popValue();
+    pushValue(interpreter.index(expr.bracket, object, index));
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    switch (exprState()) {
+      case 0:
+        setExprState(1);
+        pushExpr(expr.object);
+        return null;
+      case 1:
+        setExprState(2);
+        pushExpr(expr.index);
+        return null;
+      case 2:
+        setExprState(3);
+        pushExpr(expr.value);
+        return null;
+    }
+
+    popExpr();
+    Object value = popValue();
+    Object index = popValue();
+    Object object = popValue();
+    pushValue(interpreter.setIndex(expr.bracket, object, index, value));
+    return null;
+  }
+
+  @Override
+  public Void visitTracedExpr(Expr.Traced expr) {
+    if (exprState() == 0) {
+      setExprState(1);
+      pushExpr(expr.inner);
+      return null;
+    }
+
+    popExpr();
+    Object value = popValue();
+    expr.listener.value(Instrumenter.unwrap(expr.inner), value, expr.line);
+    pushValue(value);
+    return null;
+  }
+
+  /* statements, one step per call */
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    int top = stmtTop - 1;
+    int state = stmtStates[top];
+
+    // state is 1 + the index of the next statement to run, 0 = not entered yet
+    if (state == 0) {
+      saved[top] = interpreter.enterBlock(stmt);
+      state = 1;
+    }
+
+    int index = state - 1;
+    if (index < stmt.statements.size()) {
+      stmtStates[top] = state + 1;
+      pushStmt(stmt.statements.get(index));
+      return null;
+    }
+
+    interpreter.leaveBlock(saved[top]);
+    popStmt();
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    // the branch simply takes our place on the stack
+    popStmt();
+    boolean truthy = interpreter.isTruthy(evaluate(stmt.condition));
+    branch(stmt.coverage, truthy);
+    if (truthy) {
+      pushStmt(stmt.thenBranch);
+    } else if (stmt.elseBranch != null) {
+      pushStmt(stmt.elseBranch);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int top = stmtTop - 1;
+
+    // state 1 = the body just finished, i.e. we're on the back-edge
+    if (stmtStates[top] == 1) {
+      interpreter.budget().step(stmt.line);
+    }
+
+    boolean truthy = interpreter.isTruthy(evaluate(stmt.condition));
+    branch(stmt.coverage, truthy);
+    if (truthy) {
+      stmtStates[top] = 1;
+      pushStmt(stmt.body);
+    } else {
+      popStmt();
+    }
+    return null;
+  }
+
+  // always the general loop, code nested this deep isn't where counted loops are
+  @Override
+  public Void visitForStmt(Stmt.For stmt) {
+    int top = stmtTop - 1;
+    int state = stmtStates[top];
+
+    // state 0 = not entered, 1 = initializer done, 2 = the body just finished
+    if (state == 0) {
+      saved[top] = interpreter.enterFor(stmt);
+      stmtStates[top] = 1;
+      if (stmt.initializer != null) pushStmt(stmt.initializer);
+      return null;
+    }
+
+    if (state == 2) {
+      interpreter.budget().step(stmt.line);
+      if (stmt.increment != null) evaluate(stmt.increment);
+    }
+
+    boolean truthy = stmt.condition == null || interpreter.isTruthy(evaluate(stmt.condition));
+    branch(stmt.coverage, truthy);
+    if (truthy) {
+      stmtStates[top] = 2;
+      pushStmt(stmt.body);
+    } else {
+      interpreter.leaveBlock(saved[top]);
+      popStmt();
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    Stmt inner = Instrumenter.unwrap(stmt.inner);
+    int top = stmtTop - 1;
+    if (stmtStates[top] == 0) {
+      stmt.listener.enter(inner, interpreter.environment());
+      stmtStates[top] = 1;
+      pushStmt(stmt.inner);
+      return null;
+    }
+
+    popStmt();
+    stmt.listener.exit(inner, interpreter.environment());
+    return null;
+  }
+
+  /* break and continue: drop every statement above the innermost loop, the
+   * way finishing them would. the loop on top then goes on from its back-edge
+   * (continue), or is dropped as well (break). if the loop isn't on our stack
+   * (this execute() started inside its body) the interpreter gets the jump
+   * once we've unwound everything, see Interpreter.complete()
+   */
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    popStmt();
+    jump(Interpreter.BREAK);
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    popStmt();
+    jump(Interpreter.CONTINUE);
+    return null;
+  }
+
+  private void jump(int completion) {
+    while (stmtTop > stmtBase) {
+      int top = stmtTop - 1;
+      Stmt stmt = stmts[top];
+      boolean loop = stmt instanceof Stmt.While || stmt instanceof Stmt.For;
+      if (loop && completion == Interpreter.CONTINUE) return;
+
+      if (saved[top] != null) interpreter.leaveBlock(saved[top]);
+      if (stmt instanceof Stmt.Traced) {
+        Stmt.Traced traced = (Stmt.Traced) stmt;
+        traced.listener.exit(Instrumenter.unwrap(traced.inner), interpreter.environment());
+      }
+      popStmt();
+      if (loop) return;
+    }
+    interpreter.complete(completion);
+  }
+
+  // these don't nest statements, so the interpreter can run them directly
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    popStmt();
+    interpreter.visitExpressionStmt(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    popStmt();
+    interpreter.visitPrintStmt(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    popStmt();
+    interpreter.visitVarStmt(stmt);
+    return null;
+  }
+
+  @Override
+  public Void visitSendStmt(Stmt.Send stmt) {
+    popStmt();
+    interpreter.visitSendStmt(stmt);
+    return null;
+  }
+
+  // the body runs in a worker of its own, nothing to nest here either
+  @Override
+  public Void visitSpawnStmt(Stmt.Spawn stmt) {
+    popStmt();
+    interpreter.visitSpawnStmt(stmt);
+    return null;
+  }
+}
@@ -0,0 +1,200 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Numbers behind `jlox --stats`
+ *
+ * for each phase of a run (scan, parse, analyze, interpret) we record:
+ *  - wall time
+ *  - bytes allocated by this thread (ThreadMXBean.getThreadAllocatedBytes)
+ *  - environments created and variable lookups done by the interpreter
+ * plus the token count and the AST node count per node type.
+ *
+ * the parser pulls its tokens from the scanner as it goes, so the two run
+ * interleaved. scan is the time and allocation inside the scanner's
+ * nextToken(), clocked token by token (see Scanning), and parse is the rest.
+ *
+ * printed either as a table for people or as one JSON object for dashboards.
+ */
+class Stats {
+  // one row of the report, phases with the same name (REPL lines) add up
+  private static final class Phase {
+    long nanos;
+    long bytes;
+    long environments;
+    long lookups;
+  }
+
+  private final Interpreter interpreter;
+  private final com.sun.management.ThreadMXBean threads;
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+  private long tokens = 0;
+  private final NodeCounter nodes = new NodeCounter();
+
+  // snapshot taken when the current phase began
+  private String current;
+  private long startNanos;
+  private long startBytes;
+  private long startEnvironments;
+  private long startLookups;
+
+  Stats(Interpreter interpreter) {
+    this.interpreter = interpreter;
+
+    // the allocation counter is a HotSpot extension, fall back to "unknown" (-1)
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean &&
+        ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      this.threads = (com.sun.management.ThreadMXBean) bean;
+      this.threads.setThreadAllocatedMemoryEnabled(true);
+    } else {
+      this.threads = null;
+    }
+  }
+
+  void begin(String phase) {
+    current = phase;
+    startEnvironments = interpreter.environmentsCreated();
+    startLookups = interpreter.variableLookups();
+    startBytes = allocatedBytes();
+    startNanos = System.nanoTime();
+  }
+
+  void end() {
+    long nanos = System.nanoTime() - startNanos;
+    long bytes = allocatedBytes() - startBytes;
+    add(current, nanos, bytes);
+  }
+
+  // end() for the parse, with what scanning took moved out into its own "scan" row
+  void end(Scanning scanning) {
+    long nanos = System.nanoTime() - startNanos;
+    long bytes = allocatedBytes() - startBytes;
+
+    Phase scan = phases.computeIfAbsent("scan", name -> new Phase());
+    scan.nanos += scanning.nanos;
+    scan.bytes += scanning.bytes;
+    add(current, nanos - scanning.nanos, bytes - scanning.bytes);
+  }
+
+  private void add(String name, long nanos, long bytes) {
+    Phase phase = phases.computeIfAbsent(name, key -> new Phase());
+    phase.nanos += nanos;
+    phase.bytes += bytes;
+    phase.environments += interpreter.environmentsCreated() - startEnvironments;
+    phase.lookups += interpreter.variableLookups() - startLookups;
+  }
+
+  // a Scanning that counts allocation too, if this JVM can
+  Scanning scanning(TokenSource.Lexer lexer) {
+    return new Scanning(lexer, threads);
+  }
+
+  /* The scanner's share of the parse
+   *
+   * sits between the scanner and the TokenSource and clocks every nextToken().
+   * that's two nanoTime() calls a token, and two allocation counter reads when
+   * there's a ThreadMXBean, so it's only put there when someone reports the
+   * numbers (--stats, or a recording with lox.Scan on). the clocking isn't
+   * free: on a big file scan + parse come out a good deal slower than the
+   * parse runs without it, the counter reads mostly landing in parse. good for
+   * comparing runs with each other, not for the absolute cost of a parse.
+   */
+  static final class Scanning implements TokenSource.Lexer {
+    private final TokenSource.Lexer lexer;
+    private final com.sun.management.ThreadMXBean threads; // null = time only
+    long nanos = 0;
+    long bytes = 0;
+
+    Scanning(TokenSource.Lexer lexer, com.sun.management.ThreadMXBean threads) {
+      this.lexer = lexer;
+      this.threads = threads;
+    }
+
+    @Override
+    public Token next() {
+      long startBytes = threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      Token token = lexer.next();
+      nanos += System.nanoTime() - start;
+      if (threads != null) bytes += threads.getCurrentThreadAllocatedBytes() - startBytes;
+      return token;
+    }
+  }
+
+  void countTokens(long count) {
+    tokens += count;
+  }
+
+  void countNodes(List<Stmt> statements) {
+    nodes.count(statements);
+  }
+
+  private long allocatedBytes() {
+    if (threads == null) return -1;
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /* table for humans */
+  void printHuman(PrintStream out) {
+    out.println("-- stats --");
+    out.printf("%-10s %10s %14s %12s %12s%n",
+        "phase", "wall ms", "alloc bytes", "envs", "lookups");
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      out.printf("%-10s %10.3f %14d %12d %12d%n", entry.getKey(),
+          phase.nanos / 1_000_000.0, phase.bytes,
+          phase.environments, phase.lookups);
+    }
+
+    LoopCompiler loops = interpreter.loopCompiler();
+    if (loops != null) {
+      out.println("loops compiled: " + loops.compiledCount() +
+          ", deoptimized: " + loops.deoptCount());
+    }
+    out.println("tokens: " + tokens);
+    out.println("ast nodes: " + nodes.total());
+    for (Map.Entry<String, Long> entry : nodes.counts().entrySet()) {
+      out.printf("  %-12s %d%n", entry.getKey(), entry.getValue());
+    }
+  }
+
+  /* the same numbers as a single JSON object, i.e. for dashboards */
+  void printJson(PrintStream out) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"phases\":{");
+
+    boolean first = true;
+    for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+      Phase phase = entry.getValue();
+      if (!first) json.append(',');
+      first = false;
+      json.append('"').append(entry.getKey()).append("\":{")
+          .append("\"wallNanos\":").append(phase.nanos)
+          .append(",\"allocatedBytes\":").append(phase.bytes)
+          .append(",\"environments\":").append(phase.environments)
+          .append(",\"lookups\":").append(phase.lookups)
+          .append('}');
+    }
+
+    json.append('}');
+    LoopCompiler loops = interpreter.loopCompiler();
+    if (loops != null) {
+      json.append(",\"loops\":{\"compiled\":").append(loops.compiledCount())
+          .append(",\"deoptimized\":").append(loops.deoptCount()).append('}');
+    }
+    json.append(",\"tokens\":").append(tokens);
+    json.append(",\"nodes\":{\"total\":").append(nodes.total());
+    for (Map.Entry<String, Long> entry : nodes.counts().entrySet()) {
+      json.append(",\"").append(entry.getKey()).append("\":").append(entry.getValue());
+    }
+    json.append("}}");
+
+    out.println(json);
+  }
+}
@@ -5,24 +5,58 @@ import java.util.List;
 abstract class Stmt {
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
+    R visitBreakStmt(Break stmt);
+    R visitContinueStmt(Continue stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
+    R visitSendStmt(Send stmt);
+    R visitSpawnStmt(Spawn stmt);
+    R visitTracedStmt(Traced stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
   }
+
+  int line;
+  int coverage = -1; // set by analysis
   static class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
 
     final List<Stmt> statements;
+    int slots = -1; // set by analysis
 
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
   }
+  static class Break extends Stmt {
+    Break(Token keyword) {
+      this.keyword = keyword;
+    }
+
+    final Token keyword;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBreakStmt(this);
+    }
+  }
+  static class Continue extends Stmt {
+    Continue(Token keyword) {
+      this.keyword = keyword;
+    }
+
+    final Token keyword;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitContinueStmt(this);
+    }
+  }
   static class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
@@ -35,6 +69,25 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
   }
+  static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+    CountedLoop counted = null; // set by analysis
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+  }
   static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
@@ -63,6 +116,50 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
   }
+  static class Send extends Stmt {
+    Send(Token keyword, Expr channel, Expr value) {
+      this.keyword = keyword;
+      this.channel = channel;
+      this.value = value;
+    }
+
+    final Token keyword;
+    final Expr channel;
+    final Expr value;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSendStmt(this);
+    }
+  }
+  static class Spawn extends Stmt {
+    Spawn(Token keyword, Stmt body) {
+      this.keyword = keyword;
+      this.body = body;
+    }
+
+    final Token keyword;
+    final Stmt body;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSpawnStmt(this);
+    }
+  }
+  static class Traced extends Stmt {
+    Traced(Stmt inner, Instrumenter.Listener listener) {
+      this.inner = inner;
+      this.listener = listener;
+    }
+
+    final Stmt inner;
+    final Instrumenter.Listener listener;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitTracedStmt(this);
+    }
+  }
   static class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+sealed interface StmtNode permits StmtNode.Block, StmtNode.Break, StmtNode.Continue, StmtNode.Expression, StmtNode.For, StmtNode.If, StmtNode.Print, StmtNode.Send, StmtNode.Spawn, StmtNode.Traced, StmtNode.Var, StmtNode.While {
+  int BLOCK = 0;
+  int BREAK = 1;
+  int CONTINUE = 2;
+  int EXPRESSION = 3;
+  int FOR = 4;
+  int IF = 5;
+  int PRINT = 6;
+  int SEND = 7;
+  int SPAWN = 8;
+  int TRACED = 9;
+  int VAR = 10;
+  int WHILE = 11;
+
+  int kind();
+
+  record Block(List<StmtNode> statements) implements StmtNode {
+    @Override
+    public int kind() {
+      return BLOCK;
+    }
+  }
+
+  record Break(Token keyword) implements StmtNode {
+    @Override
+    public int kind() {
+      return BREAK;
+    }
+  }
+
+  record Continue(Token keyword) implements StmtNode {
+    @Override
+    public int kind() {
+      return CONTINUE;
+    }
+  }
+
+  record Expression(ExprNode expression) implements StmtNode {
+    @Override
+    public int kind() {
+      return EXPRESSION;
+    }
+  }
+
+  record For(StmtNode initializer, ExprNode condition, ExprNode increment, StmtNode body) implements StmtNode {
+    @Override
+    public int kind() {
+      return FOR;
+    }
+  }
+
+  record If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) implements StmtNode {
+    @Override
+    public int kind() {
+      return IF;
+    }
+  }
+
+  record Print(ExprNode expression) implements StmtNode {
+    @Override
+    public int kind() {
+      return PRINT;
+    }
+  }
+
+  record Send(Token keyword, ExprNode channel, ExprNode value) implements StmtNode {
+    @Override
+    public int kind() {
+      return SEND;
+    }
+  }
+
+  record Spawn(Token keyword, StmtNode body) implements StmtNode {
+    @Override
+    public int kind() {
+      return SPAWN;
+    }
+  }
+
+  record Traced(StmtNode inner, Instrumenter.Listener listener) implements StmtNode {
+    @Override
+    public int kind() {
+      return TRACED;
+    }
+  }
+
+  record Var(Token name, ExprNode initializer) implements StmtNode {
+    @Override
+    public int kind() {
+      return VAR;
+    }
+  }
+
+  record While(ExprNode condition, StmtNode body) implements StmtNode {
+    @Override
+    public int kind() {
+      return WHILE;
+    }
+  }
+
+  interface Cases<R> {
+    R onBlock(Block node);
+    R onBreak(Break node);
+    R onContinue(Continue node);
+    R onExpression(Expression node);
+    R onFor(For node);
+    R onIf(If node);
+    R onPrint(Print node);
+    R onSend(Send node);
+    R onSpawn(Spawn node);
+    R onTraced(Traced node);
+    R onVar(Var node);
+    R onWhile(While node);
+  }
+
+  static <R> R dispatch(StmtNode node, Cases<R> cases) {
+    switch (node.kind()) {
+      case BLOCK: return cases.onBlock((Block) node);
+      case BREAK: return cases.onBreak((Break) node);
+      case CONTINUE: return cases.onContinue((Continue) node);
+      case EXPRESSION: return cases.onExpression((Expression) node);
+      case FOR: return cases.onFor((For) node);
+      case IF: return cases.onIf((If) node);
+      case PRINT: return cases.onPrint((Print) node);
+      case SEND: return cases.onSend((Send) node);
+      case SPAWN: return cases.onSpawn((Spawn) node);
+      case TRACED: return cases.onTraced((Traced) node);
+      case VAR: return cases.onVar((Var) node);
+      case WHILE: return cases.onWhile((While) node);
+      default: throw new IllegalStateException("Unknown kind " + node.kind());
+    }
+  }
+
+  static StmtNode of(Stmt node) {
+    return node == null ? null : node.accept(new From());
+  }
+
+  static List<StmtNode> of(List<Stmt> nodes) {
+    List<StmtNode> converted = new ArrayList<>(nodes.size());
+    for (Stmt node : nodes) converted.add(of(node));
+    return converted;
+  }
+
+  final class From implements Stmt.Visitor<StmtNode> {
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block node) {
+      return new Block(StmtNode.of(node.statements));
+    }
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break node) {
+      return new Break(node.keyword);
+    }
+    @Override
+    public StmtNode visitContinueStmt(Stmt.Continue node) {
+      return new Continue(node.keyword);
+    }
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression node) {
+      return new Expression(ExprNode.of(node.expression));
+    }
+    @Override
+    public StmtNode visitForStmt(Stmt.For node) {
+      return new For(StmtNode.of(node.initializer), ExprNode.of(node.condition), ExprNode.of(node.increment), StmtNode.of(node.body));
+    }
+    @Override
+    public StmtNode visitIfStmt(Stmt.If node) {
+      return new If(ExprNode.of(node.condition), StmtNode.of(node.thenBranch), StmtNode.of(node.elseBranch));
+    }
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print node) {
+      return new Print(ExprNode.of(node.expression));
+    }
+    @Override
+    public StmtNode visitSendStmt(Stmt.Send node) {
+      return new Send(node.keyword, ExprNode.of(node.channel), ExprNode.of(node.value));
+    }
+    @Override
+    public StmtNode visitSpawnStmt(Stmt.Spawn node) {
+      return new Spawn(node.keyword, StmtNode.of(node.body));
+    }
+    @Override
+    public StmtNode visitTracedStmt(Stmt.Traced node) {
+      return new Traced(StmtNode.of(node.inner), node.listener);
+    }
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var node) {
+      return new Var(node.name, ExprNode.of(node.initializer));
+    }
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While node) {
+      return new While(ExprNode.of(node.condition), StmtNode.of(node.body));
+    }
+  }
+}
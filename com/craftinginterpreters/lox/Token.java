@@ -5,18 +5,26 @@ package com.craftinginterpreters.lox;
  * this contains a lexeme and all the surrounding data of *what* that actually means
  * Since we have no idea what this item is, we store is as an Object type (base class in Java)
  * TokenType is self explanatory, int line refers to the line it is on 
+ * offset is where the lexeme starts in the source (-1 for made up tokens),
+ * lazy parsing (see LazyBlock) uses it to come back to a block later
  */ 
 class Token {
   final TokenType type;
   final String lexeme;
   final Object literal;
   final int line; 
+  final int offset;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, -1);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line, int offset) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.offset = offset;
   }
 
   public String toString() {
@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Iterator;
+import java.util.List;
+
+/* The tokens the parser is looking at, pulled from the Scanner as it goes
+ *
+ * scanTokens() used to build the whole token list before parsing started,
+ * which for a big file is several objects per token all alive at once. the
+ * parser only ever looks at peek() and previous(), so this keeps the last few
+ * tokens in a ring buffer and asks the lexer for the next one when peek() runs
+ * past what it has. token memory is SIZE tokens, however long the source.
+ *
+ * the ring also leaves room for a little lookahead (peek(ahead)) and for
+ * backing up over the last few tokens (rewind), as long as it all fits in the
+ * window; going further is a bug in the parser, not something to recover from.
+ */
+class TokenSource {
+  private static final int SIZE = 8; // power of two
+  private static final int MASK = SIZE - 1;
+
+  interface Lexer {
+    Token next();
+  }
+
+  private final Lexer lexer;
+  private final Token[] ring = new Token[SIZE];
+  private long current = 0; // index of peek()
+  private long pulled = 0;  // how many tokens came out of the lexer
+  private Token eof = null; // once the lexer is done, EOF forever
+
+  TokenSource(Lexer lexer) {
+    this.lexer = lexer;
+  }
+
+  // tokens scanned up front (tools, benchmarks)
+  static TokenSource of(List<Token> tokens) {
+    Iterator<Token> iterator = tokens.iterator();
+    return new TokenSource(iterator::next);
+  }
+
+  Token peek() {
+    return at(current);
+  }
+
+  // ahead = 0 is peek()
+  Token peek(int ahead) {
+    if (ahead < 0 || ahead >= SIZE - 1) {
+      throw new IllegalArgumentException("Lookahead " + ahead + " is past the window.");
+    }
+    return at(current + ahead);
+  }
+
+  Token previous() {
+    if (current == 0 || pulled - current >= SIZE) {
+      throw new IllegalStateException("No previous token in the window.");
+    }
+    return ring[(int) (current - 1) & MASK];
+  }
+
+  Token advance() {
+    at(current); // make sure it's been pulled before we step over it
+    current++;
+    return previous();
+  }
+
+  // back up count tokens, they have to still be in the ring
+  void rewind(int count) {
+    if (count < 0 || count > current || pulled - (current - count) > SIZE) {
+      throw new IllegalStateException("Can't rewind " + count + " tokens.");
+    }
+    current -= count;
+  }
+
+  /* the lexer was moved (Scanner.jump, for --lazy), so whatever was pulled
+   * past peek() is stale. previous() stays, the next peek() pulls again
+   */
+  void restart() {
+    pulled = current;
+    eof = null;
+  }
+
+  // tokens scanned so far, EOF included
+  long count() {
+    return pulled;
+  }
+
+  private Token at(long index) {
+    while (pulled <= index) {
+      ring[(int) pulled & MASK] = pull();
+      pulled++;
+    }
+    return ring[(int) index & MASK];
+  }
+
+  private Token pull() {
+    if (eof != null) return eof;
+    Token token = lexer.next();
+    if (token.type == TokenType.EOF) eof = token;
+    return token;
+  }
+}
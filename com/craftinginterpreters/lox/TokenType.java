@@ -19,6 +19,15 @@ enum TokenType {
   AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
   PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
+  // workers
+  SPAWN, SEND, RECEIVE, CHANNEL,
+
+  // loops
+  BREAK, CONTINUE,
+
+  // arrays
+  LEFT_BRACKET, RIGHT_BRACKET,
+
   // challenge items
   C_COMMENT,
 
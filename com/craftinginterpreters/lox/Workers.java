@@ -0,0 +1,135 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Runs `spawn` bodies, one isolated Interpreter per worker
+ *
+ * a worker starts with a copy of the variables visible where it was spawned
+ * (Environment.snapshot()) and nothing else: its own Interpreter, its own
+ * Environment. values in Lox are immutable except arrays, so the copy shares
+ * the rest and gets arrays of its own; the only thing two workers can both
+ * change is a Channel. the budget is the exception: every worker spends from
+ * the limits of the run that spawned it (see Budget.forWorker()). it also
+ * runs with the same tiering setting.
+ *
+ * workers run on virtual threads when the JVM has them (Java 21+, looked up by
+ * reflection so this still builds for 17) and on plain daemon threads before
+ * that. either way a blocked send/receive parks a thread, not a core.
+ *
+ * the spawning run waits for every worker (and whatever they spawned) before
+ * it finishes, see join().
+ *
+ * print from workers normally goes straight to the shared output, one whole
+ * line at a time, in whatever order the threads get there. with ordered
+ * printing each worker writes into its own buffer instead, and join() writes
+ * the buffers out in spawn order (a worker's own lines, then its children's),
+ * so the output doesn't depend on scheduling.
+ */
+class Workers {
+  private static final ExecutorService executor = newExecutor();
+
+  // one per worker when printing is ordered, nested the way they were spawned
+  static final class Output {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final List<Output> children = new ArrayList<>();
+  }
+
+  private final PrintStream out;
+  private final boolean ordered;
+  private final boolean tiering;
+  private final Output root = new Output(); // the main script's workers
+  private final Queue<Future<?>> running = new ConcurrentLinkedQueue<>();
+
+  Workers(PrintStream out, boolean ordered, boolean tiering) {
+    this.out = out;
+    this.ordered = ordered;
+    this.tiering = tiering;
+  }
+
+  private static ExecutorService newExecutor() {
+    try {
+      Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) virtual.invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException error) {
+      // no virtual threads (or only as a preview)
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "lox-worker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  // start body in a new worker, parent is the output of whoever spawned it
+  // (null = the main script), coverage its counters (null = not counting)
+  void spawn(Stmt body, Environment globals, Budget budget,
+             Coverage.Hits coverage, Output parent) {
+    PrintStream output = out;
+    Output node = null;
+    if (ordered) {
+      node = new Output();
+      Output owner = parent == null ? root : parent;
+      synchronized (owner) {
+        owner.children.add(node);
+      }
+      output = new PrintStream(node.buffer, true);
+    }
+
+    Interpreter worker = new Interpreter(output, globals, this, node);
+    worker.setBudget(budget);
+    worker.setTiering(tiering);
+    worker.setCoverage(coverage);
+
+    // errors count against the run that spawned the worker, not the console
+    Lox.Report report = Lox.report();
+    running.add(executor.submit(() -> {
+      Lox.attach(report);
+      try {
+        worker.runWorker(body);
+      } finally {
+        budget.release();
+        Lox.attach(null);
+      }
+    }));
+  }
+
+  // wait until every worker is done, including ones spawned while we wait
+  void join() {
+    Future<?> next;
+    while ((next = running.poll()) != null) {
+      try {
+        next.get();
+      } catch (InterruptedException error) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException error) {
+        // runtime errors are reported inside the worker, this is a real bug
+        throw new IllegalStateException(error.getCause());
+      }
+    }
+
+    if (ordered) {
+      write(root);
+      root.children.clear();
+    }
+    out.flush();
+  }
+
+  private void write(Output output) {
+    byte[] bytes = output.buffer.toByteArray();
+    out.write(bytes, 0, bytes.length);
+    for (Output child : output.children) {
+      write(child);
+    }
+  }
+}
@@ -0,0 +1,22 @@
+#!/bin/sh
+# writes break_continue_deep.lox: loops with break and continue inside 450 nested blocks
+cd "$(dirname "$0")"
+{
+  echo "// break and continue under more nesting than Interpreter.MAX_DEPTH, where the"
+  echo "// recursive walk hands over to the StackMachine. generated by break_continue_deep.sh"
+  echo "var n = 0;"
+  echo "var i = 0;"
+  echo "var third = 0;"
+  echo "while (i < 2000) {"
+  echo "  i = i + 1;"
+  echo "  third = third + 1;"
+  echo "  if (third == 3) third = 0;"
+  for _ in $(seq 450); do printf "{"; done; echo
+  echo "  if (i == 1500) break;"
+  echo "  if (third == 0) continue;"
+  echo "  n = n + 1;"
+  for _ in $(seq 450); do printf "}"; done; echo
+  echo "}"
+  echo "print i;"
+  echo "print n;"
+} > break_continue_deep.lox
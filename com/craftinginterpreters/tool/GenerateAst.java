@@ -11,40 +11,66 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-/* Primay usage: Java GenerateAst.java <output_dir> 
+/* Primay usage: Java GenerateAst.java <output_dir> [--records]
  * Automatically generates Expr.java
+ * with --records it also writes ExprNode.java / StmtNode.java (see defineRecords)
 */
 
 public class GenerateAst {
   public static void main(String[] args) throws IOException {
-    if (args.length != 1) {
-      System.err.println("Usage: generate_ast <output directory>");
+    if (args.length < 1 || args.length > 2 ||
+        (args.length == 2 && !args[1].equals("--records"))) {
+      System.err.println("Usage: generate_ast <output directory> [--records]");
       System.exit(64);
     }
     String outputDir = args[0];
+    boolean records = args.length == 2;
 
     // description of the classs we're creating 
-    defineAst(outputDir, "Expr", Arrays.asList(
+    List<String> exprTypes = Arrays.asList(
+      "Array    : Token bracket, List<Expr> elements",
       "Assign   : Token name, Expr value",
       "Binary   : Expr left, Token operator, Expr right",
+      "Call     : Expr callee, Token paren, List<Expr> arguments",
+      "Channel  : Token keyword, Expr capacity",
       "Grouping : Expr expression",
+      "Index    : Expr object, Token bracket, Expr index",
       "Literal  : Object value",
-      "Logical  : Expr left, Token operator, Expr right",
+      "Logical  : Expr left, Token operator, Expr right | int coverage = -1",
+      "Receive  : Token keyword, Expr channel",
+      "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+      "Traced   : Expr inner, Instrumenter.Listener listener, int line",
       "Unary    : Token operator, Expr right",
       "Variable : Token name"
-    ));
-    defineAst(outputDir, "Stmt", Arrays.asList(
-      "Block      : List<Stmt> statements",
+    );
+    List<String> stmtTypes = Arrays.asList(
+      "Block      : List<Stmt> statements | int slots = -1",
+      "Break      : Token keyword",
+      "Continue   : Token keyword",
       "Expression : Expr expression",
+      "For        : Stmt initializer, Expr condition, Expr increment," +
+                  " Stmt body | CountedLoop counted = null",
       "If         : Expr condition, Stmt thenBranch," +
                   " Stmt elseBranch",
       "Print      : Expr expression",
+      "Send       : Token keyword, Expr channel, Expr value",
+      "Spawn      : Token keyword, Stmt body",
+      "Traced     : Stmt inner, Instrumenter.Listener listener",
       "Var        : Token name, Expr initializer",
       "While      : Expr condition, Stmt body"
-    ));
+    );
+
+    defineAst(outputDir, "Expr", exprTypes);
+    defineAst(outputDir, "Stmt", stmtTypes);
+
+    if (records) {
+      defineRecords(outputDir, "Expr", exprTypes);
+      defineRecords(outputDir, "Stmt", stmtTypes);
+    }
   }
 
   /* Function tod define a syntax tree and write specific items 
@@ -66,14 +92,26 @@ public class GenerateAst {
     writer.println("abstract class " + baseName + " {");
     defineVisitor(writer, baseName, types);
 
+    // statements remember where they start so runtime errors without a token
+    // (budgets, profiling) can still point at a line; the Parser fills this in.
+    // coverage is the statement's counter for --coverage (see Coverage.java)
+    if (baseName.equals("Stmt")) {
+      writer.println();
+      writer.println("  int line;");
+      writer.println("  int coverage = -1; // set by analysis");
+    }
+
 
     // generate all the types 
     // trim() removes whitespace
     // for each type, split by a colon and remove whitespace, then use that data and define a type
+    // anything after a '|' is a mutable field that analysis passes fill in later
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim(); 
-      defineType(writer, baseName, className, fields);
+      String[] parts = type.split(":")[1].split("\\|");
+      String fields = parts[0].trim(); 
+      String analysis = parts.length > 1 ? parts[1].trim() : null;
+      defineType(writer, baseName, className, fields, analysis);
     }
 
     // write accept() method to call base methods defined in visitor template 
@@ -91,7 +129,8 @@ public class GenerateAst {
   private static void defineType(PrintWriter writer, 
                                  String baseName,
                                  String className, 
-                                 String fieldList) {
+                                 String fieldList,
+                                 String analysisField) {
     // more sugar to define header of class                                     
     writer.println("  static class " + className + " extends " +
         baseName + " {");
@@ -118,6 +157,11 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+
+    // not part of the syntax, so not final and not in the constructor
+    if (analysisField != null) {
+      writer.println("    " + analysisField + "; // set by analysis");
+    }
     
     // put visitor pattern to implement accept() method from interface
     writer.println();
@@ -150,5 +194,138 @@ public class GenerateAst {
 
   }
 
-  
+  /* --records: the same nodes as a sealed interface of records
+   *
+   * the classic classes dispatch through accept(Visitor), and with 7+ node types
+   * the accept() call inside Interpreter.evaluate() is megamorphic, so the JIT
+   * can't inline through it. the record form gives every node a dense int kind()
+   * instead, so an interpreter can do one tableswitch on it (and pattern matching
+   * switches once the language level allows them). generated per base:
+   *   - sealed interface <Base>Node with KIND constants and kind()
+   *   - one record per node type, Expr/Stmt fields become <Base>Node
+   *   - Cases<R> + dispatch(): a switch-based stand-in for the visitor
+   *   - of(...): converts a classic tree into the record form
+   * the analysis-only fields (after '|') aren't syntax, so they're left out.
+   */
+  private static void defineRecords(String outputDir,
+                                    String baseName,
+                                    List<String> types)
+                                    throws IOException {
+    String nodeName = baseName + "Node";
+    String path = outputDir + "/" + nodeName + ".java";
+    PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+    List<String> classNames = new ArrayList<>();
+    List<String> fieldLists = new ArrayList<>();
+    for (String type : types) {
+      classNames.add(type.split(":")[0].trim());
+      fieldLists.add(type.split(":")[1].split("\\|")[0].trim());
+    }
+
+    writer.println("package com.craftinginterpreters.lox;");
+    writer.println();
+    writer.println("import java.util.ArrayList;");
+    writer.println("import java.util.List;");
+    writer.println();
+
+    // header, every record type has to be listed in permits
+    writer.print("sealed interface " + nodeName + " permits");
+    for (int i = 0; i < classNames.size(); i++) {
+      writer.print((i == 0 ? " " : ", ") + nodeName + "." + classNames.get(i));
+    }
+    writer.println(" {");
+
+    // dense kind tags, 0..n-1 so a switch compiles to a jump table
+    for (int i = 0; i < classNames.size(); i++) {
+      writer.println("  int " + constantName(classNames.get(i)) + " = " + i + ";");
+    }
+    writer.println();
+    writer.println("  int kind();");
+
+    // the records themselves
+    for (int i = 0; i < classNames.size(); i++) {
+      String className = classNames.get(i);
+      writer.println();
+      writer.println("  record " + className + "(" +
+          recordFields(fieldLists.get(i)) + ") implements " + nodeName + " {");
+      writer.println("    @Override");
+      writer.println("    public int kind() {");
+      writer.println("      return " + constantName(className) + ";");
+      writer.println("    }");
+      writer.println("  }");
+    }
+
+    // switch-based dispatcher
+    writer.println();
+    writer.println("  interface Cases<R> {");
+    for (String className : classNames) {
+      writer.println("    R on" + className + "(" + className + " node);");
+    }
+    writer.println("  }");
+    writer.println();
+    writer.println("  static <R> R dispatch(" + nodeName + " node, Cases<R> cases) {");
+    writer.println("    switch (node.kind()) {");
+    for (String className : classNames) {
+      writer.println("      case " + constantName(className) + ": return cases.on" +
+          className + "((" + className + ") node);");
+    }
+    writer.println("      default: throw new IllegalStateException(\"Unknown kind \" + node.kind());");
+    writer.println("    }");
+    writer.println("  }");
+
+    // converting from the classic classes
+    writer.println();
+    writer.println("  static " + nodeName + " of(" + baseName + " node) {");
+    writer.println("    return node == null ? null : node.accept(new From());");
+    writer.println("  }");
+    writer.println();
+    writer.println("  static List<" + nodeName + "> of(List<" + baseName + "> nodes) {");
+    writer.println("    List<" + nodeName + "> converted = new ArrayList<>(nodes.size());");
+    writer.println("    for (" + baseName + " node : nodes) converted.add(of(node));");
+    writer.println("    return converted;");
+    writer.println("  }");
+    writer.println();
+    writer.println("  final class From implements " + baseName + ".Visitor<" + nodeName + "> {");
+    for (int i = 0; i < classNames.size(); i++) {
+      String className = classNames.get(i);
+      writer.println("    @Override");
+      writer.println("    public " + nodeName + " visit" + className + baseName + "(" +
+          baseName + "." + className + " node) {");
+      writer.println("      return new " + className + "(" +
+          convertedFields(fieldLists.get(i)) + ");");
+      writer.println("    }");
+    }
+    writer.println("  }");
+
+    writer.println("}");
+    writer.close();
+  }
+
+  // "Binary" -> "BINARY", "ExprStmt" -> "EXPR_STMT"
+  private static String constantName(String className) {
+    return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+  }
+
+  // Expr/Stmt fields point at the record form instead
+  private static String recordFields(String fieldList) {
+    return fieldList.replaceAll("\\bExpr\\b", "ExprNode")
+                    .replaceAll("\\bStmt\\b", "StmtNode");
+  }
+
+  // constructor arguments that convert each field of a classic node
+  private static String convertedFields(String fieldList) {
+    List<String> arguments = new ArrayList<>();
+    for (String field : fieldList.split(", ")) {
+      String type = field.split(" ")[0];
+      String name = field.split(" ")[1];
+      if (type.matches("(List<)?Expr>?")) {
+        arguments.add("ExprNode.of(node." + name + ")");
+      } else if (type.matches("(List<)?Stmt>?")) {
+        arguments.add("StmtNode.of(node." + name + ")");
+      } else {
+        arguments.add("node." + name);
+      }
+    }
+    return String.join(", ", arguments);
+  }
 }
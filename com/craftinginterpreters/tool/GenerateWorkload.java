@@ -0,0 +1,393 @@
+package com.craftinginterpreters.tool;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* Synthetic Lox programs for scaling tests
+ *
+ * the hand-written scripts are tiny, and most of the interesting performance
+ * problems only show up on inputs that are orders of magnitude bigger. this
+ * writes as much valid Lox as asked for, the same bytes for the same knobs and
+ * seed, so a corpus can be regenerated instead of checked in.
+ *
+ * usage: java GenerateWorkload.java [knobs] [output file]
+ *   --seed=N        same seed + same knobs = same program (default 1)
+ *   --size=N[K|M|G] stop after the first top-level statement past N bytes (default 64K)
+ *   --depth=N       how deep blocks / if / while nest (default 4)
+ *   --vars=N        globals, and the most locals one block declares (default 8)
+ *   --trips=N       iterations of every while loop (default 10)
+ *   --strings=PCT   share of variables and literals that are strings (default 30)
+ *   --expr-depth=N  how deep expressions nest (default 3)
+ * writes to stdout without an output file.
+ *
+ * only what Parser supports: var, blocks, if/else, while, print, assignment,
+ * and/or, binary and unary operators, numbers, strings, booleans, nil.
+ *
+ * the program also runs cleanly: every variable is declared before it's used,
+ * each expression only mixes operands of the right type (numbers, strings or
+ * booleans), and every loop is a counted while whose counter nothing else
+ * assigns. nested loops multiply, so the innermost body of d nested loops runs
+ * trips^d times; use --trips=0 for corpora that are only meant to be scanned
+ * and parsed. string variables are only ever assigned fresh values, never
+ * themselves plus something, so a long run doesn't grow them without bound.
+ */
+
+public class GenerateWorkload {
+  private enum Type { NUMBER, STRING, BOOL }
+
+  private static final class Variable {
+    final String name;
+    final Type type;
+    final boolean assignable; // loop counters can only be read
+
+    Variable(String name, Type type, boolean assignable) {
+      this.name = name;
+      this.type = type;
+      this.assignable = assignable;
+    }
+  }
+
+  private static final String[] WORDS = {
+    "lox", "tree", "walk", "token", "scope", "closure", "parser", "jit",
+    "hello world", "crafting", "interpreters", "a b c", "x", ""
+  };
+
+  // knobs
+  private long seed = 1;
+  private long size = 64 << 10;
+  private int depth = 4;
+  private int vars = 8;
+  private int trips = 10;
+  private int strings = 30;
+  private int exprDepth = 3;
+
+  private Random random;
+  private Writer out;
+  private long written = 0;
+  private int names = 0;
+
+  // innermost scope last; scopes.get(0) are the globals
+  private final List<List<Variable>> scopes = new ArrayList<>();
+
+  public static void main(String[] args) throws IOException {
+    GenerateWorkload generator = new GenerateWorkload();
+    String output = null;
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        if (!generator.parseKnob(arg)) usage();
+      } else if (output == null) {
+        output = arg;
+      } else {
+        usage();
+      }
+    }
+
+    if (output == null) {
+      Writer writer = new BufferedWriter(
+          new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+      generator.generate(writer);
+      writer.flush();
+    } else {
+      try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+        generator.generate(writer);
+      }
+    }
+  }
+
+  private static void usage() {
+    System.err.println("Usage: generate_workload [--seed=N] [--size=N[K|M|G]] [--depth=N]" +
+        " [--vars=N] [--trips=N] [--strings=PCT] [--expr-depth=N] [output file]");
+    System.exit(64);
+  }
+
+  private boolean parseKnob(String arg) {
+    int equals = arg.indexOf('=');
+    if (equals < 0) return false;
+    String name = arg.substring(0, equals);
+    String text = arg.substring(equals + 1);
+
+    long scale = 1;
+    if (name.equals("--size") && !text.isEmpty()) {
+      switch (Character.toUpperCase(text.charAt(text.length() - 1))) {
+        case 'K': scale = 1L << 10; break;
+        case 'M': scale = 1L << 20; break;
+        case 'G': scale = 1L << 30; break;
+      }
+      if (scale != 1) text = text.substring(0, text.length() - 1);
+    }
+
+    long value;
+    try {
+      value = Long.parseLong(text) * scale;
+    } catch (NumberFormatException error) {
+      return false;
+    }
+    if (value < 0) return false;
+
+    switch (name) {
+      case "--seed": seed = value; return true;
+      case "--size": size = value; return true;
+      case "--depth": depth = (int) Math.min(value, 64); return true;
+      case "--vars": vars = (int) Math.min(value, 1 << 16); return value > 0;
+      case "--trips": trips = (int) Math.min(value, Integer.MAX_VALUE); return true;
+      case "--strings": strings = (int) value; return value <= 100;
+      case "--expr-depth": exprDepth = (int) Math.min(value, 64); return true;
+    }
+    return false;
+  }
+
+  void generate(Writer out) throws IOException {
+    this.out = out;
+    this.random = new Random(seed);
+    scopes.clear();
+    scopes.add(new ArrayList<>());
+
+    write("// generated by GenerateWorkload --seed=" + seed + " --size=" + size +
+        " --depth=" + depth + " --vars=" + vars + " --trips=" + trips +
+        " --strings=" + strings + " --expr-depth=" + exprDepth + "\n");
+
+    // globals first, so there's always something to read and assign
+    for (int i = 0; i < vars; i++) declare(0);
+
+    while (written < size) statement(0);
+  }
+
+  /* statements */
+
+  private void statement(int level) throws IOException {
+    // past the depth knob only flat statements are left
+    int choice = random.nextInt(level < depth ? 100 : 55);
+    if (choice < 15) {
+      print(level);
+    } else if (choice < 30 && level > 0 && scopes.get(scopes.size() - 1).size() < vars) {
+      declare(level); // top level only gets the globals, or it'd grow forever
+    } else if (choice < 55) {
+      assign(level);
+    } else if (choice < 72) {
+      ifStatement(level);
+    } else if (choice < 86) {
+      whileStatement(level);
+    } else {
+      block(level, 1 + random.nextInt(4));
+    }
+  }
+
+  private void print(int level) throws IOException {
+    indent(level);
+    if (random.nextInt(20) == 0) {
+      write("print nil;\n");
+    } else {
+      write("print " + expression(randomType(), exprDepth) + ";\n");
+    }
+  }
+
+  private void declare(int level) throws IOException {
+    Type type = randomType();
+    String initializer = expression(type, exprDepth); // before the name exists
+    Variable variable = new Variable(newName(type), type, true);
+
+    indent(level);
+    write("var " + variable.name + " = " + initializer + ";\n");
+    scopes.get(scopes.size() - 1).add(variable);
+  }
+
+  private void assign(int level) throws IOException {
+    Variable target = pick(null, true);
+    if (target == null) {
+      print(level);
+      return;
+    }
+
+    indent(level);
+    if (target.type == Type.STRING) {
+      // never the variable itself, see the comment at the top
+      write(target.name + " = " + freshString(exprDepth) + ";\n");
+    } else {
+      write(target.name + " = " + expression(target.type, exprDepth) + ";\n");
+    }
+  }
+
+  private void ifStatement(int level) throws IOException {
+    indent(level);
+    write("if (" + expression(Type.BOOL, exprDepth) + ") {\n");
+    body(level + 1);
+    indent(level);
+    if (random.nextInt(3) == 0) {
+      write("} else {\n");
+      body(level + 1);
+      indent(level);
+    }
+    write("}\n");
+  }
+
+  // { var counter = 0; while (counter < trips) { ...; counter = counter + 1; } }
+  private void whileStatement(int level) throws IOException {
+    Variable counter = new Variable("i" + names++, Type.NUMBER, false);
+
+    indent(level);
+    write("{\n");
+    scopes.add(new ArrayList<>());
+    indent(level + 1);
+    write("var " + counter.name + " = 0;\n");
+    scopes.get(scopes.size() - 1).add(counter);
+
+    indent(level + 1);
+    write("while (" + counter.name + " < " + trips + ") {\n");
+    body(level + 2);
+    indent(level + 2);
+    write(counter.name + " = " + counter.name + " + 1;\n");
+    indent(level + 1);
+    write("}\n");
+
+    scopes.remove(scopes.size() - 1);
+    indent(level);
+    write("}\n");
+  }
+
+  private void block(int level, int statements) throws IOException {
+    indent(level);
+    write("{\n");
+    scopes.add(new ArrayList<>());
+    for (int i = 0; i < statements; i++) statement(level + 1);
+    scopes.remove(scopes.size() - 1);
+    indent(level);
+    write("}\n");
+  }
+
+  // the inside of an if/while, its own scope
+  private void body(int level) throws IOException {
+    scopes.add(new ArrayList<>());
+    int statements = 1 + random.nextInt(3);
+    for (int i = 0; i < statements; i++) statement(level);
+    scopes.remove(scopes.size() - 1);
+  }
+
+  /* expressions, all of the given type */
+
+  private String expression(Type type, int budget) {
+    switch (type) {
+      case NUMBER: return number(budget);
+      case STRING: return string(budget, true);
+      default: return bool(budget);
+    }
+  }
+
+  private String number(int budget) {
+    int choice = random.nextInt(budget > 0 ? 10 : 2);
+    if (choice == 0) return numberLiteral();
+    if (choice == 1) {
+      Variable variable = pick(Type.NUMBER, false);
+      return variable != null ? variable.name : numberLiteral();
+    }
+    if (choice == 2) return "-" + number(budget - 1);
+    if (choice == 3) return "(" + number(budget - 1) + ")";
+
+    String operator = new String[] { "+", "-", "*", "/" }[random.nextInt(4)];
+    return number(budget - 1) + " " + operator + " " + number(budget - 1);
+  }
+
+  private String numberLiteral() {
+    if (random.nextInt(4) == 0) return random.nextInt(1000) + "." + (1 + random.nextInt(99));
+    return Integer.toString(random.nextInt(1000));
+  }
+
+  // variables = whether string variables may be read (not when assigning one)
+  private String string(int budget, boolean variables) {
+    int choice = random.nextInt(budget > 0 ? 6 : 2);
+    if (choice == 0) return stringLiteral();
+    if (choice == 1 && variables) {
+      Variable variable = pick(Type.STRING, false);
+      if (variable != null) return variable.name;
+    }
+    if (choice == 2) return "(" + string(budget - 1, variables) + ")";
+    if (choice == 3) return string(budget - 1, variables) + " + " + group(number(budget - 1));
+    if (choice <= 1) return stringLiteral();
+    return string(budget - 1, variables) + " + " + string(budget - 1, variables);
+  }
+
+  private String freshString(int budget) {
+    return string(budget, false);
+  }
+
+  private String stringLiteral() {
+    return "\"" + WORDS[random.nextInt(WORDS.length)] + "\"";
+  }
+
+  private String bool(int budget) {
+    int choice = random.nextInt(budget > 0 ? 10 : 2);
+    if (choice == 0) return random.nextBoolean() ? "true" : "false";
+    if (choice == 1) {
+      Variable variable = pick(Type.BOOL, false);
+      return variable != null ? variable.name : "true";
+    }
+    if (choice == 2) return "!" + group(bool(budget - 1));
+    if (choice == 3) return "(" + bool(budget - 1) + ")";
+    if (choice == 4) {
+      String operator = random.nextBoolean() ? " and " : " or ";
+      return bool(budget - 1) + operator + bool(budget - 1);
+    }
+    if (choice == 5) {
+      String operator = random.nextBoolean() ? " == " : " != ";
+      return string(budget - 1, true) + operator + string(budget - 1, true);
+    }
+    if (choice == 6) {
+      return expression(randomType(), budget - 1) + " == nil";
+    }
+
+    String operator = new String[] { "<", "<=", ">", ">=", "==", "!=" }[random.nextInt(6)];
+    return number(budget - 1) + " " + operator + " " + number(budget - 1);
+  }
+
+  /* helpers */
+
+  private Type randomType() {
+    if (random.nextInt(100) < strings) return Type.STRING;
+    return random.nextInt(4) == 0 ? Type.BOOL : Type.NUMBER;
+  }
+
+  private String newName(Type type) {
+    switch (type) {
+      case NUMBER: return "n" + names++;
+      case STRING: return "s" + names++;
+      default: return "b" + names++;
+    }
+  }
+
+  // a random variable in scope of that type (null = any type), null if none
+  private Variable pick(Type type, boolean assignable) {
+    // usually something close by, sometimes a global
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (i > 0 && random.nextInt(3) == 0) continue;
+      List<Variable> scope = scopes.get(i);
+      if (scope.isEmpty()) continue;
+      Variable variable = scope.get(random.nextInt(scope.size()));
+      if ((type == null || variable.type == type) && (!assignable || variable.assignable)) {
+        return variable;
+      }
+    }
+    return null;
+  }
+
+  // precedence would otherwise regroup "s + a - b" as (s + a) - b, a type error
+  private static String group(String expression) {
+    return expression.indexOf(' ') < 0 ? expression : "(" + expression + ")";
+  }
+
+  private void indent(int level) throws IOException {
+    for (int i = 0; i < level; i++) write("  ");
+  }
+
+  // everything written is ASCII, so chars are bytes
+  private void write(String text) throws IOException {
+    out.write(text);
+    written += text.length();
+  }
+}
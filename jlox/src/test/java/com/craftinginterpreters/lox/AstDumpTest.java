@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/* --dump-ast and --dump-ast-binary: the text form exactly, the binary one's
+ * header and string table, and trees far deeper than the Java stack
+ */
+class AstDumpTest {
+  @Test
+  void writesSExpressions() throws IOException {
+    String source =
+        "var x = 1 + 2 * -3;\n" +
+        "while (x < 10) { x = x + 1; }\n" +
+        "if (x == 10 and !false) print \"a b\"; else { }\n" +
+        "var y;\n";
+    assertEquals(
+        "(var x (+ 1.0 (* 2.0 (- 3.0))))\n" +
+        "(while (< x 10.0) (block (expr (= x (+ x 1.0)))))\n" +
+        "(if (and (== x 10.0) (! false)) (print \"a b\") (block))\n" +
+        "(var y)\n",
+        text(parse(source, false)));
+  }
+
+  // what AstPrinter used to build a string for, the same format
+  @Test
+  void printerMatchesWriter() throws IOException {
+    List<Stmt> statements = parse("print (1 + nil) / \"s\" or x >= -(2);", false);
+    Expr expression = ((Stmt.Print) statements.get(0)).expression;
+    assertEquals("(print " + new AstPrinter().print(expression) + ")\n", text(statements));
+  }
+
+  @Test
+  void deepTrees() throws IOException {
+    int depth = 200_000;
+    List<Stmt> statements = parse("print " + "-".repeat(depth) + "1;", true);
+
+    String text = text(statements);
+    assertEquals("(print " + "(- ".repeat(depth) + "1.0" + ")".repeat(depth) + ")\n", text);
+    assertTrue(binary(statements).length > depth);
+  }
+
+  @Test
+  void binaryHeader() throws IOException {
+    byte[] bytes = binary(parse("print 1; print 2;", false));
+    assertEquals("LOXA", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+    assertEquals(AstBinaryWriter.VERSION, bytes[4]);
+    assertEquals(2, bytes[5]); // statements
+    assertEquals(AstBinaryWriter.PRINT, bytes[6]);
+  }
+
+  // a name that comes up again is an index into the string table, not the name again
+  @Test
+  void binaryRepeatsNamesByIndex() throws IOException {
+    StringBuilder same = new StringBuilder();
+    StringBuilder different = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      same.append("print somewhat_long_name_").append(0).append(";\n");
+      different.append("print somewhat_long_name_").append(i).append(";\n");
+    }
+    int repeated = binary(parse(same.toString(), false)).length;
+    int distinct = binary(parse(different.toString(), false)).length;
+    assertTrue(repeated * 3 < distinct, repeated + " vs " + distinct);
+  }
+
+  /* the binary form writes tokens by ordinal, so a TokenType change that
+   * moves any of them has to come with a new AstBinaryWriter.VERSION. when
+   * this fails, bump that and update both here
+   */
+  @Test
+  void tokenNumbersBelongToTheVersion() {
+    assertEquals(6, AstBinaryWriter.VERSION);
+    assertEquals("[LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, DOT, MINUS, PLUS," +
+        " SEMICOLON, SLASH, STAR, BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL, GREATER, GREATER_EQUAL," +
+        " LESS, LESS_EQUAL, IDENTIFIER, STRING, NUMBER, AND, CLASS, ELSE, FALSE, FUN, FOR, IF," +
+        " NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE, SPAWN, SEND, RECEIVE, CHANNEL," +
+        " BREAK, CONTINUE, LEFT_BRACKET, RIGHT_BRACKET, C_COMMENT, EOF]",
+        Arrays.toString(TokenType.values()));
+  }
+
+  private static List<Stmt> parse(String source, boolean flat) {
+    return new Parser(new Scanner(source).scanTokens(), flat).parse();
+  }
+
+  private static String text(List<Stmt> statements) throws IOException {
+    StringWriter out = new StringWriter();
+    new AstWriter(out).write(statements);
+    return out.toString();
+  }
+
+  private static byte[] binary(List<Stmt> statements) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new AstBinaryWriter(out).write(statements);
+    return out.toByteArray();
+  }
+}
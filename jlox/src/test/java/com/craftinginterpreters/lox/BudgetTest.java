@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/* the limits themselves on a bare Budget, then scripts running into them,
+ * tree-walking and compiled (a while loop that runs long enough gets compiled,
+ * see LoopCompiler) since both have to stop in the same place
+ */
+class BudgetTest {
+  private static final String COUNT_TO_A_MILLION =
+      "var i = 0; while (i < 1000000) { i = i + 1; } print i;";
+
+  @Test
+  void stepsRunOutExactly() {
+    Budget budget = new Budget(5000, Budget.UNLIMITED, Budget.UNLIMITED);
+    for (int i = 0; i < 5000; i++) budget.step(1);
+    RuntimeError error = assertThrows(RuntimeError.class, () -> budget.step(7));
+    assertEquals("Step budget exhausted.", error.getMessage());
+    assertEquals(7, error.token.line);
+  }
+
+  @Test
+  void bytesAreChargedBeforeTheyAreAllocated() {
+    Budget budget = new Budget(Budget.UNLIMITED, 1000, Budget.UNLIMITED);
+    budget.allocate(600, 1);
+    budget.allocate(400, 1);
+    RuntimeError error = assertThrows(RuntimeError.class, () -> budget.allocate(1, 2));
+    assertEquals("Memory budget exhausted.", error.getMessage());
+  }
+
+  @Test
+  void timeRunsOut() throws InterruptedException {
+    Budget budget = new Budget(Budget.UNLIMITED, Budget.UNLIMITED, 1);
+    Thread.sleep(20);
+    RuntimeError error = assertThrows(RuntimeError.class, () -> budget.checkClock(3));
+    assertEquals("Time budget exhausted.", error.getMessage());
+  }
+
+  // 10^13 ms in nanoseconds doesn't fit in a long, that used to make a past deadline
+  @Test
+  void hugeTimeoutsDoNotWrapAround() {
+    for (long timeout : new long[] { 10_000_000_000_000L, Budget.MAX_TIMEOUT_MILLIS,
+                                     Long.MAX_VALUE / 1_000_000L + 1, Long.MAX_VALUE - 1 }) {
+      Budget budget = new Budget(Budget.UNLIMITED, Budget.UNLIMITED, timeout);
+      for (int i = 0; i < 100_000; i++) budget.step(1);
+      budget.checkClock(1);
+    }
+  }
+
+  // two steps a go round (the block and the back edge), so the loop stops at
+  // 5000 either way. the print after it still runs, a failed statement
+  // doesn't take the rest of the script with it
+  @Test
+  void scriptStopsOnItsStepBudget() {
+    for (boolean tiering : new boolean[] { true, false }) {
+      Scripts.Result result = Scripts.run(COUNT_TO_A_MILLION,
+          new Budget(10_000, Budget.UNLIMITED, Budget.UNLIMITED), tiering);
+      assertEquals(70, result.status);
+      assertEquals("5000\n", result.out);
+      assertEquals("Step budget exhausted.\n[line 1]\n", result.err);
+    }
+  }
+
+  @Test
+  void scriptFitsItsBudget() {
+    for (boolean tiering : new boolean[] { true, false }) {
+      Scripts.Result result = Scripts.run(COUNT_TO_A_MILLION,
+          new Budget(3_000_000, Budget.UNLIMITED, 60_000), tiering);
+      assertEquals(0, result.status, result.err);
+      assertEquals("1000000\n", result.out);
+    }
+  }
+
+  // the concatenation that would blow the limit is refused before it's built
+  @Test
+  void scriptStopsOnItsMemoryBudget() {
+    Scripts.Result result = Scripts.run(
+        "var s = \"xxxxxxxxxx\"; while (true) { s = s + s; }",
+        new Budget(Budget.UNLIMITED, 1 << 20, Budget.UNLIMITED), true);
+    assertEquals(70, result.status);
+    assertTrue(result.err.startsWith("Memory budget exhausted."), result.err);
+  }
+
+  @Test
+  void scriptStopsOnItsTimeout() {
+    Scripts.Result result = Scripts.run("while (true) {}",
+        new Budget(Budget.UNLIMITED, Budget.UNLIMITED, 100), true);
+    assertEquals(70, result.status);
+    assertTrue(result.err.startsWith("Time budget exhausted."), result.err);
+  }
+}
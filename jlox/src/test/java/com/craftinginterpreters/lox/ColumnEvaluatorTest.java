@@ -0,0 +1,189 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/* ColumnEvaluator.evaluate against evaluateByRow, which is the interpreter
+ * itself, on random expressions over columns full of the awkward values:
+ * NaN, -0.0, infinities, nil, empty strings, and strings mixed into numbers
+ * so that plenty of rows fail. every row has to come out the same, values
+ * compared with Double.equals (so NaN is NaN and -0.0 isn't 0.0) and errors
+ * by row and message.
+ */
+class ColumnEvaluatorTest {
+  static final int EXPRESSIONS = 3000;
+  static final int ROWS = 100;
+
+  private static final String[] NUMBER_COLUMNS = { "x", "y" };
+  private static final String[] BOOL_COLUMNS = { "b" };
+  private static final String[] STRING_COLUMNS = { "s", "t" };
+
+  private static final String[] LITERALS = {
+      "0", "1", "2.5", "10", "-0", "nil", "true", "false", "\"\"", "\"a\"", "\"10\""
+  };
+  private static final String[] BINARY = {
+      "+", "-", "*", "/", ">", ">=", "<", "<=", "==", "!="
+  };
+  private static final String[] ONE_NUMBER = { "sqrt", "floor", "abs", "exp" };
+  private static final String[] TWO_NUMBERS = { "pow", "min", "max" };
+  private static final String[] ONE_STRING = { "len", "upper", "num" };
+
+  @Test
+  void randomExpressionsMatchTheInterpreter() {
+    Random random = new Random(42);
+    ColumnEvaluator evaluator = new ColumnEvaluator(columns(random, ROWS));
+
+    for (int i = 0; i < EXPRESSIONS; i++) {
+      String source = expression(random, 4);
+      check(evaluator, source);
+    }
+  }
+
+  // a few across chunk boundaries, errors have to land on the right rows
+  @Test
+  void rowsPastOneChunk() {
+    Random random = new Random(7);
+    ColumnEvaluator evaluator =
+        new ColumnEvaluator(columns(random, ColumnEvaluator.CHUNK * 2 + 7));
+
+    for (int i = 0; i < 20; i++) {
+      check(evaluator, expression(random, 3));
+    }
+  }
+
+  @Test
+  void signedZeroAndNaN() {
+    ColumnEvaluator evaluator = new ColumnEvaluator(Map.of(
+        "x", ColumnEvaluator.Column.of(new double[] { 0.0, -0.0, Double.NaN, 1 }),
+        "y", ColumnEvaluator.Column.of(new double[] { -0.0, 0.0, Double.NaN, Double.NaN })));
+
+    for (String source : new String[] {
+        "x == y", "x != y", "x == x", "-x", "x * -1", "x < y", "x >= y", "1 / x",
+        "min(x, y)", "max(x, y)", "!(x == y) or x", "x == nil" }) {
+      check(evaluator, source);
+    }
+  }
+
+  private static void check(ColumnEvaluator evaluator, String source) {
+    Expr expr = parse(source);
+    ColumnEvaluator.Result byColumn = evaluator.evaluate(expr);
+    ColumnEvaluator.Result byRow = evaluator.evaluateByRow(expr);
+
+    int rows = byRow.column.size();
+    assertEquals(rows, byColumn.column.size(), source);
+    assertEquals(errors(byRow.errors), errors(byColumn.errors), source);
+
+    int next = 0;
+    for (int row = 0; row < rows; row++) {
+      if (next < byRow.errors.size() && byRow.errors.get(next).row == row) {
+        next++;
+        continue;
+      }
+      Object want = byRow.column.get(row);
+      Object got = byColumn.column.get(row);
+      if (want == null ? got != null : !want.equals(got)) {
+        fail(source + " row " + row + ": expected " + want + ", got " + got);
+      }
+    }
+  }
+
+  // "row: message" per failed row, so a mismatch prints readably
+  private static String errors(List<ColumnEvaluator.RowError> errors) {
+    StringBuilder text = new StringBuilder();
+    for (ColumnEvaluator.RowError error : errors) {
+      text.append(error.row).append(": ").append(error.error.getMessage()).append('\n');
+    }
+    return text.toString();
+  }
+
+  private static Expr parse(String source) {
+    List<Stmt> statements = new Parser(new Scanner(source + ";").scanTokens()).parse();
+    if (statements.size() != 1 || !(statements.get(0) instanceof Stmt.Expression)) {
+      throw new IllegalStateException("Doesn't parse: " + source);
+    }
+    return ((Stmt.Expression) statements.get(0)).expression;
+  }
+
+  private static Map<String, ColumnEvaluator.Column> columns(Random random, int rows) {
+    double[] x = new double[rows];
+    double[] y = new double[rows];
+    boolean[] b = new boolean[rows];
+    String[] s = new String[rows];
+    String[] t = new String[rows];
+    for (int i = 0; i < rows; i++) {
+      x[i] = number(random);
+      y[i] = number(random);
+      b[i] = random.nextBoolean();
+      s[i] = string(random);
+      t[i] = string(random);
+    }
+    return Map.of(
+        "x", ColumnEvaluator.Column.of(x), "y", ColumnEvaluator.Column.of(y),
+        "b", ColumnEvaluator.Column.of(b),
+        "s", ColumnEvaluator.Column.of(s), "t", ColumnEvaluator.Column.of(t));
+  }
+
+  private static double number(Random random) {
+    switch (random.nextInt(10)) {
+      case 0: return Double.NaN;
+      case 1: return -0.0;
+      case 2: return 0.0;
+      case 3: return random.nextBoolean() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+      case 4: return random.nextInt(5);
+      default: return (random.nextDouble() - 0.5) * 100;
+    }
+  }
+
+  // a null is nil in the column
+  private static String string(Random random) {
+    switch (random.nextInt(6)) {
+      case 0: return null;
+      case 1: return "";
+      case 2: return "10";
+      case 3: return "ß";
+      default: return "s" + random.nextInt(3);
+    }
+  }
+
+  private static String expression(Random random, int depth) {
+    int pick = depth == 0 ? random.nextInt(2) : random.nextInt(9);
+    switch (pick) {
+      case 0: return column(random);
+      case 1: return LITERALS[random.nextInt(LITERALS.length)];
+      case 2:
+        return "(" + expression(random, depth - 1) + " " +
+            BINARY[random.nextInt(BINARY.length)] + " " + expression(random, depth - 1) + ")";
+      case 3:
+        return "(" + expression(random, depth - 1) +
+            (random.nextBoolean() ? " and " : " or ") + expression(random, depth - 1) + ")";
+      case 4:
+        return (random.nextBoolean() ? "-" : "!") + expression(random, depth - 1);
+      case 5:
+        return ONE_NUMBER[random.nextInt(ONE_NUMBER.length)] +
+            "(" + expression(random, depth - 1) + ")";
+      case 6:
+        return TWO_NUMBERS[random.nextInt(TWO_NUMBERS.length)] +
+            "(" + expression(random, depth - 1) + ", " + expression(random, depth - 1) + ")";
+      case 7:
+        return ONE_STRING[random.nextInt(ONE_STRING.length)] +
+            "(" + expression(random, depth - 1) + ")";
+      default:
+        // arithmetic on the number columns, so not every row of every tree fails
+        return "(" + NUMBER_COLUMNS[random.nextInt(NUMBER_COLUMNS.length)] + " " +
+            BINARY[random.nextInt(4)] + " " + expression(random, depth - 1) + ")";
+    }
+  }
+
+  private static String column(Random random) {
+    switch (random.nextInt(4)) {
+      case 0: return BOOL_COLUMNS[random.nextInt(BOOL_COLUMNS.length)];
+      case 1: return STRING_COLUMNS[random.nextInt(STRING_COLUMNS.length)];
+      default: return NUMBER_COLUMNS[random.nextInt(NUMBER_COLUMNS.length)];
+    }
+  }
+}
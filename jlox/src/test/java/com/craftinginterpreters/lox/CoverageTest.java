@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* --coverage on a small script whose counts can be worked out by hand, down to
+ * the LCOV text. the loop runs long enough that it would be compiled, so this
+ * also checks coverage keeps it in the tree-walker where the counting is
+ */
+class CoverageTest {
+  @TempDir
+  Path directory;
+
+  private static final String SCRIPT =
+      "var i = 0;\n" +                                   // 1
+      "while (i < 2000) {\n" +                           // 2
+      "  if (i < 10 or i == 1500) {\n" +                 // 3
+      "    i = i + 2;\n" +                               // 4
+      "  } else {\n" +                                   // 5
+      "    i = i + 1;\n" +                               // 6
+      "  }\n" +                                          // 7
+      "}\n" +                                            // 8
+      "if (false) print \"never\";\n" +                  // 9
+      "for (var j = 0; j < 5; j = j + 1) {\n" +          // 10
+      "  if (j == 3) break;\n" +                         // 11
+      "}\n" +                                            // 12
+      "print i;\n";                                      // 13
+
+  @Test
+  void countsByHand() throws IOException {
+    Coverage coverage = new Coverage();
+    List<Stmt> statements = new Parser(new Scanner(SCRIPT).scanTokens()).parse();
+    coverage.assign(statements);
+    new ScopeAnalyzer().analyze(statements);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Interpreter interpreter = new Interpreter(
+        new PrintStream(out, true, StandardCharsets.UTF_8), Natives.globals(), null, null);
+    interpreter.setCoverage(coverage.register());
+    interpreter.interpret(statements);
+    assertEquals("2000\n", out.toString(StandardCharsets.UTF_8));
+
+    // i goes from 0 to 10 by twos (5 times), then by ones to 2000 except for
+    // 1500 -> 1502 (1989 times)
+    Path lcov = directory.resolve("script.info");
+    Path source = directory.resolve("script.lox");
+    coverage.writeLcov(lcov, source);
+    assertEquals(String.join("\n",
+        "TN:",
+        "SF:" + source.toAbsolutePath(),
+        "BRDA:2,0,0,1994",     // while: 1994 more iterations, then done once
+        "BRDA:2,0,1,1",
+        "BRDA:3,1,0,6",        // if: 5 while i < 10, then i == 1500
+        "BRDA:3,1,1,1988",
+        "BRDA:3,2,0,1989",     // or: the right side ran whenever i < 10 didn't decide it
+        "BRDA:3,2,1,5",
+        "BRDA:9,3,0,0",
+        "BRDA:9,3,1,1",
+        "BRDA:10,4,0,4",       // for: the break leaves before the condition fails
+        "BRDA:10,4,1,0",
+        "BRDA:11,5,0,1",
+        "BRDA:11,5,1,3",
+        "BRF:12",
+        "BRH:10",
+        "DA:1,1",
+        "DA:2,1994",           // the body's block starts on the loop's line
+        "DA:3,1994",
+        "DA:4,6",
+        "DA:5,1988",
+        "DA:6,1988",
+        "DA:9,1",
+        "DA:10,4",
+        "DA:11,4",
+        "DA:13,1",
+        "LF:10",
+        "LH:10",
+        "end_of_record",
+        ""), Files.readString(lcov));
+  }
+}
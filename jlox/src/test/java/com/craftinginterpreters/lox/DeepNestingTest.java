@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/* --deep: the flat parser builds the same trees and reports the same errors
+ * as the recursive one, and nesting far past what the Java stack would take
+ * parses and runs (the interpreter hands anything deeper than MAX_DEPTH to
+ * StackMachine whether or not the parse was flat)
+ */
+class DeepNestingTest {
+  private static final int DEPTH = 100_000;
+
+  @Test
+  void sameTreeAsTheRecursiveParser() throws IOException {
+    String source =
+        "var a = 1; var b = \"s\"; var c;\n" +
+        "a = b = c = -(1 + 2) * 3 - 4 / (5 - -6) >= 7 == !true != nil or a and b;\n" +
+        "{ var d = (((a))); { print d; } }\n" +
+        "if (a) if (b) print 1; else print 2;\n" +
+        "while (a < 10) { a = a + 1; if (a == 5) { print a; } else { print -a; } }\n" +
+        "for (var i = 0; i < 3; i = i + 1) print i;\n" +
+        "for (;;) { break; }\n" +
+        "var arr = [1, [2, 3], nil]; arr[1][0] = arr[0] + len(\"x\");\n" +
+        "var ch = channel(2); spawn { send ch, 1; } print receive ch;\n";
+    assertEquals(dump(parse(source, false)), dump(parse(source, true)));
+  }
+
+  @Test
+  void sameErrors() {
+    for (String source : new String[] {
+        "var = 1;", "print (1 + 2;", "{ print 1;", "1 + ;", "a = 1 = 2;",
+        "if (true print 1;", "print 1 print 2;", "break;", "[1, 2;" }) {
+      assertEquals(errors(source, false), errors(source, true), source);
+    }
+  }
+
+  @Test
+  void deepGrouping() {
+    assertRuns("print " + "(".repeat(DEPTH) + "1 + 2" + ")".repeat(DEPTH) + ";", "3\n");
+  }
+
+  @Test
+  void deepRightNestedArithmetic() {
+    assertRuns("print " + "1 + (".repeat(DEPTH) + "0" + ")".repeat(DEPTH) + ";",
+        DEPTH + "\n");
+  }
+
+  @Test
+  void deepUnary() {
+    assertRuns("print " + "!".repeat(DEPTH) + "true;", "true\n");
+  }
+
+  @Test
+  void deepBlocks() {
+    assertRuns("var x = 0;" + "{ x = x + 1; ".repeat(DEPTH) + "}".repeat(DEPTH) + " print x;",
+        DEPTH + "\n");
+  }
+
+  @Test
+  void deepIfs() {
+    assertRuns("var n = 0;" + "if (true) ".repeat(DEPTH) + "n = 7; print n;", "7\n");
+  }
+
+  private static void assertRuns(String source, String output) {
+    Scripts.Result result =
+        Scripts.run(() -> parse(source, true), Budget.unlimited(), true);
+    assertEquals("", result.err);
+    assertEquals(output, result.out);
+  }
+
+  private static List<Stmt> parse(String source, boolean flat) {
+    return new Parser(new Scanner(source).scanTokens(), flat).parse();
+  }
+
+  private static String errors(String source, boolean flat) {
+    return Scripts.run(() -> parse(source, flat), Budget.unlimited(), true).err;
+  }
+
+  private static String dump(List<Stmt> statements) throws IOException {
+    StringWriter out = new StringWriter();
+    new AstWriter(out).write(statements);
+    return out.toString();
+  }
+}
@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/* probes see exactly the nodes they picked, every time those run, in order,
+ * including inside loops hot enough that they'd otherwise be compiled; and a
+ * program nobody probes is left alone
+ */
+class InstrumenterTest {
+  private static final String PROGRAM =
+      "var x = 1;\n" +                          // 1
+      "var i = 0;\n" +                          // 2
+      "while (i < 3000) {\n" +                  // 3
+      "  i = i + 1;\n" +                        // 4
+      "  if (i > 2998) x = x + i;\n" +          // 5
+      "}\n" +
+      "print x;\n";                             // 7
+
+  @Test
+  void noProbesNoChange() {
+    List<Stmt> statements = parse(PROGRAM);
+    assertSame(statements, new Instrumenter().instrument(statements));
+  }
+
+  @Test
+  void tracesStatementsOnALine() {
+    List<String> events = new ArrayList<>();
+    Instrumenter instrumenter = new Instrumenter();
+    instrumenter.statements(Instrumenter.atLine(5), new Instrumenter.Listener() {
+      @Override
+      public void enter(Stmt stmt, Environment environment) {
+        events.add("enter " + stmt.getClass().getSimpleName());
+      }
+
+      @Override
+      public void exit(Stmt stmt, Environment environment) {
+        events.add("exit " + stmt.getClass().getSimpleName());
+      }
+    });
+
+    Scripts.Result result = run(instrumenter);
+    assertEquals(Scripts.run(PROGRAM).out, result.out);
+    // the if and the assignment inside it
+    assertEquals(3000 * 2 + 2 * 2, events.size());
+    assertEquals(List.of("enter If", "exit If"), events.subList(0, 2));
+    assertEquals(List.of("enter If", "enter Expression", "exit Expression", "exit If"),
+        events.subList(events.size() - 4, events.size()));
+  }
+
+  @Test
+  void watchesAssignments() {
+    List<String> values = new ArrayList<>();
+    Instrumenter instrumenter = new Instrumenter();
+    instrumenter.expressions(
+        Instrumenter.<Expr>ofKind(Expr.Assign.class).and((expr, line) ->
+            ((Expr.Assign) expr).name.lexeme.equals("x")),
+        new Instrumenter.Listener() {
+          @Override
+          public void value(Expr expr, Object value, int line) {
+            values.add(line + ": " + value);
+          }
+        });
+
+    Scripts.Result result = run(instrumenter);
+    assertEquals("6000\n", result.out);
+    assertEquals(List.of("5: 3000.0", "5: 6000.0"), values);
+  }
+
+  // a statement a runtime error goes through never reports exit()
+  @Test
+  void noExitOnError() {
+    List<String> events = new ArrayList<>();
+    Instrumenter instrumenter = new Instrumenter();
+    instrumenter.statements(Instrumenter.ofKind(Stmt.Print.class), new Instrumenter.Listener() {
+      @Override
+      public void enter(Stmt stmt, Environment environment) {
+        events.add("enter " + stmt.line);
+      }
+
+      @Override
+      public void exit(Stmt stmt, Environment environment) {
+        events.add("exit " + stmt.line);
+      }
+    });
+
+    Scripts.Result result = Scripts.run(
+        () -> instrumenter.instrument(parse("print 1;\nprint -nil;\nprint 3;")),
+        Budget.unlimited(), true);
+    assertEquals(70, result.status);
+    assertEquals(List.of("enter 1", "exit 1", "enter 2", "enter 3", "exit 3"), events);
+  }
+
+  private static Scripts.Result run(Instrumenter instrumenter) {
+    return Scripts.run(() -> instrumenter.instrument(parse(PROGRAM)), Budget.unlimited(), true);
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+}
@@ -0,0 +1,107 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/* --lazy against the normal parser: the same tree once everything's been
+ * looked at, the same errors up front, the same output, and blocks that never
+ * run never get parsed
+ */
+class LazyParseTest {
+  private static final String PROGRAM =
+      "var total = 0;\n" +
+      "var i = 0;\n" +
+      "while (i < 2000) {\n" +
+      "  var step = 1;\n" +
+      "  if (i < 3) { print \"early \" + i; } else { total = total + i; }\n" +
+      "  { { var deep = i * 2; if (deep == 3998) { print deep; } } }\n" +
+      "  if (i == 1990) { i = i + step; continue; }\n" +
+      "  if (i > 1995) { break; }\n" +
+      "  i = i + step;\n" +
+      "}\n" +
+      "print total;\n" +
+      "if (false) { print \"never\"; { var unused = nil; } }\n";
+
+  @Test
+  void sameTreeOnceParsed() throws IOException {
+    List<Stmt> eager = new Parser(new Scanner(PROGRAM).scanTokens()).parse();
+    assertEquals(dump(eager), dump(lazy(PROGRAM)));
+  }
+
+  @Test
+  void sameOutput() {
+    Scripts.Result eager = Scripts.run(PROGRAM);
+    for (boolean tiering : new boolean[] { true, false }) {
+      Scripts.Result result =
+          Scripts.run(() -> lazy(PROGRAM), Budget.unlimited(), tiering);
+      assertEquals(0, result.status, result.err);
+      assertEquals(eager.out, result.out);
+    }
+  }
+
+  @Test
+  void blocksThatNeverRunStayUnparsed() {
+    List<Stmt> program = lazy("if (true) { print 1; } else { print 2; }");
+    Scripts.Result result = Scripts.run(() -> program, Budget.unlimited(), true);
+    assertEquals("1\n", result.out);
+
+    Stmt.If branch = (Stmt.If) program.get(0);
+    assertTrue(((LazyBlock) ((Stmt.Block) branch.thenBranch).statements).parsed());
+    assertFalse(((LazyBlock) ((Stmt.Block) branch.elseBranch).statements).parsed());
+  }
+
+  // the skim checks the syntax, so nothing runs if a block anywhere is broken
+  @Test
+  void syntaxErrorsComeOutBeforeAnythingRuns() {
+    for (String source : new String[] {
+        "print 1; if (false) { print ; }",
+        "print 1; if (false) { { var = 2; } }",
+        "print 1; if (false) { break; }",
+        "print 1; while (false) { spawn { break; } }" }) {
+      Scripts.Result result = Scripts.run(() -> lazy(source), Budget.unlimited(), true);
+      assertEquals(65, result.status, source);
+      assertEquals("", result.out, source);
+      assertEquals(Scripts.run(source).err, result.err, source);
+    }
+  }
+
+  /* every block is skimmed once, not once for each block around it, so the
+   * tokens scanned stay a small multiple of the source's (skimmed, then
+   * parsed once) rather than growing with depth squared
+   */
+  @Test
+  void deepNestingIsScannedOnce() {
+    int depth = 1000;
+    String source = "{".repeat(depth) + " print \"bottom\"; " + "}".repeat(depth);
+    int tokens = new Scanner(source).scanTokens().size();
+
+    Scanner scanner = new Scanner(source);
+    int[] scanned = { 0 };
+    TokenSource counted = new TokenSource(() -> {
+      scanned[0]++;
+      return scanner.nextToken();
+    });
+    Scripts.Result result = Scripts.run(
+        () -> new Parser(counted, scanner).parse(), Budget.unlimited(), true);
+    assertEquals(0, result.status, result.err);
+    assertEquals("bottom\n", result.out);
+    assertTrue(scanned[0] < 3 * tokens, scanned[0] + " tokens scanned for " + tokens);
+  }
+
+  private static List<Stmt> lazy(String source) {
+    Scanner scanner = new Scanner(source);
+    return new Parser(new TokenSource(scanner::nextToken), scanner).parse();
+  }
+
+  // AstWriter goes into every block, which parses the lazy ones
+  private static String dump(List<Stmt> statements) throws IOException {
+    StringBuilder text = new StringBuilder();
+    new AstWriter(text).write(statements);
+    return text.toString();
+  }
+}
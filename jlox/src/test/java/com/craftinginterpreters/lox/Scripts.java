@@ -0,0 +1,74 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Supplier;
+
+/* runs a script the way Lox.run does (scan, parse, analyze, interpret) with
+ * its output and errors caught in strings, for tests that need more than a
+ * .lox/.expected pair can say: a budget, no tiering, a look at the interpreter
+ * afterwards
+ */
+final class Scripts {
+  private Scripts() {}
+
+  static final class Result {
+    final String out;
+    final String err;
+    final int status; // what runFile would exit with
+    final Interpreter interpreter;
+
+    Result(String out, String err, int status, Interpreter interpreter) {
+      this.out = out;
+      this.err = err;
+      this.status = status;
+      this.interpreter = interpreter;
+    }
+  }
+
+  static Result run(String source) {
+    return run(source, Budget.unlimited(), true);
+  }
+
+  static Result run(String source, Budget budget, boolean tiering) {
+    return run(() -> new Parser(new Scanner(source).scanTokens()).parse(), budget, tiering);
+  }
+
+  // the parse happens in here too, so its errors end up in the result
+  static Result run(Supplier<List<Stmt>> parse, Budget budget, boolean tiering) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    Lox.Report report = new Lox.Report(new PrintStream(err, true, StandardCharsets.UTF_8));
+    Interpreter interpreter = new Interpreter(
+        new PrintStream(out, true, StandardCharsets.UTF_8), Natives.globals(), null, null);
+    interpreter.setTiering(tiering);
+
+    Lox.attach(report);
+    try {
+      List<Stmt> statements = parse.get();
+      if (!report.hadError) {
+        new ScopeAnalyzer().analyze(statements);
+        interpreter.setBudget(budget);
+        interpreter.interpret(statements);
+      }
+    } finally {
+      Lox.attach(null);
+    }
+    return new Result(out.toString(StandardCharsets.UTF_8),
+        err.toString(StandardCharsets.UTF_8), report.exitCode(), interpreter);
+  }
+
+  // null if it doesn't parse
+  static List<Stmt> parse(String source) {
+    Lox.Report report = new Lox.Report(new PrintStream(new ByteArrayOutputStream()));
+    Lox.attach(report);
+    try {
+      List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+      return report.hadError ? null : statements;
+    } finally {
+      Lox.attach(null);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* one --server for the whole class, talked to over the socket the way Client
+ * does. the bad requests go first in each test so the good one after them
+ * shows the server is still up
+ */
+class ServerTest {
+  @TempDir
+  static Path directory;
+  private static Path socket;
+
+  private static final class Response {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status;
+
+    String out() {
+      return out.toString(StandardCharsets.UTF_8);
+    }
+
+    String err() {
+      return err.toString(StandardCharsets.UTF_8);
+    }
+  }
+
+  @BeforeAll
+  static void start() throws IOException, InterruptedException {
+    socket = directory.resolve("lox.sock");
+    Thread server = new Thread(() -> {
+      try {
+        Server.serve(socket);
+      } catch (IOException error) {
+        throw new UncheckedIOException(error);
+      }
+    }, "lox-server");
+    server.setDaemon(true);
+    server.start();
+
+    // the socket file shows up a moment before the server listens on it, so
+    // wait for a request to go through. it's bound before the warm-up, after
+    // that connections wait in the backlog until the server gets to them
+    for (;;) {
+      try {
+        send(Server.SOURCE, "");
+        return;
+      } catch (SocketException notYet) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  @Test
+  void runsSource() throws IOException {
+    Response response = send(Server.SOURCE, "var a = 20; print a + 22;");
+    assertEquals(0, response.status);
+    assertEquals("42\n", response.out());
+  }
+
+  @Test
+  void runsPath() throws IOException {
+    Path script = directory.resolve("script.lox");
+    Files.writeString(script, "print \"from a file\";\n");
+    Response response = send(Server.PATH, script.toString());
+    assertEquals(0, response.status);
+    assertEquals("from a file\n", response.out());
+
+    response = send(Server.PATH, directory.resolve("missing.lox").toString());
+    assertEquals(Server.CANNOT_READ, response.status);
+  }
+
+  @Test
+  void exitsLikeRunFile() throws IOException {
+    Response response = send(Server.SOURCE, "print ;");
+    assertEquals(65, response.status);
+    assertEquals("[line 1] Error at ';': Expect expression.\n", response.err());
+
+    response = send(Server.SOURCE, "print 1;\nprint -\"a\";");
+    assertEquals(70, response.status);
+    assertEquals("1\n", response.out());
+    assertEquals("Operand must be a number.\n[line 2]\n", response.err());
+  }
+
+  // every request gets a fresh interpreter
+  @Test
+  void nothingCarriesOver() throws IOException {
+    assertEquals(0, send(Server.SOURCE, "var leftover = 1;").status);
+    Response response = send(Server.SOURCE, "print leftover;");
+    assertEquals(70, response.status);
+    assertTrue(response.err().startsWith("Undefined variable 'leftover'."), response.err());
+  }
+
+  // used to be a NegativeArraySizeException that took the server down
+  @Test
+  void refusesBadLengths() throws IOException {
+    for (int length : new int[] { -5, Integer.MIN_VALUE, Server.MAX_REQUEST_BYTES + 1,
+                                  Integer.MAX_VALUE }) {
+      Response response = request(Server.SOURCE, length, new byte[0]);
+      assertEquals(Server.BAD_REQUEST, response.status);
+      assertEquals("Request length " + length + " is out of range.\n", response.err());
+    }
+    assertEquals("ok\n", send(Server.SOURCE, "print \"ok\";").out());
+  }
+
+  @Test
+  void refusesUnknownKinds() throws IOException {
+    Response response = request((byte) 'Q', 0, new byte[0]);
+    assertEquals(Server.BAD_REQUEST, response.status);
+    assertEquals("ok\n", send(Server.SOURCE, "print \"ok\";").out());
+  }
+
+  // a client that goes away halfway through its request only loses that request
+  @Test
+  void survivesClientsThatHangUp() throws IOException {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+      out.writeByte(Server.SOURCE);
+      out.writeInt(100);
+      out.write(new byte[] { 'p', 'r' });
+      out.flush();
+    }
+    assertEquals("ok\n", send(Server.SOURCE, "print \"ok\";").out());
+  }
+
+  private static Response send(byte kind, String text) throws IOException {
+    byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+    return request(kind, payload.length, payload);
+  }
+
+  private static Response request(byte kind, int length, byte[] payload) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+      out.writeByte(kind);
+      out.writeInt(length);
+      out.write(payload);
+      out.flush();
+
+      Response response = new Response();
+      DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+      for (;;) {
+        byte frame = in.readByte();
+        if (frame == Server.EXIT) {
+          response.status = in.readInt();
+          return response;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        (frame == Server.STDERR ? response.err : response.out).write(bytes);
+      }
+    }
+  }
+}
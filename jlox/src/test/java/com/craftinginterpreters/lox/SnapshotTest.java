@@ -0,0 +1,117 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* a prelude's globals written out and read back in: every kind of value that
+ * can be saved comes back the same, the ones that can't are refused, and a
+ * broken file is an IOException rather than a crash or a huge allocation
+ */
+class SnapshotTest {
+  @TempDir
+  Path directory;
+
+  private static final String PRELUDE =
+      "var zero = 0; var negativeZero = -0; var nan = 0 / 0; var infinity = 1 / 0;\n" +
+      "var pi = 3.141592653589793; var empty = \"\"; var text = \"héllo, wörld \\ ✓\";\n" +
+      "var yes = true; var no = false; var nothing = nil;\n" +
+      "var changed = 1; changed = \"later\";\n";
+
+  @Test
+  void roundTrips() throws IOException {
+    Scripts.Result prelude = Scripts.run(PRELUDE);
+    assertEquals(0, prelude.status, prelude.err);
+
+    Path file = directory.resolve("prelude.snap");
+    Snapshot.write(prelude.interpreter.globals(), file);
+    Snapshot snapshot = Snapshot.read(file);
+    assertEquals(11, snapshot.size());
+
+    Map<String, Object> saved = userGlobals(prelude.interpreter.globals());
+    assertEquals(saved, userGlobals(snapshot.restore()));
+    assertEquals(Double.doubleToRawLongBits(-0.0),
+        Double.doubleToRawLongBits((Double) userGlobals(snapshot.restore()).get("negativeZero")));
+
+    // every restore is a separate set of globals, with the natives in it
+    Environment first = snapshot.restore();
+    first.define("changed", 2.0);
+    assertEquals("later", userGlobals(snapshot.restore()).get("changed"));
+    assertTrue(Natives.isBuiltIn("sqrt", first.get(name("sqrt"))));
+  }
+
+  @Test
+  void refusesValuesThatBelongToTheRun() {
+    for (String prelude : new String[] { "var c = channel(1);", "var a = [1, 2];",
+                                         "var f = sqrt; var g = f;" }) {
+      Scripts.Result result = Scripts.run(prelude);
+      assertEquals(0, result.status, result.err);
+      IOException error = assertThrows(IOException.class, () ->
+          Snapshot.write(result.interpreter.globals(), directory.resolve("bad.snap")));
+      assertTrue(error.getMessage().contains("only lives as long as the run"), prelude);
+    }
+  }
+
+  @Test
+  void refusesBrokenFiles() throws IOException {
+    Path file = directory.resolve("prelude.snap");
+    Snapshot.write(Scripts.run(PRELUDE).interpreter.globals(), file);
+    byte[] good = Files.readAllBytes(file);
+
+    // the last value is the string "later", its length no longer fits
+    assertBroken(Arrays.copyOf(good, good.length - 3), "corrupt snapshot.");
+    assertBroken(Arrays.copyOf(good, 7), "snapshot is truncated.");
+
+    byte[] magic = good.clone();
+    magic[0] ^= 1;
+    assertBroken(magic, "not a jlox snapshot.");
+
+    byte[] version = good.clone();
+    version[4] = (byte) (Snapshot.VERSION + 1);
+    assertBroken(version, "snapshot version " + version[4] + ", expected " + Snapshot.VERSION + ".");
+
+    // a count the file can't possibly hold is refused before anything is sized from it
+    assertBroken(header(Integer.MAX_VALUE), "corrupt snapshot.");
+    assertBroken(header(-1), "corrupt snapshot.");
+  }
+
+  private void assertBroken(byte[] bytes, String message) throws IOException {
+    Path file = directory.resolve("broken.snap");
+    Files.write(file, bytes);
+    IOException error = assertThrows(IOException.class, () -> Snapshot.read(file));
+    assertEquals(message, error.getMessage());
+  }
+
+  private static byte[] header(int count) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(Snapshot.MAGIC);
+    out.writeByte(Snapshot.VERSION);
+    out.writeInt(count);
+    out.write(new byte[64]);
+    return bytes.toByteArray();
+  }
+
+  private static Map<String, Object> userGlobals(Environment globals) {
+    Map<String, Object> variables = new LinkedHashMap<>();
+    globals.forEachVariable((name, value) -> {
+      if (!Natives.isBuiltIn(name, value)) variables.put(name, value);
+    });
+    return variables;
+  }
+
+  private static Token name(String lexeme) {
+    return new Token(TokenType.IDENTIFIER, lexeme, null, 1);
+  }
+}
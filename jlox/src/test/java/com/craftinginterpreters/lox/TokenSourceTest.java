@@ -0,0 +1,103 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/* TokenSource pulling from the scanner a token at a time, against the list
+ * scanTokens() builds up front: same tokens, and the ring buffer only ever
+ * holds a few of them however long the source is
+ */
+class TokenSourceTest {
+  // long enough to go round the ring a few thousand times
+  private static final String SOURCE = program(2000);
+
+  @Test
+  void pullsTheSameTokensAsTheList() {
+    List<Token> expected = new Scanner(SOURCE).scanTokens();
+    TokenSource tokens = new TokenSource(new Scanner(SOURCE)::nextToken);
+
+    for (Token want : expected) {
+      Token got = tokens.advance();
+      assertEquals(want.type, got.type);
+      assertEquals(want.lexeme, got.lexeme);
+      assertEquals(want.literal, got.literal);
+      assertEquals(want.line, got.line);
+      assertEquals(want.offset, got.offset);
+    }
+    assertEquals(expected.size(), tokens.count());
+  }
+
+  @Test
+  void parsesTheSameAsTheList() throws IOException {
+    List<Stmt> fromList = new Parser(new Scanner(SOURCE).scanTokens()).parse();
+    List<Stmt> pulled =
+        new Parser(new TokenSource(new Scanner(SOURCE)::nextToken), false).parse();
+    assertEquals(dump(fromList), dump(pulled));
+  }
+
+  // the lexer is only asked for what peek() needs
+  @Test
+  void scansOnDemand() {
+    TokenSource tokens = new TokenSource(new Scanner("var a = 1; print a;")::nextToken);
+    assertEquals(0, tokens.count());
+    assertEquals(TokenType.VAR, tokens.peek().type);
+    assertEquals(1, tokens.count());
+    assertEquals(TokenType.EQUAL, tokens.peek(2).type);
+    assertEquals(3, tokens.count());
+    tokens.advance();
+    assertEquals(TokenType.VAR, tokens.previous().type);
+    assertEquals(3, tokens.count());
+  }
+
+  // and the lexer isn't asked again once it's said EOF
+  @Test
+  void endOfFileRepeats() {
+    Scanner scanner = new Scanner("x");
+    int[] scanned = { 0 };
+    TokenSource tokens = new TokenSource(() -> {
+      scanned[0]++;
+      return scanner.nextToken();
+    });
+    tokens.advance();
+    Token eof = tokens.advance();
+    assertEquals(TokenType.EOF, eof.type);
+    for (int i = 0; i < 20; i++) assertSame(eof, tokens.advance());
+    assertEquals(2, scanned[0]);
+  }
+
+  @Test
+  void rewindsInsideTheWindow() {
+    TokenSource tokens = new TokenSource(new Scanner(SOURCE)::nextToken);
+    List<Token> seen = new ArrayList<>();
+    for (int i = 0; i < 100; i++) seen.add(tokens.advance());
+
+    tokens.rewind(5);
+    for (int i = 95; i < 100; i++) assertSame(seen.get(i), tokens.advance());
+
+    assertThrows(IllegalStateException.class, () -> tokens.rewind(20));
+    assertThrows(IllegalArgumentException.class, () -> tokens.peek(64));
+  }
+
+  private static String dump(List<Stmt> statements) throws IOException {
+    StringBuilder text = new StringBuilder();
+    new AstWriter(text).write(statements);
+    return text.toString();
+  }
+
+  private static String program(int lines) {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      source.append("var v").append(i).append(" = ").append(i).append(" * 2.5 + \"s")
+          .append(i).append("\" == nil; // comment ").append(i).append('\n');
+      source.append("while (v").append(i).append(" <= ").append(i)
+          .append(") { print -v").append(i).append("; }\n");
+    }
+    return source.toString();
+  }
+}